@@ -0,0 +1,38 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removing the UTF-8 byte order mark from a String compared to skipping it in the message body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BomBenchmark {
+
+    @Param({"true", "false"})
+    public boolean bom;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        String xml = LsBL.write(TestHelper.createTestEvent("EVENT.APP.METADATASERVICE.METADATA_ADDED"));
+        body = ((bom ? "\uFEFF" : "") + xml).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String stringAutoRemoveBom() {
+        return ServiceClient.autoRemoveBom(new String(body, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public int byteBomLength() {
+        return LsblCodec.bomLength(body);
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response dispatch of the shared reply queue: decoding the response, looking up the pending call by its
+ * sequence number and invoking the callback. The responses are prepared with a RequestTemplate, so only the
+ * sequence number has to be patched per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchBenchmark {
+
+    private SharedReplyQueue replyQueue;
+    private RequestTemplate response;
+    private Lsbl request;
+
+    @Setup
+    public void setup() {
+        replyQueue = new SharedReplyQueue(null, "PARTNER.CLIENT.BENCHMARK", "PARTNER");
+        response = RequestTemplate.of(TestHelper.createDeviceListResponse(10));
+        request = LsBL.create(null, "SERVICE.TOPOSERVICE", 0);
+    }
+
+    @Benchmark
+    public void dispatch(Blackhole blackhole) {
+        SharedReplyQueue.PendingCall pendingCall = replyQueue.register(request, blackhole::consume);
+        replyQueue.dispatch(response.encode("SERVICE.TOPOSERVICE", pendingCall.seq, null));
+    }
+
+}
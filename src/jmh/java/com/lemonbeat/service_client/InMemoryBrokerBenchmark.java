@@ -0,0 +1,76 @@
+package com.lemonbeat.service_client;
+
+import com.rabbitmq.client.Channel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls and events per second end to end in the JVM: the ServiceClient against the InMemoryBroker and the
+ * ServiceResponders, including encoding, routing, dispatch and decoding. Each operation is one call answered
+ * by the simulated value service or one event received by a subscription, the score is calls/s and events/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InMemoryBrokerBenchmark {
+
+    private static final int BATCH = 1000;
+    private static final String EVENT_NAME = "EVENT.APP.TESTSERVICE.THROUGHPUT";
+
+    private ServiceResponders services;
+    private ServiceClient serviceClient;
+    private RequestTemplate template;
+    private Subscription subscription;
+    private Channel channel;
+    private byte[] event;
+    private volatile CountDownLatch received;
+
+    @Setup
+    public void setup() throws Exception {
+        InMemoryBroker broker = new InMemoryBroker();
+        services = new ServiceResponders(broker.newConnection()).start();
+        serviceClient = new ServiceClient(broker.newConnection());
+        serviceClient.setSharedReplyQueue(true);
+        template = new ValueServiceClient(serviceClient).getValuesBySgtinTemplate(TestHelper.randomSgtin());
+        subscription = serviceClient.subscribe(EVENT_NAME, lsbl -> received.countDown(),
+                new SubscriptionOptions().setPrefetchCount(100).setAckBatchSize(50));
+        channel = broker.newConnection().createChannel();
+        event = LsblCodec.encode(TestHelper.createTestEvent(EVENT_NAME));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        subscription.cancel();
+        services.close();
+        serviceClient.getConnection().close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void calls() throws InterruptedException {
+        CountDownLatch answered = new CountDownLatch(BATCH);
+        for(int i = 0; i < BATCH; i++) {
+            serviceClient.call(template, response -> answered.countDown());
+        }
+        await(answered);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void events() throws Exception {
+        received = new CountDownLatch(BATCH);
+        for(int i = 0; i < BATCH; i++) {
+            channel.basicPublish("EVENT.APP", EVENT_NAME, null, event);
+        }
+        await(received);
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        if(!latch.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(latch.getCount() + " of " + BATCH + " operations did not complete");
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.bind.JAXBException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding and encoding of LsBL messages with the LsBL library compared to the LsblCodec.
+ * METADATA_ADDED_64K is an event with a 64 KB body and a byte order mark, run with -prof gc to compare
+ * the bytes allocated per message by the String based path and the byte level path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LsblCodecBenchmark {
+
+    @Param({"VALUE_REPORTED", "DEVICE_LIST_1000", "METADATA_ADDED", "METADATA_ADDED_64K"})
+    public String payload;
+
+    private Lsbl lsbl;
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        String bom = "";
+        switch (payload) {
+            case "VALUE_REPORTED":
+                lsbl = TestHelper.createValueReportedEvent(TestHelper.randomSgtin(), TestHelper.randomSgtin(), TestHelper.createValueReport(5));
+                break;
+            case "DEVICE_LIST_1000":
+                lsbl = TestHelper.createDeviceListResponse(1000);
+                break;
+            case "METADATA_ADDED_64K":
+                lsbl = TestHelper.createTestEvent("EVENT.APP.METADATASERVICE.METADATA_ADDED");
+                lsbl.getEvent().getMetadataEvent().getMetadataAdded().setUuid(TestHelper.randomString(64 * 1024));
+                bom = "\uFEFF";
+                break;
+            default:
+                lsbl = TestHelper.createTestEvent("EVENT.APP.METADATASERVICE.METADATA_ADDED");
+        }
+        body = (bom + LsBL.write(lsbl)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Lsbl libraryParse() throws JAXBException {
+        return LsBL.parse(ServiceClient.autoRemoveBom(new String(body, StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public Lsbl codecDecode() throws JAXBException {
+        return LsblCodec.decode(body);
+    }
+
+    @Benchmark
+    public byte[] libraryWrite() {
+        return LsBL.write(lsbl).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return LsblCodec.encode(lsbl);
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsdl.LsDL;
+import com.lemonbeat.lsdl.value.Network;
+import com.lemonbeat.lsdl.value.ValueReportType;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of DEVICE_VALUE_REPORTED events and their LsDL value report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ValueReportBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int values;
+
+    private String lsdl;
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        lsdl = TestHelper.createValueReport(values);
+        Lsbl event = TestHelper.createValueReportedEvent(TestHelper.randomSgtin(), TestHelper.randomSgtin(), lsdl);
+        body = LsBL.write(event).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<ValueReportType> libraryParseValueReport() throws JAXBException {
+        return LsDL.parseValueReport(lsdl);
+    }
+
+    @Benchmark
+    public Network codecParseValueLsdl() throws JAXBException {
+        return LsblCodec.parseValueLsdl(lsdl);
+    }
+
+    @Benchmark
+    public List<ValueReportType> jaxbEvent() throws JAXBException {
+        Lsbl event = LsblCodec.decode(body);
+        return LsDL.parseValueReport(event.getEvent().getValueEvent().getDeviceValueReported().getLsdl());
+    }
+
+    @Benchmark
+    public DeviceValueReport streamingEvent() throws XMLStreamException {
+        return ValueReportDecoder.decode(body);
+    }
+
+}
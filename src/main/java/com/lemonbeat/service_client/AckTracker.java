@@ -0,0 +1,117 @@
+package com.lemonbeat.service_client;
+
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces the acknowledgements of one consumer channel.
+ * Deliveries may complete out of order, but only the contiguous range of completed delivery tags is acknowledged
+ * with multiple=true, either when batchSize deliveries are ready or batchTimeoutMs after the first completion.
+ * The time based flush is handed from the scheduler to the executor, so the scheduler thread never waits for the channel.
+ * The acknowledgement is sent while the lock is held to keep the delivery tags in order. It is a ReentrantLock
+ * instead of synchronized, so a virtual thread that waits for the channel does not pin its carrier thread.
+ */
+class AckTracker {
+
+    private final Channel channel;
+    private final int batchSize;
+    private final long batchTimeoutMs;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Delivery tag of the first delivery that was not acknowledged yet. The broker numbers the deliveries of a channel
+     * from 1, so the range starts there and not at the first completion, which may be a later delivery.
+     */
+    private long base = 1;
+    /** Completed deliveries, bit i stands for the delivery tag base + i. */
+    private BitSet completed = new BitSet();
+    private ScheduledFuture<?> flush;
+
+    /**
+     * @param channel Channel the deliveries were received on
+     * @param batchSize Number of contiguous completed deliveries that are acknowledged at once
+     * @param batchTimeoutMs Maximum time in milliseconds a completed delivery waits for its acknowledgement
+     * @param scheduler Scheduler for the time based flush
+     * @param executor Executor that runs the time based flush
+     */
+    AckTracker(Channel channel, int batchSize, long batchTimeoutMs, ScheduledExecutorService scheduler, Executor executor) {
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.batchTimeoutMs = batchTimeoutMs;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Marks the delivery as completed and acknowledges the contiguous range if the batch is full.
+     * @param deliveryTag Delivery tag of the processed delivery
+     */
+    void complete(long deliveryTag) {
+        lock.lock();
+        try {
+            if(deliveryTag < base) {
+                // Already covered by an earlier acknowledgement, e.g. after a channel recovery
+                return;
+            }
+            completed.set((int) (deliveryTag - base));
+            int ready = completed.nextClearBit(0);
+            if(ready >= batchSize) {
+                ack(ready);
+            } else if(flush == null) {
+                scheduleFlush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Acknowledges all contiguous completed deliveries right away.
+     */
+    void flush() {
+        lock.lock();
+        try {
+            flush = null;
+            int ready = completed.nextClearBit(0);
+            if(ready > 0) {
+                ack(ready);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void scheduleFlush() {
+        flush = scheduler.schedule(() -> executor.execute(this::flush), batchTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void ack(int ready) {
+        long deliveryTag = base + ready - 1;
+        completed = completed.get(ready, Math.max(ready, completed.length()));
+        base = deliveryTag + 1;
+        if(flush != null) {
+            flush.cancel(false);
+            flush = null;
+        }
+        if(completed.cardinality() > 0) {
+            scheduleFlush();
+        }
+        try {
+            channel.basicAck(deliveryTag, true);
+        } catch (AlreadyClosedException alreadyClosedException) {
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
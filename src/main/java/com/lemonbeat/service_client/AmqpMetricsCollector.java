@@ -0,0 +1,519 @@
+package com.lemonbeat.service_client;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.MetricsCollector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe MetricsCollector for the RabbitMQ client that can be passed to the ServiceClient constructor.
+ * The RabbitMQ client calls it from its I/O and consumer threads, so all counters are LongAdders
+ * and recording never takes a lock. Besides the totals it keeps a breakdown per open channel and per active consumer.
+ * <pre>
+ * AmqpMetricsCollector metricsCollector = new AmqpMetricsCollector();
+ * ServiceClient serviceClient = new ServiceClient("settings.properties", metricsCollector);
+ * AmqpMetricsCollector.Snapshot snapshot = metricsCollector.snapshot();
+ * </pre>
+ */
+public class AmqpMetricsCollector implements MetricsCollector {
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder publishFailures = new LongAdder();
+    private final LongAdder publishAcks = new LongAdder();
+    private final LongAdder publishNacks = new LongAdder();
+    private final LongAdder publishUnrouted = new LongAdder();
+    private final LongAdder consumed = new LongAdder();
+    private final LongAdder acks = new LongAdder();
+    private final LongAdder nacks = new LongAdder();
+    private final LongAdder rejects = new LongAdder();
+    private final LongAdder consumes = new LongAdder();
+    private final LongAdder cancels = new LongAdder();
+
+    private final ConcurrentHashMap<Channel, ChannelStats> channelStats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConsumerStats> consumerStats = new ConcurrentHashMap<>();
+    /** Counters for calls on channels that are not open anymore, never part of a snapshot. */
+    private static final ChannelStats DETACHED = new ChannelStats(0);
+
+    /** Time and counts of the previous snapshot, the rates are calculated against it. */
+    private Sample lastSample = new Sample(System.nanoTime(), 0, 0);
+
+    /**
+     * The RabbitMQ client never calls closeConnection itself, the connection is removed by its shutdown listener.
+     */
+    @Override
+    public void newConnection(Connection connection) {
+        connections.add(connection);
+        connection.addShutdownListener(cause -> closeConnection(connection));
+    }
+
+    @Override
+    public void closeConnection(Connection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * The RabbitMQ client never calls closeChannel itself, the channel and its consumers are removed by its shutdown listener.
+     */
+    @Override
+    public void newChannel(Channel channel) {
+        channelStats.put(channel, new ChannelStats(channel));
+        channel.addShutdownListener(cause -> closeChannel(channel));
+    }
+
+    @Override
+    public void closeChannel(Channel channel) {
+        channelStats.remove(channel);
+        consumerStats.values().removeIf(stats -> stats.channel == channel);
+    }
+
+    @Override
+    public void basicPublish(Channel channel) {
+        published.increment();
+        channelStats(channel).published.increment();
+    }
+
+    @Override
+    public void basicPublishFailure(Channel channel, Throwable cause) {
+        publishFailures.increment();
+    }
+
+    @Override
+    public void basicPublishAck(Channel channel, long deliveryTag, boolean multiple) {
+        publishAcks.increment();
+    }
+
+    @Override
+    public void basicPublishNack(Channel channel, long deliveryTag, boolean multiple) {
+        publishNacks.increment();
+    }
+
+    @Override
+    public void basicPublishUnrouted(Channel channel) {
+        publishUnrouted.increment();
+    }
+
+    @Override
+    public void consumedMessage(Channel channel, long deliveryTag, boolean autoAck) {
+        consumed.increment();
+        channelStats(channel).consumed.increment();
+    }
+
+    @Override
+    public void consumedMessage(Channel channel, long deliveryTag, String consumerTag) {
+        consumed.increment();
+        channelStats(channel).consumed.increment();
+        ConsumerStats stats = consumerStats.get(consumerTag);
+        if(stats != null) {
+            stats.consumed.increment();
+        }
+    }
+
+    @Override
+    public void basicAck(Channel channel, long deliveryTag, boolean multiple) {
+        acks.increment();
+        channelStats(channel).acks.increment();
+    }
+
+    @Override
+    public void basicNack(Channel channel, long deliveryTag) {
+        nacks.increment();
+        channelStats(channel).nacks.increment();
+    }
+
+    @Override
+    public void basicReject(Channel channel, long deliveryTag) {
+        rejects.increment();
+        channelStats(channel).nacks.increment();
+    }
+
+    @Override
+    public void basicConsume(Channel channel, String consumerTag, boolean autoAck) {
+        consumes.increment();
+        consumerStats.put(consumerTag, new ConsumerStats(channel, consumerTag, autoAck));
+    }
+
+    @Override
+    public void basicCancel(Channel channel, String consumerTag) {
+        cancels.increment();
+        consumerStats.remove(consumerTag);
+    }
+
+    /**
+     * Returns a consistent-enough copy of all counters, e.g. to export them every second.
+     * The publish and consume rates are calculated over the time since the previous snapshot.
+     * Taking a snapshot only reads the counters, the threads of the RabbitMQ client are never blocked.
+     * @return Snapshot of the current counters
+     */
+    public Snapshot snapshot() {
+        long now = System.nanoTime();
+        long publishedCount = published.sum();
+        long consumedCount = consumed.sum();
+        Sample previous;
+        synchronized (this) {
+            previous = lastSample;
+            lastSample = new Sample(now, publishedCount, consumedCount);
+        }
+        double seconds = Math.max(1, now - previous.nanoTime) / 1e9;
+
+        List<ChannelSnapshot> channelSnapshots = new ArrayList<>(channelStats.size());
+        for(ChannelStats stats : channelStats.values()) {
+            channelSnapshots.add(new ChannelSnapshot(stats));
+        }
+        List<ConsumerSnapshot> consumerSnapshots = new ArrayList<>(consumerStats.size());
+        for(ConsumerStats stats : consumerStats.values()) {
+            consumerSnapshots.add(new ConsumerSnapshot(stats));
+        }
+        return new Snapshot(this, publishedCount, consumedCount,
+                (publishedCount - previous.published) / seconds, (consumedCount - previous.consumed) / seconds,
+                channelSnapshots, consumerSnapshots);
+    }
+
+    /**
+     * Returns the counters of an open channel. Calls that arrive after the channel was closed are only
+     * counted in the totals, so a closed channel can not be added again.
+     */
+    private ChannelStats channelStats(Channel channel) {
+        ChannelStats stats = channelStats.get(channel);
+        return stats != null ? stats : DETACHED;
+    }
+
+    private static class Sample {
+        final long nanoTime;
+        final long published;
+        final long consumed;
+
+        Sample(long nanoTime, long published, long consumed) {
+            this.nanoTime = nanoTime;
+            this.published = published;
+            this.consumed = consumed;
+        }
+    }
+
+    private static class ChannelStats {
+        final int channelNumber;
+        final LongAdder published = new LongAdder();
+        final LongAdder consumed = new LongAdder();
+        final LongAdder acks = new LongAdder();
+        final LongAdder nacks = new LongAdder();
+
+        ChannelStats(Channel channel) {
+            this(channel.getChannelNumber());
+        }
+
+        ChannelStats(int channelNumber) {
+            this.channelNumber = channelNumber;
+        }
+    }
+
+    private static class ConsumerStats {
+        final Channel channel;
+        final String consumerTag;
+        final boolean autoAck;
+        final LongAdder consumed = new LongAdder();
+
+        ConsumerStats(Channel channel, String consumerTag, boolean autoAck) {
+            this.channel = channel;
+            this.consumerTag = consumerTag;
+            this.autoAck = autoAck;
+        }
+    }
+
+    /**
+     * Counters of the collector at the time the snapshot was taken.
+     */
+    public static class Snapshot {
+
+        private final long connections;
+        private final long channels;
+        private final long published;
+        private final long publishFailures;
+        private final long publishAcks;
+        private final long publishNacks;
+        private final long publishUnrouted;
+        private final long consumed;
+        private final long acks;
+        private final long nacks;
+        private final long rejects;
+        private final long consumes;
+        private final long cancels;
+        private final double publishRate;
+        private final double consumeRate;
+        private final List<ChannelSnapshot> channelSnapshots;
+        private final List<ConsumerSnapshot> consumerSnapshots;
+
+        Snapshot(AmqpMetricsCollector collector, long published, long consumed, double publishRate, double consumeRate,
+                 List<ChannelSnapshot> channelSnapshots, List<ConsumerSnapshot> consumerSnapshots) {
+            this.connections = collector.connections.size();
+            this.channels = collector.channelStats.size();
+            this.published = published;
+            this.publishFailures = collector.publishFailures.sum();
+            this.publishAcks = collector.publishAcks.sum();
+            this.publishNacks = collector.publishNacks.sum();
+            this.publishUnrouted = collector.publishUnrouted.sum();
+            this.consumed = consumed;
+            this.acks = collector.acks.sum();
+            this.nacks = collector.nacks.sum();
+            this.rejects = collector.rejects.sum();
+            this.consumes = collector.consumes.sum();
+            this.cancels = collector.cancels.sum();
+            this.publishRate = publishRate;
+            this.consumeRate = consumeRate;
+            this.channelSnapshots = Collections.unmodifiableList(channelSnapshots);
+            this.consumerSnapshots = Collections.unmodifiableList(consumerSnapshots);
+        }
+
+        /**
+         * Returns the number of open connections.
+         * @return Number of open connections
+         */
+        public long getConnections() {
+            return connections;
+        }
+
+        /**
+         * Returns the number of open channels.
+         * @return Number of open channels
+         */
+        public long getChannels() {
+            return channels;
+        }
+
+        /**
+         * Returns the number of published messages.
+         * @return Number of published messages
+         */
+        public long getPublished() {
+            return published;
+        }
+
+        /**
+         * Returns the number of publishes that failed.
+         * @return Number of publishes that failed
+         */
+        public long getPublishFailures() {
+            return publishFailures;
+        }
+
+        /**
+         * Returns the number of publisher confirms.
+         * @return Number of publisher confirms
+         */
+        public long getPublishAcks() {
+            return publishAcks;
+        }
+
+        /**
+         * Returns the number of negative publisher confirms.
+         * @return Number of negative publisher confirms
+         */
+        public long getPublishNacks() {
+            return publishNacks;
+        }
+
+        /**
+         * Returns the number of mandatory messages that were returned as unroutable.
+         * @return Number of mandatory messages that were returned as unroutable
+         */
+        public long getPublishUnrouted() {
+            return publishUnrouted;
+        }
+
+        /**
+         * Returns the number of consumed messages.
+         * @return Number of consumed messages
+         */
+        public long getConsumed() {
+            return consumed;
+        }
+
+        /**
+         * Returns the number of basic.ack frames, one frame may acknowledge several messages.
+         * @return Number of basic.ack frames, one frame may acknowledge several messages
+         */
+        public long getAcks() {
+            return acks;
+        }
+
+        /**
+         * Returns the number of basic.nack frames.
+         * @return Number of basic.nack frames
+         */
+        public long getNacks() {
+            return nacks;
+        }
+
+        /**
+         * Returns the number of basic.reject frames.
+         * @return Number of basic.reject frames
+         */
+        public long getRejects() {
+            return rejects;
+        }
+
+        /**
+         * Returns the number of registered consumers.
+         * @return Number of registered consumers
+         */
+        public long getConsumes() {
+            return consumes;
+        }
+
+        /**
+         * Returns the number of cancelled consumers.
+         * @return Number of cancelled consumers
+         */
+        public long getCancels() {
+            return cancels;
+        }
+
+        /**
+         * Returns the published messages per second since the previous snapshot.
+         * @return Published messages per second since the previous snapshot
+         */
+        public double getPublishRate() {
+            return publishRate;
+        }
+
+        /**
+         * Returns the consumed messages per second since the previous snapshot.
+         * @return Consumed messages per second since the previous snapshot
+         */
+        public double getConsumeRate() {
+            return consumeRate;
+        }
+
+        /**
+         * Returns the counters of the open channels.
+         * @return Counters of the open channels
+         */
+        public List<ChannelSnapshot> getChannelSnapshots() {
+            return channelSnapshots;
+        }
+
+        /**
+         * Returns the counters of the active consumers.
+         * @return Counters of the active consumers
+         */
+        public List<ConsumerSnapshot> getConsumerSnapshots() {
+            return consumerSnapshots;
+        }
+    }
+
+    /**
+     * Counters of one open channel.
+     */
+    public static class ChannelSnapshot {
+
+        private final int channelNumber;
+        private final long published;
+        private final long consumed;
+        private final long acks;
+        private final long nacks;
+
+        ChannelSnapshot(ChannelStats stats) {
+            this.channelNumber = stats.channelNumber;
+            this.published = stats.published.sum();
+            this.consumed = stats.consumed.sum();
+            this.acks = stats.acks.sum();
+            this.nacks = stats.nacks.sum();
+        }
+
+        /**
+         * Returns the number of the channel, unique per connection.
+         * @return Number of the channel, unique per connection
+         */
+        public int getChannelNumber() {
+            return channelNumber;
+        }
+
+        /**
+         * Returns the number of messages published on the channel.
+         * @return Number of messages published on the channel
+         */
+        public long getPublished() {
+            return published;
+        }
+
+        /**
+         * Returns the number of messages consumed on the channel.
+         * @return Number of messages consumed on the channel
+         */
+        public long getConsumed() {
+            return consumed;
+        }
+
+        /**
+         * Returns the number of basic.ack frames sent on the channel.
+         * @return Number of basic.ack frames sent on the channel
+         */
+        public long getAcks() {
+            return acks;
+        }
+
+        /**
+         * Returns the number of basic.nack and basic.reject frames sent on the channel.
+         * @return Number of basic.nack and basic.reject frames sent on the channel
+         */
+        public long getNacks() {
+            return nacks;
+        }
+    }
+
+    /**
+     * Counters of one active consumer.
+     */
+    public static class ConsumerSnapshot {
+
+        private final String consumerTag;
+        private final int channelNumber;
+        private final boolean autoAck;
+        private final long consumed;
+
+        ConsumerSnapshot(ConsumerStats stats) {
+            this.consumerTag = stats.consumerTag;
+            this.channelNumber = stats.channel.getChannelNumber();
+            this.autoAck = stats.autoAck;
+            this.consumed = stats.consumed.sum();
+        }
+
+        /**
+         * Returns the consumer tag.
+         * @return Consumer tag
+         */
+        public String getConsumerTag() {
+            return consumerTag;
+        }
+
+        /**
+         * Returns the number of the channel the consumer is registered on.
+         * @return Number of the channel the consumer is registered on
+         */
+        public int getChannelNumber() {
+            return channelNumber;
+        }
+
+        /**
+         * Returns true if the deliveries are acknowledged automatically.
+         * @return True if the deliveries are acknowledged automatically
+         */
+        public boolean isAutoAck() {
+            return autoAck;
+        }
+
+        /**
+         * Returns the number of messages delivered to the consumer.
+         * @return Number of messages delivered to the consumer
+         */
+        public long getConsumed() {
+            return consumed;
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsbl.lsbl_common_base_types.NackResponse;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outcome of a bulk request, e.g. TopoServiceClient.getAllDeviceLists().
+ * A bulk request sends one request per key (gateway or device SGTIN) and does not fail as a whole,
+ * the keys that were not answered with a response are reported as failures.
+ */
+public class BulkReport {
+
+    private final AtomicInteger successCount = new AtomicInteger();
+    private final AtomicInteger retryCount = new AtomicInteger();
+    private final Map<String, Failure> failures = new ConcurrentHashMap<>();
+    private volatile int requestCount;
+    private volatile long startNanos;
+    private volatile long durationNanos;
+
+    BulkReport() {
+    }
+
+    void start(int requestCount) {
+        this.requestCount = requestCount;
+        this.startNanos = System.nanoTime();
+    }
+
+    void success(String key) {
+        successCount.incrementAndGet();
+    }
+
+    void retry(String key) {
+        retryCount.incrementAndGet();
+    }
+
+    void failure(String key, Lsbl response, Throwable error) {
+        failures.put(key, new Failure(key, response, error));
+    }
+
+    void complete() {
+        durationNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns the number of keys the bulk request was started with.
+     * @return Number of keys
+     */
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Returns the number of keys that were answered with a response or an Ack.
+     * @return Number of successful requests
+     */
+    public int getSuccessCount() {
+        return successCount.get();
+    }
+
+    /**
+     * Returns the number of keys that were answered with a Nack, timed out or whose response could not be processed.
+     * @return Number of failed requests
+     */
+    public int getFailureCount() {
+        return failures.size();
+    }
+
+    /**
+     * Returns the number of keys that timed out, including their retries.
+     * @return Number of timeouts
+     */
+    public int getTimeoutCount() {
+        int timeouts = 0;
+        for(Failure failure : failures.values()) {
+            if(failure.isTimeout()) {
+                timeouts++;
+            }
+        }
+        return timeouts;
+    }
+
+    /**
+     * Returns how often a request was sent again after a timeout, summed over all keys.
+     * @return Number of retries
+     */
+    public int getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Returns the failed keys.
+     * @return Unmodifiable map from the key to its Failure
+     */
+    public Map<String, Failure> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns true if every key was answered with a response or an Ack.
+     * @return True if nothing failed
+     */
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Returns the time from the start of the bulk request until the last response.
+     * @return Duration in milliseconds
+     */
+    public long getDurationMs() {
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "BulkReport{requests=" + requestCount + ", successes=" + getSuccessCount() + ", failures=" + getFailureCount()
+                + ", timeouts=" + getTimeoutCount() + ", retries=" + getRetryCount() + ", durationMs=" + getDurationMs() + "}";
+    }
+
+    /**
+     * A key that was not answered with a response.
+     */
+    public static class Failure {
+
+        private final String key;
+        private final Lsbl response;
+        private final Throwable error;
+
+        Failure(String key, Lsbl response, Throwable error) {
+            this.key = key;
+            this.response = response;
+            this.error = error;
+        }
+
+        /**
+         * Returns the gateway or device SGTIN of the failed request.
+         * @return Key of the request
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Returns the Nack of the service, the timeout Nack of the client or the response that could not be processed.
+         * @return Response or null if the response could not be decoded
+         */
+        public Lsbl getResponse() {
+            return response;
+        }
+
+        /**
+         * Returns the exception that was thrown while the response was processed, e.g. while parsing its LsDL.
+         * @return Exception or null if the request was answered with a Nack or timed out
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Returns how the request failed.
+         * @return NACK, TIMEOUT or ERROR
+         */
+        public ClientMetrics.CallResult getResult() {
+            return error != null ? ClientMetrics.CallResult.ERROR : ClientMetrics.CallResult.of(response);
+        }
+
+        /**
+         * Returns true if no response arrived in time.
+         * @return True for a timeout
+         */
+        public boolean isTimeout() {
+            return response != null && ServiceClient.isTimeout(response);
+        }
+
+        /**
+         * Returns the error code of the Nack.
+         * @return Error code or null
+         */
+        public String getErrorCode() {
+            NackResponse nack = nack();
+            return nack != null ? nack.getErrorCode() : null;
+        }
+
+        /**
+         * Returns the message of the Nack or of the exception.
+         * @return Message or null
+         */
+        public String getMessage() {
+            if(error != null) {
+                return error.getMessage();
+            }
+            NackResponse nack = nack();
+            return nack != null ? nack.getMessage() : null;
+        }
+
+        private NackResponse nack() {
+            if(response == null || !LsBL.isNack(response) || response.getResponse().getCommonResponse() == null) {
+                return null;
+            }
+            return response.getResponse().getCommonResponse().getNack();
+        }
+
+        @Override
+        public String toString() {
+            return key + ": " + getResult() + (getMessage() != null ? " " + getMessage() : "");
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Sends one request per key with a bounded number of requests waiting for their response at a time.
+ * The next request is published when a response arrives, so no thread is blocked while the requests are in flight.
+ * All requests go over the shared reply queue, a failed key is recorded in the BulkReport and does not stop the others.
+ * <p>
+ * An adaptive bulk request starts with a smaller window and adjusts it like TCP congestion control (AIMD):
+ * every response widens the window by 1/window, i.e. by one request per round trip, up to maxInFlight,
+ * and a timeout halves it. Timeouts of requests that were sent before the last decrease do not decrease it again,
+ * so a burst of timeouts from an overloaded service halves the window only once.
+ * <p>
+ * With setRetries a timed out request is sent again, it keeps its place in the window. Only idempotent requests
+ * should be retried, the service may have processed the request whose response was lost.
+ * @param <R> Type of the report, BulkReport or BulkResult
+ */
+class BulkRequest<R extends BulkReport> {
+
+    /**
+     * Initial window of an adaptive bulk request.
+     */
+    static final int INITIAL_ADAPTIVE_IN_FLIGHT = 8;
+
+    /**
+     * Receives the successful responses of a bulk request. An exception marks the key as failed.
+     */
+    interface ResponseHandler {
+        void onResponse(String key, Lsbl response);
+    }
+
+    private final ServiceClient serviceClient;
+    private final Function<String, Lsbl> requestFactory;
+    private final ResponseHandler responseHandler;
+    private final int maxInFlight;
+    private final boolean adaptive;
+    private final long timeoutMs;
+    private final Iterator<String> keys;
+    private final R report;
+    private final CompletableFuture<R> result = new CompletableFuture<>();
+    private final AtomicInteger pumping = new AtomicInteger();
+    private int retries;
+    private int inFlight;
+    private double window;
+    private long sentCount;
+    private long recoverySeq;
+
+    /**
+     * @param serviceClient ServiceClient that sends the requests
+     * @param keys Gateway or device SGTINs, duplicates are requested once
+     * @param requestFactory Creates the request of a key, it is invoked right before the request is sent
+     * @param responseHandler Receives the responses, Nacks and timeouts are only recorded in the report
+     * @param report Empty BulkReport or BulkResult that the handler fills
+     * @param maxInFlight Maximum number of requests that wait for their response at the same time
+     * @param adaptive True to adjust the window to the timeouts, false to always send maxInFlight requests
+     * @param timeoutMs Timeout of every single request in milliseconds
+     */
+    BulkRequest(ServiceClient serviceClient, Collection<String> keys, Function<String, Lsbl> requestFactory,
+                ResponseHandler responseHandler, R report, int maxInFlight, boolean adaptive, long timeoutMs) {
+        if(maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        Set<String> distinctKeys = new LinkedHashSet<>(keys);
+        this.serviceClient = serviceClient;
+        this.requestFactory = requestFactory;
+        this.responseHandler = responseHandler;
+        this.maxInFlight = maxInFlight;
+        this.adaptive = adaptive;
+        this.timeoutMs = timeoutMs;
+        this.keys = distinctKeys.iterator();
+        this.report = report;
+        this.window = adaptive ? Math.min(INITIAL_ADAPTIVE_IN_FLIGHT, maxInFlight) : maxInFlight;
+        report.start(distinctKeys.size());
+    }
+
+    /**
+     * Sets how often a request that timed out is sent again before the key is reported as timed out.
+     * @param retries Number of retries, 0 by default
+     * @return This instance
+     */
+    BulkRequest<R> setRetries(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * Sends the first requests.
+     * @return CompletableFuture that completes with the report when every key was answered or timed out
+     */
+    CompletableFuture<R> start() {
+        pump();
+        return result;
+    }
+
+    /**
+     * Returns the current window.
+     * @return Number of requests that may wait for their response at the same time
+     */
+    synchronized int getWindow() {
+        return (int) window;
+    }
+
+    /**
+     * Sends requests until the window is full. Responses that complete while requests are sent,
+     * e.g. inline in the sending thread, only mark another round instead of recursing.
+     */
+    private void pump() {
+        if(pumping.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            List<String> next = new ArrayList<>();
+            long firstSeq;
+            boolean done;
+            synchronized (this) {
+                firstSeq = sentCount;
+                while(inFlight < (int) window && keys.hasNext()) {
+                    next.add(keys.next());
+                    inFlight++;
+                    sentCount++;
+                }
+                done = inFlight == 0 && !keys.hasNext();
+            }
+            for(int i = 0; i < next.size(); i++) {
+                send(next.get(i), firstSeq + i, 0);
+            }
+            if(done && !result.isDone()) {
+                report.complete();
+                result.complete(report);
+            }
+        } while(pumping.decrementAndGet() != 0);
+    }
+
+    private void send(String key, long seq, int attempt) {
+        Lsbl request;
+        try {
+            request = requestFactory.apply(key);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            completed(key, seq, attempt, null);
+            return;
+        }
+        serviceClient.callAsyncWithSharedReplyQueue(request, timeoutMs).whenComplete((response, error) -> completed(key, seq, attempt, response));
+    }
+
+    private void completed(String key, long seq, int attempt, Lsbl response) {
+        if(attempt < retries && ServiceClient.isTimeout(response)) {
+            long retrySeq;
+            synchronized (this) {
+                if(adaptive) {
+                    adapt(seq, response);
+                }
+                retrySeq = sentCount++;
+            }
+            report.retry(key);
+            send(key, retrySeq, attempt + 1);
+            return;
+        }
+        if(response != null && !LsBL.isNack(response)) {
+            try {
+                responseHandler.onResponse(key, response);
+                report.success(key);
+            } catch (RuntimeException e) {
+                report.failure(key, response, e);
+            }
+        } else {
+            report.failure(key, response, null);
+        }
+        synchronized (this) {
+            inFlight--;
+            if(adaptive) {
+                adapt(seq, response);
+            }
+        }
+        pump();
+    }
+
+    private void adapt(long seq, Lsbl response) {
+        if(ServiceClient.isTimeout(response)) {
+            if(seq >= recoverySeq) {
+                window = Math.max(1, window / 2);
+                recoverySeq = sentCount;
+            }
+        } else if(response != null) {
+            window = Math.min(maxInFlight, window + 1 / window);
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.lemonbeat.service_client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BulkReport of a bulk request that collects a result per key, e.g. ValueServiceClient.getValuesBulk().
+ * @param <T> Type of the result of a single key
+ */
+public class BulkResult<T> extends BulkReport {
+
+    private final Map<String, T> results = new ConcurrentHashMap<>();
+
+    BulkResult() {
+    }
+
+    void result(String key, T result) {
+        results.put(key, result);
+    }
+
+    /**
+     * Returns the results of the keys that were answered with a response, the failed keys are in getFailures().
+     * @return Unmodifiable map from the key to its result
+     */
+    public Map<String, T> getResults() {
+        return Collections.unmodifiableMap(results);
+    }
+
+}
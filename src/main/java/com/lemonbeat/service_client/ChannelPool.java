@@ -0,0 +1,190 @@
+package com.lemonbeat.service_client;
+
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe pool of AMQP channels that are used for publishing RPC requests.
+ * Channels are opened lazily and kept open, channels that were closed due to an error are replaced on the next borrow.
+ * The pool records how often and how long callers had to wait for a free channel.
+ */
+public class ChannelPool {
+
+    private final Connection connection;
+    private final int size;
+    private final long maxWaitMs;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Channel> idleChannels = new ConcurrentLinkedDeque<>();
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+    private final LongAdder waitTimeNanos = new LongAdder();
+    private final LongAccumulator maxWaitTimeNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder replacedCount = new LongAdder();
+
+    /**
+     * Create a new pool for the given connection.
+     * @param connection RabbitMQ connection instance
+     * @param size Maximum number of channels that are borrowed at the same time
+     * @param maxWaitMs Maximum time in milliseconds to wait for a free channel
+     */
+    public ChannelPool(Connection connection, int size, long maxWaitMs) {
+        if(size < 1) {
+            throw new IllegalArgumentException("The channel pool size must be at least 1");
+        }
+        this.connection = connection;
+        this.size = size;
+        this.maxWaitMs = maxWaitMs;
+        this.permits = new Semaphore(size, true);
+    }
+
+    /**
+     * Borrows an open channel from the pool, it must be returned with release once the caller is done publishing.
+     * @return Open channel
+     * @throws IOException if no channel could be opened or no channel became available in time
+     */
+    public Channel borrow() throws IOException {
+        borrowCount.increment();
+        if(!permits.tryAcquire()) {
+            long start = System.nanoTime();
+            waitCount.increment();
+            try {
+                boolean acquired = permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS);
+                long waited = System.nanoTime() - start;
+                waitTimeNanos.add(waited);
+                maxWaitTimeNanos.accumulate(waited);
+                if(!acquired) {
+                    throw new IOException("No channel available in the pool after " + maxWaitMs + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a channel", e);
+            }
+        }
+
+        try {
+            Channel channel;
+            while ((channel = idleChannels.pollFirst()) != null) {
+                if(channel.isOpen()) {
+                    return channel;
+                }
+                replacedCount.increment();
+            }
+            channel = connection.createChannel();
+            if(channel == null) {
+                throw new IOException("The connection has no free channel left");
+            }
+            createdCount.increment();
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a borrowed channel to the pool. Closed channels are dropped and replaced on the next borrow.
+     * @param channel Channel that was returned by borrow
+     */
+    public void release(Channel channel) {
+        if(channel != null) {
+            if(channel.isOpen()) {
+                idleChannels.offerFirst(channel);
+            } else {
+                replacedCount.increment();
+            }
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes all idle channels of the pool.
+     */
+    public void close() {
+        Channel channel;
+        while ((channel = idleChannels.pollFirst()) != null) {
+            try {
+                channel.close();
+            } catch (AlreadyClosedException e) {
+
+            } catch (IOException | TimeoutException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of channels in the pool.
+     * @return Pool size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of channels that are currently borrowed.
+     * @return Borrowed channels
+     */
+    public int getBorrowedCount() {
+        return size - permits.availablePermits();
+    }
+
+    /**
+     * Returns how often a channel was borrowed.
+     * @return Number of borrows
+     */
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    /**
+     * Returns how often a caller had to wait because all channels were borrowed.
+     * @return Number of borrows that had to wait
+     */
+    public long getWaitCount() {
+        return waitCount.sum();
+    }
+
+    /**
+     * Returns the total time callers waited for a free channel.
+     * @return Wait time in nanoseconds
+     */
+    public long getWaitTimeNanos() {
+        return waitTimeNanos.sum();
+    }
+
+    /**
+     * Returns the longest time a caller waited for a free channel.
+     * @return Maximum wait time in nanoseconds
+     */
+    public long getMaxWaitTimeNanos() {
+        return maxWaitTimeNanos.get();
+    }
+
+    /**
+     * Returns how many channels were opened by the pool.
+     * @return Number of opened channels
+     */
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * Returns how many channels were dropped because they were closed, e.g. due to a channel error.
+     * @return Number of replaced channels
+     */
+    public long getReplacedCount() {
+        return replacedCount.sum();
+    }
+
+}
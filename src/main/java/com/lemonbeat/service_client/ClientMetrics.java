@@ -0,0 +1,108 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+
+/**
+ * Receives the measurements of the ServiceClient hot paths: calls per target service queue and the decoding,
+ * processing and queueing of events per subscribed event name.
+ * The methods are called from the AMQP consumer threads, the timeout scheduler and the callers of the ServiceClient,
+ * implementations must be thread-safe and should not block.
+ * All methods are no-ops by default, see RecordingClientMetrics for an implementation that keeps the measurements in memory.
+ */
+public interface ClientMetrics {
+
+    /**
+     * Does not record anything, this is the default of the ServiceClient.
+     */
+    ClientMetrics NOOP = new ClientMetrics() {};
+
+    /**
+     * Called when a request is published.
+     * @param target Target service queue of the request, e.g. SERVICE.VALUESERVICE
+     */
+    default void callStarted(String target) {}
+
+    /**
+     * Called once for every started call, when the response arrived or the call timed out.
+     * @param target Target service queue of the request
+     * @param durationNanos Time from publishing the request until the response or the timeout
+     * @param result Outcome of the call
+     */
+    default void callCompleted(String target, long durationNanos, CallResult result) {}
+
+    /**
+     * Called before an event is decoded.
+     * @param eventName Subscribed event name
+     * @param queuedNanos Time the delivery waited in the client between its arrival and the start of its processing,
+     *                    e.g. in the queue of the executor of the subscription
+     */
+    default void eventQueued(String eventName, long queuedNanos) {}
+
+    /**
+     * Called when an event was decoded.
+     * @param eventName Subscribed event name
+     * @param decodeNanos Time spent decoding the message body
+     */
+    default void eventDecoded(String eventName, long decodeNanos) {}
+
+    /**
+     * Called when the callback of a subscription returned.
+     * @param eventName Subscribed event name
+     * @param callbackNanos Time spent in the callback
+     */
+    default void eventProcessed(String eventName, long callbackNanos) {}
+
+    /**
+     * Called when an event entered or left the bounded buffer of a subscription, see SubscriptionOptions.setBuffer.
+     * @param eventName Subscribed event name
+     * @param bufferDepth Number of events that were received but not processed yet
+     */
+    default void bufferChanged(String eventName, int bufferDepth) {}
+
+    /**
+     * Called when a subscription was paused because its buffer reached the high watermark,
+     * its consumer channels were limited to one unacknowledged event with basicQos(1, true).
+     * @param eventName Subscribed event name
+     * @param bufferDepth Number of buffered events
+     */
+    default void subscriptionPaused(String eventName, int bufferDepth) {}
+
+    /**
+     * Called when a paused subscription was resumed because its buffer drained to the low watermark,
+     * the channel limit was lifted with basicQos(0, true) and the prefetch count of the consumers applies again.
+     * @param eventName Subscribed event name
+     * @param pausedNanos Time the subscription was paused
+     */
+    default void subscriptionResumed(String eventName, long pausedNanos) {}
+
+    /**
+     * Outcome of a call.
+     */
+    enum CallResult {
+        /** The service answered with a response or an Ack. */
+        RESPONSE,
+        /** The service answered with a Nack. */
+        NACK,
+        /** No response arrived in time. */
+        TIMEOUT,
+        /** The response could not be decoded. */
+        ERROR;
+
+        /**
+         * Classifies the response that is passed to the callback of a call.
+         * @param response Response, timeout Nack or null if the response could not be decoded
+         * @return Outcome of the call
+         */
+        static CallResult of(Lsbl response) {
+            if(response == null) {
+                return ERROR;
+            }
+            if(ServiceClient.isTimeout(response)) {
+                return TIMEOUT;
+            }
+            return LsBL.isNack(response) ? NACK : RESPONSE;
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsbl.lsbl_common_base_types.NackResponse;
+import com.lemonbeat.lsbl.lsbl_topo_service.TopoEvent;
+import com.lemonbeat.lsdl.LsDL;
+import com.lemonbeat.lsdl.device_description.InfoType;
+import com.lemonbeat.lsdl.value_description.ValueDescriptionType;
+
+import javax.xml.bind.DataBindingException;
+import javax.xml.bind.JAXBException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Cache of the parsed device descriptions and value descriptions per device SGTIN.
+ * Both are fetched and parsed once and kept until the entry expires after the TTL, until it is evicted
+ * because the cache holds more than maxEntries devices (least recently used first), or until a topo event reports
+ * that the device was included, excluded, removed, replaced or reported a new description.
+ * Enabled with TopoServiceClient.enableDescriptionCache().
+ */
+public class DescriptionCache {
+
+    /**
+     * All topo events, they are consumed from one queue.
+     */
+    static final String TOPO_EVENTS = "EVENT.APP.TOPOSERVICE.#";
+
+    private final TopoServiceClient topoServiceClient;
+    private final ValueServiceClient valueServiceClient;
+    private final ServiceClient serviceClient;
+    private final ExpiringLruCache<List<InfoType>> deviceDescriptions;
+    private final ExpiringLruCache<List<ValueDescriptionType>> valueDescriptions;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private Subscription subscription;
+
+    /**
+     * @param serviceClient ServiceClient that fetches the descriptions and receives the topo events
+     * @param topoServiceClient TopoServiceClient that fetches the device descriptions
+     * @param maxEntries Maximum number of devices per description type
+     * @param ttl Time after which a description is fetched again
+     * @param unit Unit of the ttl
+     */
+    DescriptionCache(ServiceClient serviceClient, TopoServiceClient topoServiceClient, int maxEntries, long ttl, TimeUnit unit) {
+        if(maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.serviceClient = serviceClient;
+        this.topoServiceClient = topoServiceClient;
+        this.valueServiceClient = new ValueServiceClient(serviceClient);
+        this.deviceDescriptions = new ExpiringLruCache<>(maxEntries, unit.toNanos(ttl));
+        this.valueDescriptions = new ExpiringLruCache<>(maxEntries, unit.toNanos(ttl));
+    }
+
+    /**
+     * Subscribes to the topo events that invalidate the cached descriptions.
+     */
+    synchronized void start() {
+        if(subscription == null) {
+            subscription = serviceClient.subscribe(TOPO_EVENTS, this::onTopoEvent, new SubscriptionOptions());
+        }
+    }
+
+    /**
+     * Cancels the subscription to the topo events and empties the cache.
+     */
+    public synchronized void close() {
+        if(subscription != null) {
+            subscription.cancel();
+            subscription = null;
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Get the parsed device_description_report of the given device, from the cache or from the topo service.
+     * Concurrent requests for the same device share one request to the topo service.
+     * @param deviceSgtin SGTIN of the device
+     * @return CompletableFuture with the InfoType list of the device description,
+     *         it completes exceptionally if the topo service answered with a Nack, timed out or sent an invalid LsDL.
+     */
+    public CompletableFuture<List<InfoType>> getDeviceDescription(String deviceSgtin) {
+        return get(deviceDescriptions, deviceSgtin, sgtin -> topoServiceClient.getDeviceDescriptionAsync(sgtin).thenApply(response -> {
+            try {
+                return LsDL.parseDeviceDescriptionReport(checkResponse(response).getResponse().getTopoResponse().getDeviceDescriptionGet().getLsdl());
+            } catch (JAXBException e) {
+                throw new DataBindingException(e);
+            }
+        }));
+    }
+
+    /**
+     * Get the parsed value_description_report of the given device, from the cache or from the value service.
+     * Concurrent requests for the same device share one request to the value service.
+     * @param deviceSgtin SGTIN of the device
+     * @return CompletableFuture with the ValueDescriptionType list of the device,
+     *         it completes exceptionally if the value service answered with a Nack, timed out or sent an invalid LsDL.
+     */
+    public CompletableFuture<List<ValueDescriptionType>> getValueDescription(String deviceSgtin) {
+        return get(valueDescriptions, deviceSgtin, sgtin -> valueServiceClient.getValueDescriptionBySgtinAsync(sgtin).thenApply(response -> {
+            try {
+                return LsDL.parseValueDescriptionReport(checkResponse(response).getResponse().getValueResponse().getValueDescriptionGet().getLsdl());
+            } catch (JAXBException e) {
+                throw new DataBindingException(e);
+            }
+        }));
+    }
+
+    private <V> CompletableFuture<V> get(ExpiringLruCache<V> cache, String sgtin, Function<String, CompletableFuture<V>> loader) {
+        long now = System.nanoTime();
+        CompletableFuture<V> cached = cache.get(sgtin, now);
+        if(cached != null) {
+            hits.increment();
+            return cached;
+        }
+        CompletableFuture<V> loading = new CompletableFuture<>();
+        CompletableFuture<V> existing = cache.putIfAbsent(sgtin, loading, now);
+        if(existing != null) {
+            hits.increment();
+            return existing;
+        }
+        misses.increment();
+        loader.apply(sgtin).whenComplete((value, error) -> {
+            if(error != null) {
+                // Failures are not cached, the next request asks the service again
+                cache.remove(sgtin, loading);
+                loading.completeExceptionally(error);
+            } else {
+                loading.complete(value);
+            }
+        });
+        return loading;
+    }
+
+    private static Lsbl checkResponse(Lsbl response) {
+        if(response == null) {
+            throw new IllegalStateException("The response could not be decoded");
+        }
+        if(LsBL.isNack(response)) {
+            NackResponse nack = response.getResponse().getCommonResponse().getNack();
+            throw new IllegalStateException("The description could not be fetched: " + nack.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * Removes the cached descriptions of the given device.
+     * @param sgtin SGTIN of the device
+     */
+    public void invalidate(String sgtin) {
+        if(sgtin == null) {
+            return;
+        }
+        boolean removed = deviceDescriptions.remove(sgtin);
+        removed |= valueDescriptions.remove(sgtin);
+        if(removed) {
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Removes all cached descriptions.
+     */
+    public void invalidateAll() {
+        deviceDescriptions.clear();
+        valueDescriptions.clear();
+    }
+
+    void onTopoEvent(Lsbl event) {
+        if(event == null || event.getEvent() == null || event.getEvent().getTopoEvent() == null) {
+            return;
+        }
+        TopoEvent topoEvent = event.getEvent().getTopoEvent();
+        if(topoEvent.getDeviceIncluded() != null) {
+            invalidate(topoEvent.getDeviceIncluded().getDeviceSgtin());
+        }
+        if(topoEvent.getDeviceExcluded() != null) {
+            invalidate(topoEvent.getDeviceExcluded().getDeviceSgtin());
+        }
+        if(topoEvent.getDeviceRemoved() != null) {
+            invalidate(topoEvent.getDeviceRemoved().getDeviceSgtin());
+        }
+        if(topoEvent.getDeviceDescriptionReported() != null) {
+            invalidate(topoEvent.getDeviceDescriptionReported().getDeviceSgtin());
+        }
+        if(topoEvent.getDeviceReplacementExecuted() != null) {
+            invalidate(topoEvent.getDeviceReplacementExecuted().getOldSgtin());
+            invalidate(topoEvent.getDeviceReplacementExecuted().getNewSgtin());
+        }
+    }
+
+    /**
+     * Returns the number of descriptions that were answered from the cache, including requests that joined a pending fetch.
+     * @return Number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of descriptions that were fetched from the services.
+     * @return Number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of descriptions that were removed because the cache was full.
+     * @return Number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of devices whose descriptions were removed by a topo event or invalidate().
+     * @return Number of invalidations
+     */
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Returns the number of cached device descriptions, expired entries are included until they are requested again.
+     * @return Number of device descriptions
+     */
+    public int getDeviceDescriptionCount() {
+        return deviceDescriptions.size();
+    }
+
+    /**
+     * Returns the number of cached value descriptions, expired entries are included until they are requested again.
+     * @return Number of value descriptions
+     */
+    public int getValueDescriptionCount() {
+        return valueDescriptions.size();
+    }
+
+    /**
+     * LRU map of pending or completed loads with an expiry per entry.
+     */
+    private class ExpiringLruCache<V> {
+
+        private final long ttlNanos;
+        private final LinkedHashMap<String, CacheEntry<V>> entries;
+
+        ExpiringLruCache(int maxEntries, long ttlNanos) {
+            this.ttlNanos = ttlNanos;
+            this.entries = new LinkedHashMap<String, CacheEntry<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+                    if(size() > maxEntries) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized CompletableFuture<V> get(String sgtin, long now) {
+            CacheEntry<V> entry = entries.get(sgtin);
+            if(entry == null) {
+                return null;
+            }
+            if(now - entry.loaded > ttlNanos) {
+                entries.remove(sgtin);
+                return null;
+            }
+            return entry.value;
+        }
+
+        synchronized CompletableFuture<V> putIfAbsent(String sgtin, CompletableFuture<V> value, long now) {
+            CacheEntry<V> entry = entries.get(sgtin);
+            if(entry != null && now - entry.loaded <= ttlNanos) {
+                return entry.value;
+            }
+            entries.put(sgtin, new CacheEntry<>(value, now));
+            return null;
+        }
+
+        synchronized void remove(String sgtin, CompletableFuture<V> value) {
+            CacheEntry<V> entry = entries.get(sgtin);
+            if(entry != null && entry.value == value) {
+                entries.remove(sgtin);
+            }
+        }
+
+        synchronized boolean remove(String sgtin) {
+            return entries.remove(sgtin) != null;
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    private static class CacheEntry<V> {
+
+        private final CompletableFuture<V> value;
+        private final long loaded;
+
+        CacheEntry(CompletableFuture<V> value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.lemonbeat.service_client;
+
+import java.util.List;
+
+/**
+ * Values of a EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED event, see ServiceClient.subscribeValueReports.
+ * Holds only the sgtins, the event time and the reported values instead of the full Lsbl and LsDL object trees.
+ */
+public class DeviceValueReport {
+
+    private final String deviceSgtin;
+    private final String gwSgtin;
+    private final long time;
+    private final List<Value> values;
+
+    DeviceValueReport(String deviceSgtin, String gwSgtin, long time, List<Value> values) {
+        this.deviceSgtin = deviceSgtin;
+        this.gwSgtin = gwSgtin;
+        this.time = time;
+        this.values = values;
+    }
+
+    /**
+     * Returns the SGTIN of the device that reported the values.
+     * @return Device SGTIN
+     */
+    public String getDeviceSgtin() {
+        return deviceSgtin;
+    }
+
+    /**
+     * Returns the SGTIN of the gateway the device is included in.
+     * @return Gateway SGTIN
+     */
+    public String getGwSgtin() {
+        return gwSgtin;
+    }
+
+    /**
+     * Returns the time of the event, the time attribute of the Lsbl event.
+     * @return Event time
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the value_report entries of the LsDL document.
+     * @return Reported values
+     */
+    public List<Value> getValues() {
+        return values;
+    }
+
+    /**
+     * One value_report entry. Depending on the value type either number, string or hexBinary is set.
+     */
+    public static class Value {
+
+        private final long valueId;
+        private final long timestamp;
+        private final Double number;
+        private final String string;
+        private final byte[] hexBinary;
+
+        Value(long valueId, long timestamp, Double number, String string, byte[] hexBinary) {
+            this.valueId = valueId;
+            this.timestamp = timestamp;
+            this.number = number;
+            this.string = string;
+            this.hexBinary = hexBinary;
+        }
+
+        /**
+         * Returns the id of the value.
+         * @return Value id
+         */
+        public long getValueId() {
+            return valueId;
+        }
+
+        /**
+         * Returns the timestamp of the value report or 0 if the report has no timestamp.
+         * @return Timestamp
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the number value or null.
+         * @return Number value
+         */
+        public Double getNumber() {
+            return number;
+        }
+
+        /**
+         * Returns the string value or null.
+         * @return String value
+         */
+        public String getString() {
+            return string;
+        }
+
+        /**
+         * Returns the hex binary value or null.
+         * @return Hex binary value
+         */
+        public byte[] getHexBinary() {
+            return hexBinary;
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handlers for several event types that are consumed from one queue, see ServiceClient.subscribe(EventHandlers, SubscriptionOptions).
+ * The queue is bound to the event name of every handler, an event name may be a topic pattern of the EVENT.APP exchange
+ * where '*' matches one word and '#' matches zero or more words, e.g. EVENT.APP.TOPOSERVICE.#.
+ * <p>
+ * The handlers of an event are looked up by the routing key of the delivery, which is the event name. The matching handlers
+ * are resolved once per event name and kept in a table, so an event is only matched against the patterns the first time
+ * its name is received. Every matching handler is called in the order the handlers were added. The Lsbl message is only
+ * unmarshalled if a matching handler needs it, value reports of onValueReports use the streaming decoder.
+ * <pre>
+ * EventHandlers handlers = new EventHandlers("MYAPP")
+ *         .on("EVENT.APP.TOPOSERVICE.#", DeviceIncludedEvent.class, deviceIncluded -&gt; ...)
+ *         .on("EVENT.APP.TOPOSERVICE.#", DeviceExcludedEvent.class, deviceExcluded -&gt; ...)
+ *         .onValueReports(valueReport -&gt; ...);
+ * Subscription subscription = serviceClient.subscribe(handlers, new SubscriptionOptions().setPrefetchCount(200));
+ * </pre>
+ * Add all handlers before subscribing, the queue is only bound to the event names that are known at that time.
+ */
+public class EventHandlers {
+
+    private final String name;
+    private final List<Route> routes = new ArrayList<>();
+    private final Map<String, Dispatch> table = new ConcurrentHashMap<>();
+
+    /**
+     * @param name Name of the subscription, the queue is named after it like the queue of an event,
+     *             e.g. MYAPP for PARTNER.EVENTS.CLIENT.MYAPP. The metrics of the subscription are recorded as EVENT.APP.MYAPP.
+     */
+    public EventHandlers(String name) {
+        if(name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("The name of the subscription must not be empty");
+        }
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the subscription.
+     * @return Name of the subscription
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Calls the callback with the Lsbl message of every event that matches the event name.
+     * @param eventName Name or topic pattern of the event, e.g. EVENT.APP.TOPOSERVICE.DEVICE_INCLUDED
+     * @param callback EventCallback with an onEvent method
+     * @return This instance
+     */
+    public EventHandlers on(String eventName, ServiceClient.EventCallback callback) {
+        return add(new Route(eventName, Route.LSBL, null, null, callback, null, null));
+    }
+
+    /**
+     * Calls the callback with the payload of the given type, e.g. DeviceIncludedEvent of the TopoEvent,
+     * for every event that matches the event name and carries such a payload. The getters that lead to the payload
+     * are looked up once here, so the callback does not need to check the event groups for null.
+     * @param eventName Name or topic pattern of the event, e.g. EVENT.APP.TOPOSERVICE.#
+     * @param payloadType Class of the payload, e.g. DeviceIncludedEvent.class
+     * @param callback PayloadCallback with an onPayload method
+     * @param <P> Type of the payload
+     * @return This instance
+     * @throws IllegalArgumentException if no event group of an Lsbl event has a payload of the type
+     */
+    public <P> EventHandlers on(String eventName, Class<P> payloadType, PayloadCallback<P> callback) {
+        Method[] getters = payloadGetters(payloadType);
+        return add(new Route(eventName, Route.PAYLOAD, getters[0], getters[1], null, callback, null));
+    }
+
+    /**
+     * Calls the callback with the EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED events, decoded by the streaming decoder
+     * of ServiceClient.subscribeValueReports.
+     * @param callback ValueReportCallback with an onValueReport method
+     * @return This instance
+     */
+    public EventHandlers onValueReports(ServiceClient.ValueReportCallback callback) {
+        return add(new Route(ServiceClient.VALUE_REPORTED_EVENT, Route.VALUE_REPORT, null, null, null, null, callback));
+    }
+
+    private EventHandlers add(Route route) {
+        if(route.eventName == null || route.eventName.isEmpty()) {
+            throw new IllegalArgumentException("The event name must not be empty");
+        }
+        routes.add(route);
+        table.clear();
+        return this;
+    }
+
+    /**
+     * Returns the distinct event names and patterns the queue is bound to, in the order the handlers were added.
+     * @return Binding keys of the queue
+     */
+    public List<String> getBindingKeys() {
+        List<String> bindingKeys = new ArrayList<>();
+        for(Route route : routes) {
+            if(!bindingKeys.contains(route.eventName)) {
+                bindingKeys.add(route.eventName);
+            }
+        }
+        return Collections.unmodifiableList(bindingKeys);
+    }
+
+    /**
+     * Decodes the delivery as far as its handlers need it and calls them.
+     * @param routingKey Routing key of the delivery, the name of the event
+     * @param body Message body
+     * @param metrics Metrics the decode and callback time are recorded to
+     * @param metricsName Name the metrics are recorded as
+     */
+    void dispatch(String routingKey, byte[] body, ClientMetrics metrics, String metricsName) {
+        Dispatch dispatch = table.computeIfAbsent(routingKey, this::resolve);
+        if(dispatch.routes.length == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        Lsbl event = null;
+        DeviceValueReport valueReport = null;
+        if(dispatch.lsbl) {
+            try {
+                event = LsblCodec.decode(body);
+            } catch (JAXBException e) {
+                e.printStackTrace();
+            }
+        }
+        if(dispatch.valueReport) {
+            try {
+                valueReport = ValueReportDecoder.decode(body);
+            } catch (XMLStreamException e) {
+                e.printStackTrace();
+            }
+        }
+        long decoded = System.nanoTime();
+        metrics.eventDecoded(metricsName, decoded - start);
+        try {
+            for(Route route : dispatch.routes) {
+                route.handle(event, valueReport);
+            }
+        } finally {
+            metrics.eventProcessed(metricsName, System.nanoTime() - decoded);
+        }
+    }
+
+    private Dispatch resolve(String routingKey) {
+        List<Route> matching = new ArrayList<>();
+        boolean lsbl = false;
+        boolean valueReport = false;
+        for(Route route : routes) {
+            if(matches(route.eventName, routingKey)) {
+                matching.add(route);
+                lsbl |= route.kind != Route.VALUE_REPORT;
+                valueReport |= route.kind == Route.VALUE_REPORT;
+            }
+        }
+        return new Dispatch(matching.toArray(new Route[0]), lsbl, valueReport);
+    }
+
+    /**
+     * Returns true if the routing key matches the binding key like on a topic exchange.
+     * '*' matches exactly one word, '#' matches zero or more words.
+     * @param bindingKey Binding key with optional wildcards
+     * @param routingKey Routing key of the message
+     * @return True if the routing key matches
+     */
+    static boolean matches(String bindingKey, String routingKey) {
+        if(bindingKey.indexOf('*') < 0 && bindingKey.indexOf('#') < 0) {
+            return bindingKey.equals(routingKey);
+        }
+        return matches(bindingKey.split("\\.", -1), 0, routingKey.split("\\.", -1), 0);
+    }
+
+    private static boolean matches(String[] binding, int b, String[] routing, int r) {
+        if(b == binding.length) {
+            return r == routing.length;
+        }
+        if("#".equals(binding[b])) {
+            for(int skip = r; skip <= routing.length; skip++) {
+                if(matches(binding, b + 1, routing, skip)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if(r == routing.length) {
+            return false;
+        }
+        return ("*".equals(binding[b]) || binding[b].equals(routing[r])) && matches(binding, b + 1, routing, r + 1);
+    }
+
+    /**
+     * Finds the getter of Lsbl.Event that returns the event group, e.g. getTopoEvent,
+     * and the getter of the group that returns the payload, e.g. getDeviceIncluded.
+     */
+    static Method[] payloadGetters(Class<?> payloadType) {
+        for(Method groupGetter : Lsbl.Event.class.getMethods()) {
+            Class<?> groupType = groupGetter.getReturnType();
+            if(!isGetter(groupGetter) || !groupType.getName().startsWith("com.lemonbeat.lsbl.")) {
+                continue;
+            }
+            for(Method payloadGetter : groupType.getMethods()) {
+                if(isGetter(payloadGetter) && payloadGetter.getReturnType() == payloadType) {
+                    return new Method[]{groupGetter, payloadGetter};
+                }
+            }
+        }
+        throw new IllegalArgumentException(payloadType.getName() + " is not the payload of an event group of Lsbl.Event");
+    }
+
+    private static boolean isGetter(Method method) {
+        return method.getName().startsWith("get") && method.getParameterCount() == 0 && method.getDeclaringClass() != Object.class;
+    }
+
+    /**
+     * Callback that will receive the payload of an event, e.g. a DeviceIncludedEvent.
+     * @param <P> Type of the payload
+     */
+    public interface PayloadCallback<P> {
+        void onPayload(P payload);
+    }
+
+    /**
+     * The handlers of one event name and the decoders they need.
+     */
+    private static final class Dispatch {
+        final Route[] routes;
+        final boolean lsbl;
+        final boolean valueReport;
+
+        Dispatch(Route[] routes, boolean lsbl, boolean valueReport) {
+            this.routes = routes;
+            this.lsbl = lsbl;
+            this.valueReport = valueReport;
+        }
+    }
+
+    private static final class Route {
+        static final int LSBL = 0;
+        static final int PAYLOAD = 1;
+        static final int VALUE_REPORT = 2;
+
+        final String eventName;
+        final int kind;
+        final Method groupGetter;
+        final Method payloadGetter;
+        final ServiceClient.EventCallback eventCallback;
+        final PayloadCallback<?> payloadCallback;
+        final ServiceClient.ValueReportCallback valueReportCallback;
+
+        Route(String eventName, int kind, Method groupGetter, Method payloadGetter, ServiceClient.EventCallback eventCallback,
+              PayloadCallback<?> payloadCallback, ServiceClient.ValueReportCallback valueReportCallback) {
+            this.eventName = eventName;
+            this.kind = kind;
+            this.groupGetter = groupGetter;
+            this.payloadGetter = payloadGetter;
+            this.eventCallback = eventCallback;
+            this.payloadCallback = payloadCallback;
+            this.valueReportCallback = valueReportCallback;
+        }
+
+        @SuppressWarnings("unchecked")
+        void handle(Lsbl event, DeviceValueReport valueReport) {
+            switch (kind) {
+                case LSBL:
+                    eventCallback.onEvent(event);
+                    break;
+                case PAYLOAD:
+                    Object payload = payload(event);
+                    if(payload != null) {
+                        ((PayloadCallback<Object>) payloadCallback).onPayload(payload);
+                    }
+                    break;
+                default:
+                    valueReportCallback.onValueReport(valueReport);
+            }
+        }
+
+        private Object payload(Lsbl event) {
+            if(event == null || event.getEvent() == null) {
+                return null;
+            }
+            try {
+                Object group = groupGetter.invoke(event.getEvent());
+                return group == null ? null : payloadGetter.invoke(group);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.lemonbeat.service_client;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded lanes of a subscription, the events are assigned to a lane by the hash of their device SGTIN.
+ * Events of different devices are processed in parallel, the events of one device are processed one after another
+ * in the order they were delivered on the consumer channel.
+ * <p>
+ * The SGTIN is read from the raw message body with StAX before the event is handed to its lane, the scan stops at the
+ * first device_sgtin element, e.g. of a device_value_reported or device_included event. Replacement events use the
+ * old_sgtin, so they are ordered with the events of the replaced device. Events without a device use their gw_sgtin
+ * and events without any SGTIN are processed on the first lane.
+ */
+class EventLanes {
+
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = ThreadLocal.withInitial(() -> {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    });
+
+    private final ThreadPoolExecutor[] lanes;
+
+    /**
+     * @param laneCount Number of lanes, each with one thread
+     * @param eventName Subscribed event name, used for the thread names
+     */
+    EventLanes(int laneCount, String eventName) {
+        lanes = new ThreadPoolExecutor[laneCount];
+        for(int i = 0; i < laneCount; i++) {
+            String threadName = "service-client-lane-" + i + "-" + eventName;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Returns the lane of the device the event belongs to.
+     * @param body Message body of the event
+     * @return Executor of the lane
+     */
+    Executor lane(byte[] body) {
+        return lanes[index(deviceSgtin(body), lanes.length)];
+    }
+
+    static int index(String key, int laneCount) {
+        if(key == null) {
+            return 0;
+        }
+        int hash = key.hashCode();
+        // Spread the bits like HashMap, SGTINs often differ only in the last characters
+        return Math.floorMod(hash ^ (hash >>> 16), laneCount);
+    }
+
+    /**
+     * Reads the SGTIN of the device from the raw Lsbl event without decoding the whole message.
+     * @param body Message body, may start with a UTF-8 byte order mark
+     * @return Device SGTIN, the old SGTIN of a replacement, the gateway SGTIN or null if the event names none
+     */
+    static String deviceSgtin(byte[] body) {
+        int offset = LsblCodec.bomLength(body);
+        String oldSgtin = null;
+        String gwSgtin = null;
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.get().createXMLStreamReader(new ByteArrayInputStream(body, offset, body.length - offset));
+            while(reader.hasNext()) {
+                if(reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if("device_sgtin".equals(name)) {
+                    return reader.getElementText().trim();
+                } else if("old_sgtin".equals(name) && oldSgtin == null) {
+                    oldSgtin = reader.getElementText().trim();
+                } else if("gw_sgtin".equals(name) && gwSgtin == null) {
+                    gwSgtin = reader.getElementText().trim();
+                }
+            }
+        } catch (XMLStreamException e) {
+            // The callback gets the decoding error, the event is processed on the lane of the SGTIN found so far
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+
+                }
+            }
+        }
+        return oldSgtin != null ? oldSgtin : gwSgtin;
+    }
+
+    /**
+     * Returns the number of events that wait for each lane, including the event that is being processed.
+     * @return Waiting events per lane
+     */
+    int[] getDepths() {
+        int[] depths = new int[lanes.length];
+        for(int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].getQueue().size() + lanes[i].getActiveCount();
+        }
+        return depths;
+    }
+
+    /**
+     * Stops the lane threads once the events that were handed to them are processed.
+     */
+    void shutdown() {
+        for(ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+package com.lemonbeat.service_client;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Publishes the events of a subscription to a Flow.Subscriber, the demand of the subscriber drives the deliveries.
+ * Every subscriber gets its own consumer channel, on a non durable subscription also its own queue.
+ * <p>
+ * The events are emitted one after another in the order they were delivered and each event is acknowledged once
+ * onNext returned, with ack batching the acknowledgement of the last emitted event covers the batch (multiple=true).
+ * On a non durable queue the prefetch count of the whole channel (basicQos with global=true) follows the outstanding
+ * demand, it is raised as soon as the subscriber requests more and dropped back to 1 once the demand is used up.
+ * So the broker keeps the events the subscriber did not ask for in the queue, like the pause of a SubscriptionBuffer.
+ * Quorum queues do not support a channel wide prefetch count, on a durable subscription the prefetch count of the
+ * options bounds the events that wait for demand instead. The limit is only changed when the demand crosses it,
+ * a subscriber that requests one event at a time or keeps requesting ahead does not cause a basicQos per event.
+ *
+ * @param <T> Type of the decoded events
+ */
+class EventPublisher<T> implements Flow.Publisher<T> {
+
+    private final ServiceClient serviceClient;
+    private final String eventName;
+    private final SubscriptionOptions options;
+    private final Function<byte[], T> decoder;
+
+    /**
+     * @param serviceClient ServiceClient with the connection the events are consumed on
+     * @param eventName Name of the event, e.g. EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED
+     * @param options Options of the subscription, the prefetch count is the maximum number of unacknowledged events
+     * @param decoder Decodes the message body, returns null if the event could not be decoded
+     */
+    EventPublisher(ServiceClient serviceClient, String eventName, SubscriptionOptions options, Function<byte[], T> decoder) {
+        this.serviceClient = serviceClient;
+        this.eventName = eventName;
+        this.options = options;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "The subscriber must not be null");
+        new EventSubscription(subscriber).start();
+    }
+
+    /**
+     * An event that was delivered and waits for demand.
+     */
+    private static final class PendingEvent {
+        final long deliveryTag;
+        final byte[] body;
+        final long received;
+
+        PendingEvent(long deliveryTag, byte[] body, long received) {
+            this.deliveryTag = deliveryTag;
+            this.body = body;
+            this.received = received;
+        }
+    }
+
+    /**
+     * Consumer channel of one subscriber. All signals after onSubscribe are sent from the drain loop,
+     * which runs on one thread at a time, so onNext, onError and onComplete never overlap.
+     */
+    private final class EventSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final ConcurrentLinkedQueue<PendingEvent> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Executor executor;
+        private final int maxPrefetchCount;
+        private final int ackBatchSize;
+        private volatile Channel channel;
+        private volatile String consumerTag;
+        private boolean subscribed;
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile Throwable error;
+
+        // Only accessed by the drain loop
+        private int channelLimit;
+        private long unackedTag = -1;
+        private int unackedCount;
+
+        EventSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+            this.executor = options.getExecutor() != null ? options.getExecutor()
+                    : serviceClient.isVirtualThreads() ? VirtualThreads.executor() : null;
+            this.maxPrefetchCount = Math.max(1, options.getPrefetchCount());
+            this.ackBatchSize = Math.max(1, Math.min(options.getAckBatchSize(), maxPrefetchCount / 2));
+        }
+
+        void start() {
+            try {
+                channel = serviceClient.getConnection().createChannel();
+                String queueName = serviceClient.declareEventQueue(channel, eventName, options.isDurable());
+                channel.basicQos(maxPrefetchCount);
+                if(!options.isDurable()) {
+                    // Nothing was requested yet, the broker holds back all but one event
+                    channel.basicQos(1, true);
+                    channelLimit = 1;
+                }
+                subscribed = true;
+                subscriber.onSubscribe(this);
+                if(!cancelled) {
+                    consumerTag = channel.basicConsume(queueName, false, new DemandConsumer(channel));
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                if(!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                error = e;
+                schedule();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0) {
+                error = new IllegalArgumentException("The number of requested events must be positive, got " + n);
+            } else {
+                requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            if(!cancelled) {
+                cancelled = true;
+                close();
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if(executor == null) {
+                drain();
+                return;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                drain();
+            }
+        }
+
+        /**
+         * Emits the pending events while there is demand, acknowledges them and adjusts the channel limit.
+         */
+        private void drain() {
+            if(wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                long demand = requested.get();
+                long emitted = 0;
+                while(!cancelled && error == null && emitted != demand) {
+                    PendingEvent event = pending.poll();
+                    if(event == null) {
+                        break;
+                    }
+                    if(emit(event)) {
+                        emitted++;
+                    }
+                }
+                if(emitted != 0 && demand != Long.MAX_VALUE) {
+                    demand = requested.addAndGet(-emitted);
+                }
+                flushAcks();
+                if(cancelled) {
+                    pending.clear();
+                } else if(error != null) {
+                    cancelled = true;
+                    pending.clear();
+                    close();
+                    subscriber.onError(error);
+                } else if(completed && pending.isEmpty()) {
+                    cancelled = true;
+                    close();
+                    subscriber.onComplete();
+                } else {
+                    adjustChannelLimit(demand);
+                }
+                missed = wip.addAndGet(-missed);
+            } while(missed != 0);
+        }
+
+        /**
+         * Decodes the event and hands it to the subscriber.
+         * @return True if onNext was called, false if the event could not be decoded and was dropped
+         */
+        private boolean emit(PendingEvent event) {
+            ClientMetrics metrics = serviceClient.getMetrics();
+            metrics.eventQueued(eventName, System.nanoTime() - event.received);
+            T item = decoder.apply(event.body);
+            if(item == null) {
+                ack(event.deliveryTag);
+                return false;
+            }
+            long start = System.nanoTime();
+            try {
+                subscriber.onNext(item);
+            } catch (RuntimeException e) {
+                // A subscriber must not throw, the subscription is considered cancelled and the event is not acknowledged
+                e.printStackTrace();
+                flushAcks();
+                cancel();
+                return true;
+            } finally {
+                metrics.eventProcessed(eventName, System.nanoTime() - start);
+            }
+            ack(event.deliveryTag);
+            return true;
+        }
+
+        private void ack(long deliveryTag) {
+            unackedTag = deliveryTag;
+            if(++unackedCount >= ackBatchSize) {
+                flushAcks();
+            }
+        }
+
+        /**
+         * Acknowledges the emitted events, they were emitted in delivery order so one ack with multiple=true covers them.
+         */
+        private void flushAcks() {
+            if(unackedCount == 0) {
+                return;
+            }
+            try {
+                channel.basicAck(unackedTag, true);
+            } catch (AlreadyClosedException e) {
+
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            unackedCount = 0;
+        }
+
+        /**
+         * Raises the channel limit to the outstanding demand and drops it to 1 once the demand is used up.
+         */
+        private void adjustChannelLimit(long demand) {
+            if(options.isDurable()) {
+                return;
+            }
+            int limit = demand == 0 ? 1 : (int) Math.min(Math.max(demand, channelLimit), maxPrefetchCount);
+            if(limit == channelLimit) {
+                return;
+            }
+            try {
+                channel.basicQos(limit, true);
+                channelLimit = limit;
+            } catch (AlreadyClosedException e) {
+
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void close() {
+            try {
+                if(channel != null && channel.isOpen()) {
+                    if(consumerTag != null) {
+                        channel.basicCancel(consumerTag);
+                    }
+                    channel.close();
+                }
+            } catch (AlreadyClosedException e) {
+
+            } catch (IOException | TimeoutException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private final class DemandConsumer extends DefaultConsumer {
+
+            DemandConsumer(Channel channel) {
+                super(channel);
+            }
+
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+                pending.add(new PendingEvent(envelope.getDeliveryTag(), body, System.nanoTime()));
+                schedule();
+            }
+
+            @Override
+            public void handleCancel(String consumerTag) {
+                // The broker cancelled the consumer, e.g. the queue was deleted
+                completed = true;
+                schedule();
+            }
+
+            @Override
+            public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+                if(!cancelled) {
+                    error = sig;
+                    schedule();
+                }
+            }
+        }
+    }
+
+}
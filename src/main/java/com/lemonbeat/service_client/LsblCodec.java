@@ -0,0 +1,253 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsdl.LsDL;
+import com.lemonbeat.lsdl.value.Network;
+import com.lemonbeat.lsdl.value.ValueReportType;
+
+import javax.xml.bind.DataBindingException;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes LsBL messages and LsDL value documents.
+ * LsBL and LsDL create a new Unmarshaller or Marshaller for every message, which is expensive.
+ * This codec keeps one Unmarshaller and Marshaller per thread and context instead, JAXB instances are not thread-safe.
+ * Messages are decoded straight from the AMQP message body, a UTF-8 byte order mark is skipped at the byte level,
+ * and encoded into a reusable buffer per thread instead of building a String first.
+ *
+ * The cache can be disabled with setCacheEnabled(false) or the system property
+ * com.lemonbeat.service_client.jaxbCache=false, the codec then falls back to the static methods of LsBL and LsDL.
+ */
+public class LsblCodec {
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private static volatile boolean cacheEnabled =
+            Boolean.parseBoolean(System.getProperty("com.lemonbeat.service_client.jaxbCache", "true"));
+
+    private static final JaxbCache LSBL = new JaxbCache(Lsbl.class);
+    private static final ThreadLocal<EncodeBuffer> ENCODE_BUFFER = ThreadLocal.withInitial(EncodeBuffer::new);
+    private static final JaxbCache VALUE_LSDL = new JaxbCache(Network.class);
+
+    private LsblCodec() {
+    }
+
+    /**
+     * Returns true if Unmarshaller and Marshaller instances are cached per thread.
+     * @return True if the cache is enabled
+     */
+    public static boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    /**
+     * Enables or disables the per-thread cache. If disabled, the static methods of LsBL and LsDL are used.
+     * @param cacheEnabled False to fall back to LsBL and LsDL
+     */
+    public static void setCacheEnabled(boolean cacheEnabled) {
+        LsblCodec.cacheEnabled = cacheEnabled;
+    }
+
+    /**
+     * Parses the UTF-8 encoded LsBL message.
+     * @param body Message body, may start with a UTF-8 byte order mark
+     * @return Lsbl object
+     * @throws JAXBException if the body is no valid LsBL message
+     */
+    public static Lsbl decode(byte[] body) throws JAXBException {
+        if(!cacheEnabled) {
+            return LsBL.parse(ServiceClient.autoRemoveBom(new String(body, StandardCharsets.UTF_8)));
+        }
+        int offset = bomLength(body);
+        return (Lsbl) LSBL.unmarshal(new ByteArrayInputStream(body, offset, body.length - offset));
+    }
+
+    /**
+     * Writes the LsBL message as UTF-8 encoded XML.
+     * @param lsbl Lsbl object
+     * @return Message body
+     * @throws DataBindingException if the message could not be written, like LsBL.write
+     */
+    public static byte[] encode(Lsbl lsbl) {
+        if(!cacheEnabled) {
+            return LsBL.write(lsbl).getBytes(StandardCharsets.UTF_8);
+        }
+        EncodeBuffer buffer = ENCODE_BUFFER.get();
+        buffer.reset();
+        try {
+            LSBL.marshaller().marshal(lsbl, buffer);
+        } catch (JAXBException e) {
+            LSBL.marshaller.remove();
+            throw new DataBindingException(e);
+        }
+        byte[] body = buffer.toByteArray();
+        buffer.shrink();
+        return body;
+    }
+
+    /**
+     * Parses a LsDL value document, e.g. the lsdl of a value report.
+     * @param lsdl LsDL XML
+     * @return Network object
+     * @throws JAXBException if the document is no valid LsDL value document
+     */
+    public static Network parseValueLsdl(String lsdl) throws JAXBException {
+        if(!cacheEnabled) {
+            return (Network) LsDL.parse(lsdl, Network.class);
+        }
+        return (Network) VALUE_LSDL.unmarshal(new StringReader(ServiceClient.autoRemoveBom(lsdl)));
+    }
+
+    /**
+     * Parses the value reports of a LsDL value document, like LsDL.parseValueReport but with the cached Unmarshaller.
+     * Like LsDL.parseValueReport only the first device of the document is read.
+     * @param lsdl LsDL XML, e.g. the lsdl of a value_get response
+     * @return Value reports of the first device in the document
+     * @throws JAXBException if the document is no valid LsDL value document
+     */
+    public static List<ValueReportType> parseValueReport(String lsdl) throws JAXBException {
+        if(!cacheEnabled) {
+            return LsDL.parseValueReport(lsdl);
+        }
+        Network.Device device = parseValueLsdl(lsdl).getDevice().get(0);
+        List<ValueReportType> valueReports = new ArrayList<>();
+        for(Object item : device.getValueGetOrValueReportOrValueSet()) {
+            valueReports.add((ValueReportType) item);
+        }
+        return valueReports;
+    }
+
+    /**
+     * Writes a LsDL value document, e.g. the lsdl of a value set request.
+     * @param network Network object
+     * @return LsDL XML
+     * @throws DataBindingException if the document could not be written, like LsDL.write
+     */
+    public static String writeValueLsdl(Network network) {
+        if(!cacheEnabled) {
+            return LsDL.write(network);
+        }
+        StringWriter writer = new StringWriter();
+        try {
+            VALUE_LSDL.marshaller().marshal(network, writer);
+        } catch (JAXBException e) {
+            VALUE_LSDL.marshaller.remove();
+            throw new DataBindingException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Returns the length of the UTF-8 byte order mark at the start of the body.
+     * @param body Message body
+     * @return 3 if the body starts with a byte order mark, otherwise 0
+     */
+    static int bomLength(byte[] body) {
+        if(body.length >= UTF8_BOM.length
+                && body[0] == UTF8_BOM[0]
+                && body[1] == UTF8_BOM[1]
+                && body[2] == UTF8_BOM[2]) {
+            return UTF8_BOM.length;
+        }
+        return 0;
+    }
+
+    /**
+     * Growable buffer that requests are marshalled into, one per thread so it is reused by every request of the thread.
+     * Only the final copy into a body of the exact size is allocated per request.
+     */
+    private static class EncodeBuffer extends ByteArrayOutputStream {
+
+        private static final int INITIAL_SIZE = 4 * 1024;
+        private static final int MAX_RETAINED_SIZE = 256 * 1024;
+
+        EncodeBuffer() {
+            super(INITIAL_SIZE);
+        }
+
+        /**
+         * Releases the buffer after an unusually large request, so a thread does not hold on to it forever.
+         */
+        void shrink() {
+            if(buf.length > MAX_RETAINED_SIZE) {
+                buf = new byte[INITIAL_SIZE];
+            }
+        }
+    }
+
+    /**
+     * JAXBContext of one root class with the Unmarshaller and Marshaller of the current thread.
+     */
+    private static class JaxbCache {
+
+        private final Class<?> rootClass;
+        private final ThreadLocal<Unmarshaller> unmarshaller = new ThreadLocal<>();
+        private final ThreadLocal<Marshaller> marshaller = new ThreadLocal<>();
+        private volatile JAXBContext context;
+
+        JaxbCache(Class<?> rootClass) {
+            this.rootClass = rootClass;
+        }
+
+        Object unmarshal(ByteArrayInputStream inputStream) throws JAXBException {
+            try {
+                return unmarshaller().unmarshal(inputStream);
+            } catch (JAXBException | RuntimeException e) {
+                // Do not reuse an instance that failed in an unknown state
+                unmarshaller.remove();
+                throw e;
+            }
+        }
+
+        Object unmarshal(StringReader reader) throws JAXBException {
+            try {
+                return unmarshaller().unmarshal(reader);
+            } catch (JAXBException | RuntimeException e) {
+                unmarshaller.remove();
+                throw e;
+            }
+        }
+
+        private Unmarshaller unmarshaller() throws JAXBException {
+            Unmarshaller instance = unmarshaller.get();
+            if(instance == null) {
+                instance = context().createUnmarshaller();
+                unmarshaller.set(instance);
+            }
+            return instance;
+        }
+
+        Marshaller marshaller() throws JAXBException {
+            Marshaller instance = marshaller.get();
+            if(instance == null) {
+                instance = context().createMarshaller();
+                // Same output as JAXB.marshal, which is used by LsBL.write and LsDL.write
+                instance.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+                marshaller.set(instance);
+            }
+            return instance;
+        }
+
+        private JAXBContext context() throws JAXBException {
+            JAXBContext instance = context;
+            if(instance == null) {
+                // Creating the context is expensive, a race only creates it twice
+                instance = JAXBContext.newInstance(rootClass);
+                context = instance;
+            }
+            return instance;
+        }
+    }
+
+}
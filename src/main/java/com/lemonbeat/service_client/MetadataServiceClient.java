@@ -7,7 +7,11 @@ import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataCmd;
 import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataGetRequest;
 import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataSetRequest;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ServiceClient for getting metadata for devices/gateways by SGTIN and UUID.
@@ -17,6 +21,8 @@ public class MetadataServiceClient {
     private ServiceClient serviceClient;
 
     private static final String SERVICE_QUEUE = "SERVICE.METADATASERVICE";
+    private static final int DEFAULT_BULK_IN_FLIGHT = 32;
+    private static final int DEFAULT_BULK_RETRIES = 2;
 
     public MetadataServiceClient(ServiceClient serviceClient){
         this.serviceClient = serviceClient;
@@ -44,6 +50,96 @@ public class MetadataServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Set the metadata for the given SGTIN.
+     * @param sgtin SGTIN of the device/gateway
+     * @param attributes List of MetadataAttributes that will be set.
+     * @return CompletableFuture with the response LsBL
+     */
+    public CompletableFuture<Lsbl> setMetadataBySgtinAsync(String sgtin, List<MetadataAttribute> attributes) {
+        Lsbl cmd = createSetMetadataRequest(sgtin, null, attributes);
+        return serviceClient.callAsync(cmd);
+    }
+
+    /**
+     * Set the metadata of many devices/gateways by SGTIN and block until all of them answered or timed out,
+     * see setMetadataBulkAsync(Map, int, int, long, TimeUnit).
+     * @param attributesBySgtin MetadataAttributes that will be set per SGTIN of the device/gateway
+     * @return BulkReport with the failed SGTINs
+     */
+    public BulkReport setMetadataBulk(Map<String, List<MetadataAttribute>> attributesBySgtin) {
+        return setMetadataBulkAsync(attributesBySgtin).join();
+    }
+
+    /**
+     * Set the metadata of many devices/gateways by SGTIN without blocking,
+     * see setMetadataBulkAsync(Map, int, int, long, TimeUnit).
+     * @param attributesBySgtin MetadataAttributes that will be set per SGTIN of the device/gateway
+     * @return CompletableFuture with the BulkReport of the failed SGTINs
+     */
+    public CompletableFuture<BulkReport> setMetadataBulkAsync(Map<String, List<MetadataAttribute>> attributesBySgtin) {
+        return setMetadataBulkAsync(attributesBySgtin, DEFAULT_BULK_IN_FLIGHT, DEFAULT_BULK_RETRIES, ServiceClient.CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set the metadata of many devices/gateways by SGTIN without blocking.
+     * The metadata_set requests are pipelined over the shared reply queue with at most maxInFlight requests
+     * waiting for their response. A request that times out is sent again up to retries times,
+     * a device/gateway that answers with a Nack or still times out is reported in the BulkReport.
+     * @param attributesBySgtin MetadataAttributes that will be set per SGTIN of the device/gateway
+     * @param maxInFlight Maximum number of requests that wait for their response at the same time
+     * @param retries How often a request that timed out is sent again
+     * @param timeout Time to wait for the response of a single request
+     * @param unit Unit of the timeout
+     * @return CompletableFuture with the BulkReport of the failed SGTINs
+     */
+    public CompletableFuture<BulkReport> setMetadataBulkAsync(Map<String, List<MetadataAttribute>> attributesBySgtin, int maxInFlight,
+                                                              int retries, long timeout, TimeUnit unit) {
+        return new BulkRequest<>(serviceClient, attributesBySgtin.keySet(),
+                sgtin -> createSetMetadataRequest(sgtin, null, attributesBySgtin.get(sgtin)), (sgtin, response) -> {},
+                new BulkReport(), maxInFlight, false, unit.toMillis(timeout)).setRetries(retries).start();
+    }
+
+    /**
+     * Get the metadata of many devices/gateways by SGTIN and block until all of them answered or timed out,
+     * see getMetadataBulkAsync(Collection, int, int, long, TimeUnit).
+     * @param sgtins SGTINs of the devices/gateways
+     * @return BulkResult with the MetadataAttributes per SGTIN and the failed SGTINs
+     */
+    public BulkResult<List<MetadataAttribute>> getMetadataBulk(Collection<String> sgtins) {
+        return getMetadataBulkAsync(sgtins).join();
+    }
+
+    /**
+     * Get the metadata of many devices/gateways by SGTIN without blocking,
+     * see getMetadataBulkAsync(Collection, int, int, long, TimeUnit).
+     * @param sgtins SGTINs of the devices/gateways
+     * @return CompletableFuture with the MetadataAttributes per SGTIN and the failed SGTINs
+     */
+    public CompletableFuture<BulkResult<List<MetadataAttribute>>> getMetadataBulkAsync(Collection<String> sgtins) {
+        return getMetadataBulkAsync(sgtins, DEFAULT_BULK_IN_FLIGHT, DEFAULT_BULK_RETRIES, ServiceClient.CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the metadata of many devices/gateways by SGTIN without blocking.
+     * The metadata_get requests are pipelined over the shared reply queue with at most maxInFlight requests
+     * waiting for their response. A request that times out is sent again up to retries times,
+     * a device/gateway that answers with a Nack or still times out is reported in the failures of the result.
+     * @param sgtins SGTINs of the devices/gateways
+     * @param maxInFlight Maximum number of requests that wait for their response at the same time
+     * @param retries How often a request that timed out is sent again
+     * @param timeout Time to wait for the response of a single request
+     * @param unit Unit of the timeout
+     * @return CompletableFuture with the MetadataAttributes per SGTIN and the failed SGTINs
+     */
+    public CompletableFuture<BulkResult<List<MetadataAttribute>>> getMetadataBulkAsync(Collection<String> sgtins, int maxInFlight,
+                                                                                     int retries, long timeout, TimeUnit unit) {
+        BulkResult<List<MetadataAttribute>> result = new BulkResult<>();
+        return new BulkRequest<>(serviceClient, sgtins, this::createGetMetadataBySgtinRequest,
+                (sgtin, response) -> result.result(sgtin, response.getResponse().getMetadataResponse().getMetadataReport().getAttribute()),
+                result, maxInFlight, false, unit.toMillis(timeout)).setRetries(retries).start();
+    }
+
     /**
      * Get the metadata for the given device/gateway by SGTIN.
      * @param sgtin SGTIN of the device/gateway
@@ -64,6 +160,16 @@ public class MetadataServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Get the metadata for the given device/gateway by SGTIN without blocking.
+     * @param sgtin SGTIN of the device/gateway
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> getMetadataBySgtinAsync(String sgtin) {
+        Lsbl cmd = createGetMetadataBySgtinRequest(sgtin);
+        return serviceClient.callAsync(cmd);
+    }
+
     /**
      * Get the metadata for the given device/gateway by UUID.
      * @param uuid UUID of the device/gateway
@@ -84,6 +190,16 @@ public class MetadataServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Get the metadata for the given device/gateway by UUID without blocking.
+     * @param uuid UUID of the device/gateway
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> getMetadataByUuidAsync(String uuid) {
+        Lsbl cmd = createGetMetadataByUuidRequest(uuid);
+        return serviceClient.callAsync(cmd);
+    }
+
     private Lsbl createSetMetadataRequest(String sgtin, String uuid, List<MetadataAttribute> attributes) {
         Lsbl.Cmd cmd = new Lsbl.Cmd();
         MetadataCmd metadataCmd = new MetadataCmd();
@@ -0,0 +1,278 @@
+package com.lemonbeat.service_client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ClientMetrics that keeps the measurements in memory, e.g. to export them to a monitoring system.
+ * Counters are LongAdders and latencies are recorded in LatencyHistograms, so recording never takes a lock.
+ * <pre>
+ * RecordingClientMetrics metrics = new RecordingClientMetrics();
+ * serviceClient.setMetrics(metrics);
+ * long p99 = metrics.getCallStats("SERVICE.VALUESERVICE").getLatency().getValueAtPercentile(99);
+ * </pre>
+ */
+public class RecordingClientMetrics implements ClientMetrics {
+
+    private final ConcurrentHashMap<String, CallStats> calls = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, EventStats> events = new ConcurrentHashMap<>();
+
+    @Override
+    public void callStarted(String target) {
+        callStats(target).inFlight.increment();
+    }
+
+    @Override
+    public void callCompleted(String target, long durationNanos, CallResult result) {
+        CallStats stats = callStats(target);
+        stats.inFlight.decrement();
+        stats.latency.record(durationNanos);
+        switch (result) {
+            case RESPONSE:
+                stats.responses.increment();
+                break;
+            case NACK:
+                stats.nacks.increment();
+                break;
+            case TIMEOUT:
+                stats.timeouts.increment();
+                break;
+            default:
+                stats.errors.increment();
+        }
+    }
+
+    @Override
+    public void eventQueued(String eventName, long queuedNanos) {
+        EventStats stats = eventStats(eventName);
+        stats.count.increment();
+        stats.queueLag.record(queuedNanos);
+    }
+
+    @Override
+    public void eventDecoded(String eventName, long decodeNanos) {
+        eventStats(eventName).decodeTime.record(decodeNanos);
+    }
+
+    @Override
+    public void eventProcessed(String eventName, long callbackNanos) {
+        eventStats(eventName).callbackTime.record(callbackNanos);
+    }
+
+    @Override
+    public void bufferChanged(String eventName, int bufferDepth) {
+        EventStats stats = eventStats(eventName);
+        stats.bufferDepth = bufferDepth;
+        stats.maxBufferDepth.accumulate(bufferDepth);
+    }
+
+    @Override
+    public void subscriptionPaused(String eventName, int bufferDepth) {
+        eventStats(eventName).pauses.increment();
+    }
+
+    @Override
+    public void subscriptionResumed(String eventName, long pausedNanos) {
+        eventStats(eventName).pauseTime.record(pausedNanos);
+    }
+
+    /**
+     * Returns the statistics of the calls to a service queue, they are created on first use.
+     * @param target Target service queue, e.g. SERVICE.VALUESERVICE
+     * @return CallStats of the service queue
+     */
+    public CallStats getCallStats(String target) {
+        return callStats(target);
+    }
+
+    /**
+     * Returns the statistics of all service queues that were called.
+     * @return Unmodifiable map from the target service queue to its CallStats
+     */
+    public Map<String, CallStats> getCallStats() {
+        return Collections.unmodifiableMap(calls);
+    }
+
+    /**
+     * Returns the statistics of the events of a subscription, they are created on first use.
+     * @param eventName Subscribed event name
+     * @return EventStats of the subscription
+     */
+    public EventStats getEventStats(String eventName) {
+        return eventStats(eventName);
+    }
+
+    /**
+     * Returns the statistics of all subscriptions that received events.
+     * @return Unmodifiable map from the event name to its EventStats
+     */
+    public Map<String, EventStats> getEventStats() {
+        return Collections.unmodifiableMap(events);
+    }
+
+    /**
+     * Returns the number of calls that are waiting for their response, summed over all service queues.
+     * @return Calls in flight
+     */
+    public long getInFlight() {
+        long inFlight = 0;
+        for(CallStats stats : calls.values()) {
+            inFlight += stats.getInFlight();
+        }
+        return inFlight;
+    }
+
+    private CallStats callStats(String target) {
+        CallStats stats = calls.get(target);
+        return stats != null ? stats : calls.computeIfAbsent(target, t -> new CallStats());
+    }
+
+    private EventStats eventStats(String eventName) {
+        EventStats stats = events.get(eventName);
+        return stats != null ? stats : events.computeIfAbsent(eventName, e -> new EventStats());
+    }
+
+    /**
+     * Statistics of the calls to one service queue.
+     */
+    public static class CallStats {
+
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder responses = new LongAdder();
+        private final LongAdder nacks = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * Returns the number of calls that are waiting for their response.
+         * @return Calls in flight
+         */
+        public long getInFlight() {
+            return inFlight.sum();
+        }
+
+        /**
+         * Returns the number of calls that were answered with a response or an Ack.
+         * @return Number of responses
+         */
+        public long getResponseCount() {
+            return responses.sum();
+        }
+
+        /**
+         * Returns the number of calls that were answered with a Nack, timeouts are not included.
+         * @return Number of Nacks
+         */
+        public long getNackCount() {
+            return nacks.sum();
+        }
+
+        /**
+         * Returns the number of calls that timed out.
+         * @return Number of timeouts
+         */
+        public long getTimeoutCount() {
+            return timeouts.sum();
+        }
+
+        /**
+         * Returns the number of responses that could not be decoded.
+         * @return Number of errors
+         */
+        public long getErrorCount() {
+            return errors.sum();
+        }
+
+        /**
+         * Returns the latency of the completed calls, including the timed out calls.
+         * @return Histogram of the call durations in nanoseconds
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    /**
+     * Statistics of the events of one subscription.
+     */
+    public static class EventStats {
+
+        private final LongAdder count = new LongAdder();
+        private final LatencyHistogram queueLag = new LatencyHistogram();
+        private final LatencyHistogram decodeTime = new LatencyHistogram();
+        private final LatencyHistogram callbackTime = new LatencyHistogram();
+        private final LongAccumulator maxBufferDepth = new LongAccumulator(Math::max, 0);
+        private final LongAdder pauses = new LongAdder();
+        private final LatencyHistogram pauseTime = new LatencyHistogram();
+        private volatile int bufferDepth;
+
+        /**
+         * Returns the number of received events.
+         * @return Number of events
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Returns the time the events waited in the client before they were processed.
+         * @return Histogram of the queueing times in nanoseconds
+         */
+        public LatencyHistogram getQueueLag() {
+            return queueLag;
+        }
+
+        /**
+         * Returns the time spent decoding the events.
+         * @return Histogram of the decode times in nanoseconds
+         */
+        public LatencyHistogram getDecodeTime() {
+            return decodeTime;
+        }
+
+        /**
+         * Returns the time spent in the callback of the subscription.
+         * @return Histogram of the callback times in nanoseconds
+         */
+        public LatencyHistogram getCallbackTime() {
+            return callbackTime;
+        }
+
+        /**
+         * Returns the last reported depth of the bounded buffer of the subscription.
+         * @return Buffered events, 0 without a bounded buffer
+         */
+        public int getBufferDepth() {
+            return bufferDepth;
+        }
+
+        /**
+         * Returns the highest reported depth of the bounded buffer.
+         * @return Maximum number of buffered events
+         */
+        public long getMaxBufferDepth() {
+            return maxBufferDepth.get();
+        }
+
+        /**
+         * Returns how often the subscription was paused because its buffer reached the high watermark.
+         * @return Number of pauses
+         */
+        public long getPauseCount() {
+            return pauses.sum();
+        }
+
+        /**
+         * Returns the duration of the pauses that ended.
+         * @return Histogram of the paused times in nanoseconds
+         */
+        public LatencyHistogram getPauseTime() {
+            return pauseTime;
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.lsbl.Hdr;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A request that is encoded once and published many times, e.g. the value_get of a device that is polled.
+ * The request is marshalled with placeholders for the source, the sequence number and the token,
+ * a call only patches these three values into the encoded bytes without going through JAXB.
+ * Use ServiceClient.call(RequestTemplate, ResponseCallback) or ServiceClient.callAsync(RequestTemplate).
+ */
+public class RequestTemplate {
+
+    private static final int SRC = 0;
+    private static final int SEQ = 1;
+    private static final int TOKEN = 2;
+
+    private final String target;
+    private final byte[] encoded;
+    /** Offsets of the placeholders in the encoded request, in the order they appear. */
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] kinds;
+
+    private RequestTemplate(String target, byte[] encoded, int[] offsets, int[] lengths, int[] kinds) {
+        this.target = target;
+        this.encoded = encoded;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.kinds = kinds;
+    }
+
+    /**
+     * Creates a template of the given request. The request is not modified.
+     * @param request Command that is sent to the Services, e.g. created by LsBL.createCmd
+     * @return Template of the request
+     */
+    public static RequestTemplate of(Lsbl request) {
+        Lsbl.Adr adr = request.getAdr();
+        String src = adr.getSrc();
+        long seq = adr.getSeq();
+        Hdr hdr = request.getHdr();
+
+        String srcPlaceholder = "TEMPLATE.SRC." + UUID.randomUUID();
+        long seqPlaceholder = ThreadLocalRandom.current().nextLong(100000000000000000L, 900000000000000000L);
+        String tokenPlaceholder = "TEMPLATE.TOKEN." + UUID.randomUUID();
+        byte[] encoded;
+        try {
+            adr.setSrc(srcPlaceholder);
+            adr.setSeq(seqPlaceholder);
+            Hdr templateHdr = new Hdr();
+            templateHdr.setToken(tokenPlaceholder);
+            request.setHdr(templateHdr);
+            encoded = LsblCodec.encode(request);
+        } finally {
+            adr.setSrc(src);
+            adr.setSeq(seq);
+            request.setHdr(hdr);
+        }
+
+        List<int[]> placeholders = new ArrayList<>();
+        placeholders.add(find(encoded, srcPlaceholder, SRC));
+        placeholders.add(find(encoded, Long.toString(seqPlaceholder), SEQ));
+        placeholders.add(find(encoded, tokenPlaceholder, TOKEN));
+        placeholders.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+        int[] offsets = new int[3];
+        int[] lengths = new int[3];
+        int[] kinds = new int[3];
+        for(int i = 0; i < 3; i++) {
+            offsets[i] = placeholders.get(i)[0];
+            lengths[i] = placeholders.get(i)[1];
+            kinds[i] = placeholders.get(i)[2];
+        }
+        return new RequestTemplate(adr.getTarget(), encoded, offsets, lengths, kinds);
+    }
+
+    /**
+     * Returns the target of the request, the routing key it is published with.
+     * @return Target of the request
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Creates the envelope of one call of the template, it carries the address used for routing and the timeout.
+     * @return Lsbl with the address of the request only
+     */
+    Lsbl newRequest() {
+        Lsbl request = new Lsbl();
+        Lsbl.Adr adr = new Lsbl.Adr();
+        adr.setTarget(target);
+        request.setAdr(adr);
+        return request;
+    }
+
+    /**
+     * Returns the encoded request with the given values in place of the placeholders.
+     * @param src Source the response is sent to
+     * @param seq Sequence number of the request
+     * @param token Token of the user or null
+     * @return Message body
+     */
+    byte[] encode(String src, long seq, String token) {
+        byte[][] values = new byte[3][];
+        values[SRC] = escape(src);
+        values[SEQ] = Long.toString(seq).getBytes(StandardCharsets.US_ASCII);
+        values[TOKEN] = escape(token);
+
+        int length = encoded.length;
+        for(int i = 0; i < 3; i++) {
+            length += values[kinds[i]].length - lengths[i];
+        }
+        byte[] body = new byte[length];
+        int from = 0;
+        int to = 0;
+        for(int i = 0; i < 3; i++) {
+            int chunk = offsets[i] - from;
+            System.arraycopy(encoded, from, body, to, chunk);
+            to += chunk;
+            byte[] value = values[kinds[i]];
+            System.arraycopy(value, 0, body, to, value.length);
+            to += value.length;
+            from = offsets[i] + lengths[i];
+        }
+        System.arraycopy(encoded, from, body, to, encoded.length - from);
+        return body;
+    }
+
+    private static int[] find(byte[] encoded, String placeholder, int kind) {
+        byte[] pattern = placeholder.getBytes(StandardCharsets.UTF_8);
+        int found = -1;
+        for(int i = 0; i <= encoded.length - pattern.length; i++) {
+            if(matches(encoded, i, pattern)) {
+                if(found >= 0) {
+                    throw new IllegalArgumentException("The request contains the placeholder " + placeholder + " more than once");
+                }
+                found = i;
+            }
+        }
+        if(found < 0) {
+            throw new IllegalArgumentException("The request has no adr and hdr that can be templated");
+        }
+        return new int[]{found, pattern.length, kind};
+    }
+
+    private static boolean matches(byte[] encoded, int offset, byte[] pattern) {
+        for(int i = 0; i < pattern.length; i++) {
+            if(encoded[offset + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] escape(String value) {
+        if(value == null) {
+            return new byte[0];
+        }
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '<' || c == '>' || c == '&' || c == '"' || c == '\'') {
+                value = value.replace("&", "&amp;")
+                        .replace("<", "&lt;")
+                        .replace(">", "&gt;")
+                        .replace("\"", "&quot;")
+                        .replace("'", "&apos;");
+                break;
+            }
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
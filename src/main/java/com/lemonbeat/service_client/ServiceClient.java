@@ -12,16 +12,21 @@ import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
 import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Provides the general communication with the backend.
@@ -30,16 +35,39 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class ServiceClient {
 
     private Connection connection;
-    private String token;
-    private long tokenExpires;
+    private final AtomicReference<Token> token = new AtomicReference<>(Token.NONE);
+    private volatile TokenManager tokenManager;
     private Properties settings;
+    private boolean sharedReplyQueue;
+    private volatile Executor virtualThreadExecutor;
+    private SharedReplyQueue replyQueue;
+    private ChannelPool channelPool;
+    private volatile ClientMetrics metrics = ClientMetrics.NOOP;
 
     private static final String REPLY_QUEUE_PREFIX = "PARTNER.CLIENT.";
     private static final String EVENTS_QUEUE_PREFIX = "PARTNER.EVENTS.";
     private static final String DMZ_EXCHANGE = "DMZ";
     private static final String RPC_EXCHANGE = "PARTNER";
     private static final String EVENT_EXCHANGE = "EVENT.APP";
+    static final String VALUE_REPORTED_EVENT = "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED";
     private static String CLIENT_NAME = "CLIENT";
+    static final long CALL_TIMEOUT_MS = 120000;
+    private static final String TIMEOUT_ERROR_CODE = "timeout";
+    private static final String TOKEN_EXPIRED_ERROR_CODE = "token_expired";
+    private static final int DEFAULT_CHANNEL_POOL_SIZE = 8;
+
+    /**
+     * One scheduler thread handles the timeouts of all pending calls, no matter how many calls are in flight,
+     * the delayed flushes of batched event acknowledgements and the scheduled token refreshes.
+     * Cancelled timeouts are removed from the queue right away. The scheduler thread only hands the due tasks
+     * to TIMER_TASKS, so a slow callback or a call that waits for a pooled channel never delays the other timeouts.
+     */
+    private static final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER = createTimeoutScheduler();
+
+    /**
+     * Runs the timeout callbacks, acknowledgement flushes and token refreshes once they are due.
+     */
+    private static final ExecutorService TIMER_TASKS = createTimerTaskExecutor();
 
     /**
      * Create a new instance by passing a RabbitMQ connection object.
@@ -78,6 +106,10 @@ public class ServiceClient {
             String client_jks_path = settings.getProperty("CLIENT_JKS_PATH", "client.jks");
             String client_jks_pass = settings.getProperty("CLIENT_JKS_PASSWORD", "password");
             ServiceClient.CLIENT_NAME = settings.getProperty("CLIENT_NAME", "EXAMPLE");
+            this.sharedReplyQueue = Boolean.parseBoolean(settings.getProperty("SHARED_REPLY_QUEUE", "false"));
+            if(Boolean.parseBoolean(settings.getProperty("VIRTUAL_THREADS", "false")) && VirtualThreads.isSupported()){
+                this.virtualThreadExecutor = VirtualThreads.executor();
+            }
 
             SSLContext sslContext = null;
             if(Boolean.parseBoolean(broker_ssl)){
@@ -135,66 +167,333 @@ public class ServiceClient {
      * @return AMQP consumer tag
      */
     public String subscribe(String eventName, EventCallback callback, boolean durable){
+        Subscription subscription = subscribe(eventName, callback, new SubscriptionOptions().setDurable(durable));
+        return subscription == null ? null : subscription.getConsumerTags().get(0);
+    }
+
+    /**
+     * Use this to subscribe your callback to certain events with a custom prefetch count,
+     * several consumer channels on the same queue and an optional executor for the callbacks.
+     * @param eventName Name of the event, e.g. EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED
+     * @param callback EventCallback with an onEvent method
+     * @param options Options of the subscription
+     * @return Subscription with the AMQP consumer tags or null if the subscription failed
+     */
+    public Subscription subscribe(String eventName, EventCallback callback, SubscriptionOptions options){
+        return subscribeDeliveries(eventName, Collections.singletonList(eventName), (routingKey, body) -> {
+            long start = System.nanoTime();
+            Lsbl event = null;
+            try {
+                event = LsblCodec.decode(body);
+            } catch (JAXBException e) {
+                e.printStackTrace();
+            }
+            long decoded = System.nanoTime();
+            metrics.eventDecoded(eventName, decoded - start);
+            try {
+                callback.onEvent(event);
+            } finally {
+                metrics.eventProcessed(eventName, System.nanoTime() - decoded);
+            }
+        }, options);
+    }
+
+    /**
+     * Subscribes to EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED events with a streaming decoder.
+     * Only the sgtins, the event time and the reported values are extracted, without unmarshalling the Lsbl envelope
+     * and the embedded LsDL document.
+     * @param callback ValueReportCallback with an onValueReport method
+     * @return Subscription with the AMQP consumer tags or null if the subscription failed
+     */
+    public Subscription subscribeValueReports(ValueReportCallback callback){
+        return subscribeValueReports(callback, new SubscriptionOptions());
+    }
+
+    /**
+     * Subscribes to EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED events with a streaming decoder.
+     * Only the sgtins, the event time and the reported values are extracted, without unmarshalling the Lsbl envelope
+     * and the embedded LsDL document.
+     * @param callback ValueReportCallback with an onValueReport method
+     * @param options Options of the subscription
+     * @return Subscription with the AMQP consumer tags or null if the subscription failed
+     */
+    public Subscription subscribeValueReports(ValueReportCallback callback, SubscriptionOptions options){
+        return subscribeDeliveries(VALUE_REPORTED_EVENT, Collections.singletonList(VALUE_REPORTED_EVENT), (routingKey, body) -> {
+            long start = System.nanoTime();
+            DeviceValueReport valueReport = null;
+            try {
+                valueReport = ValueReportDecoder.decode(body);
+            } catch (XMLStreamException e) {
+                e.printStackTrace();
+            }
+            long decoded = System.nanoTime();
+            metrics.eventDecoded(VALUE_REPORTED_EVENT, decoded - start);
+            try {
+                callback.onValueReport(valueReport);
+            } finally {
+                metrics.eventProcessed(VALUE_REPORTED_EVENT, System.nanoTime() - decoded);
+            }
+        }, options);
+    }
+
+    /**
+     * Subscribes to certain events as a Flow.Publisher, so the events are only delivered as fast as the subscriber
+     * requests them. The subscription starts when a subscriber subscribes, every subscriber gets its own consumer channel.
+     * On a non durable subscription the prefetch count of the channel follows the demand of the subscriber
+     * up to the prefetch count of the options. Each event is acknowledged once onNext returned.
+     * Events that could not be decoded are acknowledged and dropped. The consumer count, the lanes and the buffer
+     * of the options are not used, the demand bounds the events in the client instead.
+     * @param eventName Name of the event, e.g. EVENT.APP.TOPOSERVICE.DEVICE_INCLUDED
+     * @param options Options of the subscription, e.g. with a prefetch count that fits the largest request
+     * @return Publisher of the events
+     */
+    public Flow.Publisher<Lsbl> subscribeAsPublisher(String eventName, SubscriptionOptions options){
+        return new EventPublisher<>(this, eventName, options, body -> {
+            long start = System.nanoTime();
+            Lsbl event = null;
+            try {
+                event = LsblCodec.decode(body);
+            } catch (JAXBException e) {
+                e.printStackTrace();
+            }
+            metrics.eventDecoded(eventName, System.nanoTime() - start);
+            return event;
+        });
+    }
+
+    /**
+     * Subscribes to EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED events as a Flow.Publisher with the streaming decoder
+     * of subscribeValueReports, see subscribeAsPublisher.
+     * @param options Options of the subscription, e.g. with a prefetch count that fits the largest request
+     * @return Publisher of the value reports
+     */
+    public Flow.Publisher<DeviceValueReport> subscribeValueReportsAsPublisher(SubscriptionOptions options){
+        return new EventPublisher<>(this, VALUE_REPORTED_EVENT, options, body -> {
+            long start = System.nanoTime();
+            DeviceValueReport valueReport = null;
+            try {
+                valueReport = ValueReportDecoder.decode(body);
+            } catch (XMLStreamException e) {
+                e.printStackTrace();
+            }
+            metrics.eventDecoded(VALUE_REPORTED_EVENT, System.nanoTime() - start);
+            return valueReport;
+        });
+    }
+
+    /**
+     * Subscribes the handlers of several events to one queue. The queue is bound to the event names and patterns
+     * of the handlers, so all events share one consumer channel per consumer, one prefetch window and one
+     * acknowledgement stream instead of a queue and a channel per event.
+     * The handlers of an event are found by its routing key in a table that is filled once per event name.
+     * @param handlers EventHandlers with the handlers of the events
+     * @param options Options of the subscription
+     * @return Subscription with the AMQP consumer tags or null if the subscription failed
+     */
+    public Subscription subscribe(EventHandlers handlers, SubscriptionOptions options){
+        if(handlers.getBindingKeys().isEmpty()){
+            throw new IllegalArgumentException("At least one handler is required");
+        }
+        String eventName = EVENT_EXCHANGE + "." + handlers.getName();
+        return subscribeDeliveries(eventName, handlers.getBindingKeys(),
+                (routingKey, body) -> handlers.dispatch(routingKey, body, metrics, eventName), options);
+    }
+
+    private Subscription subscribeDeliveries(String eventName, List<String> bindingKeys, DeliveryHandler handler, SubscriptionOptions options){
+        if(options.getBufferHighWatermark() > 0 && options.isDurable()){
+            // Quorum queues ignore the channel wide prefetch count the buffer pauses with
+            throw new IllegalArgumentException("A bounded buffer is not supported on durable subscriptions");
+        }
+        List<Channel> channels = new ArrayList<>();
+        List<String> consumerTags = new ArrayList<>();
+        EventLanes lanes = options.getLaneCount() > 0 ? new EventLanes(options.getLaneCount(), eventName) : null;
         try {
+            final String queueName = eventQueueName(eventName, options.isDurable());
+            SubscriptionBuffer buffer = options.getBufferHighWatermark() > 0
+                    ? new SubscriptionBuffer(this, eventName, options.getBufferHighWatermark(), options.getBufferLowWatermark())
+                    : null;
+            for(int i = 0; i < options.getConsumerCount(); i++){
+                final Channel channel = connection.createChannel();
+                channels.add(channel);
+                String eventsQueueName = queueDeclare(channel, queueName, options.isDurable());
+                // The default prefetch count of 1 ensures the client is not overloaded
+                // You can tune this value based on your resources: https://www.rabbitmq.com/consumer-prefetch.html
+                channel.basicQos(options.getPrefetchCount());
+                for(String bindingKey : bindingKeys){
+                    channel.queueBind(eventsQueueName, ServiceClient.EVENT_EXCHANGE, bindingKey);
+                }
+                if(buffer != null){
+                    buffer.register(channel);
+                }
+                consumerTags.add(channel.basicConsume(eventsQueueName, false, new EventConsumer(channel, eventName, bindingKeys, queueName, handler, options, buffer, lanes)));
+            }
+            return new Subscription(eventName, queueName, channels, consumerTags, buffer, lanes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            if(!consumerTags.isEmpty()){
+                new Subscription(eventName, null, channels.subList(0, consumerTags.size()), consumerTags).cancel();
+            }
+            // The channel of the failed consumer was created but has no consumer tag
+            for(Channel channel : channels.subList(consumerTags.size(), channels.size())){
+                try {
+                    if(channel.isOpen()){
+                        channel.close();
+                    }
+                } catch (AlreadyClosedException ignored) {
 
-            final Channel channel = connection.createChannel();
-            final String queueName = eventQueueName(eventName, durable);
-            String eventsQueueName = queueDeclare(channel, queueName, durable);
-            // Start with a prefetch count of 1 to ensure the client is not overloaded
-            // You can tune this value based on your resources: https://www.rabbitmq.com/consumer-prefetch.html
-            channel.basicQos(1);
-            channel.queueBind(eventsQueueName, ServiceClient.EVENT_EXCHANGE, eventName);
+                } catch (IOException | TimeoutException closeException) {
+                    closeException.printStackTrace();
+                }
+            }
+            if(lanes != null){
+                lanes.shutdown();
+            }
+            return null;
+        }
+    }
 
-            String consumerTag = channel.basicConsume(eventsQueueName, false, new DefaultConsumer(channel){
+    /**
+     * Consumes the events of a subscription and acknowledges them once the callback returned.
+     * Without an executor the events are processed in order on the AMQP consumer thread, so one acknowledgement
+     * with multiple=true covers all earlier deliveries. With an executor each delivery is acknowledged on its own.
+     * If acknowledgements are batched, an AckTracker acknowledges the contiguous range of completed deliveries instead.
+     * With a bounded buffer every delivery is counted until it was acknowledged, see SubscriptionBuffer.
+     * With lanes the deliveries are processed on the lane of their device like on an executor, see EventLanes.
+     */
+    private class EventConsumer extends DefaultConsumer {
 
-                private boolean reconnection = false;
-                private Channel currentChannel = channel;
+        private final Channel channel;
+        private final String eventName;
+        private final List<String> bindingKeys;
+        private final String queueName;
+        private final DeliveryHandler handler;
+        private final SubscriptionOptions options;
+        private final AckTracker ackTracker;
+        private final SubscriptionBuffer buffer;
+        private final EventLanes lanes;
+        private boolean reconnection = false;
 
-                @Override
-                public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-                    Lsbl event = null;
+        EventConsumer(Channel channel, String eventName, List<String> bindingKeys, String queueName, DeliveryHandler handler,
+                      SubscriptionOptions options, SubscriptionBuffer buffer, EventLanes lanes) {
+            super(channel);
+            this.buffer = buffer;
+            this.lanes = lanes;
+            this.channel = channel;
+            this.eventName = eventName;
+            this.bindingKeys = bindingKeys;
+            this.queueName = queueName;
+            this.handler = handler;
+            this.options = options;
+            int ackBatchSize = Math.min(options.getAckBatchSize(), Math.max(1, options.getPrefetchCount() / 2));
+            this.ackTracker = ackBatchSize > 1
+                    ? new AckTracker(channel, ackBatchSize, options.getAckBatchTimeoutMs(), TIMEOUT_SCHEDULER, TIMER_TASKS)
+                    : null;
+        }
+
+        @Override
+        public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+            long received = System.nanoTime();
+            Executor executor = lanes != null ? lanes.lane(body)
+                    : options.getExecutor() != null ? options.getExecutor() : virtualThreadExecutor;
+            if(buffer != null){
+                buffer.added();
+            }
+            if(executor == null){
+                metrics.eventQueued(eventName, 0);
+                try {
+                    handler.onDelivery(envelope.getRoutingKey(), body);
+                    ack(envelope.getDeliveryTag(), true);
+                } finally {
+                    if(buffer != null){
+                        buffer.removed();
+                    }
+                }
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    metrics.eventQueued(eventName, System.nanoTime() - received);
                     try {
-                        String lsblXML = autoRemoveBom(new String(body, StandardCharsets.UTF_8.name()));
-                        event = LsBL.parse(lsblXML);
-                    } catch (JAXBException e) {
+                        handler.onDelivery(envelope.getRoutingKey(), body);
+                    } catch (RuntimeException e) {
                         e.printStackTrace();
                     } finally {
-                        callback.onEvent(event);
+                        ack(envelope.getDeliveryTag(), false);
+                        if(buffer != null){
+                            buffer.removed();
+                        }
                     }
-                    try {
-                        this.currentChannel.basicAck(envelope.getDeliveryTag(), true);
-                    }catch (AlreadyClosedException alreadyClosedException){}
+                });
+            } catch (RejectedExecutionException e) {
+                if(buffer != null){
+                    buffer.removed();
                 }
-
-                @Override
-                public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
-                    this.reconnection = true;
-                    super.handleShutdownSignal(consumerTag, sig);
+                // Hand the event back to the broker so another consumer or a later delivery can process it
+                try {
+                    channel.basicNack(envelope.getDeliveryTag(), false, true);
+                } catch (AlreadyClosedException alreadyClosedException){}
+                if(ackTracker != null) {
+                    // The delivery is settled, it must not hold back the acknowledgement of later deliveries
+                    ackTracker.complete(envelope.getDeliveryTag());
                 }
+            }
+        }
 
-                @Override
-                public void handleConsumeOk(String consumerTag) {
-                    if(reconnection) {
-                        try {
-                            String eventsQueueName = queueDeclare(channel, queueName, durable);
-                            this.currentChannel.basicQos(1);
-                            this.currentChannel.queueBind(eventsQueueName, ServiceClient.EVENT_EXCHANGE, eventName);
-                            this.reconnection = false;
-                        } catch(IOException e) {
-                            e.printStackTrace();
-                        }
+        private void ack(long deliveryTag, boolean multiple) {
+            if(ackTracker != null) {
+                ackTracker.complete(deliveryTag);
+                return;
+            }
+            try {
+                channel.basicAck(deliveryTag, multiple);
+            } catch (AlreadyClosedException alreadyClosedException){
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void handleCancelOk(String consumerTag) {
+            if(ackTracker != null) {
+                ackTracker.flush();
+            }
+            super.handleCancelOk(consumerTag);
+        }
+
+        @Override
+        public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+            this.reconnection = true;
+            super.handleShutdownSignal(consumerTag, sig);
+        }
+
+        @Override
+        public void handleConsumeOk(String consumerTag) {
+            if(reconnection) {
+                try {
+                    String eventsQueueName = queueDeclare(channel, queueName, options.isDurable());
+                    channel.basicQos(options.getPrefetchCount());
+                    for(String bindingKey : bindingKeys) {
+                        channel.queueBind(eventsQueueName, ServiceClient.EVENT_EXCHANGE, bindingKey);
                     }
-                    super.handleConsumeOk(consumerTag);
+                    this.reconnection = false;
+                } catch(IOException e) {
+                    e.printStackTrace();
                 }
-
-            });
-            return consumerTag;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+            }
+            super.handleConsumeOk(consumerTag);
         }
     }
 
+    /**
+     * Declares the queue of an event subscription on the channel and binds it to the event.
+     * @return Name of the declared queue
+     */
+    String declareEventQueue(Channel channel, String eventName, boolean durable) throws IOException {
+        String queueName = queueDeclare(channel, eventQueueName(eventName, durable), durable);
+        channel.queueBind(queueName, ServiceClient.EVENT_EXCHANGE, eventName);
+        return queueName;
+    }
+
     private String queueDeclare(Channel channel, String queueName, boolean durable) throws IOException {
         if(durable){
             Map<String, Object> params = new HashMap<>();
@@ -211,65 +510,259 @@ public class ServiceClient {
      * @param callback ReponseCallback with an onResponse method
      */
     public void call(Lsbl request, ResponseCallback callback) {
+        call(request, null, dispatch(callback), CALL_TIMEOUT_MS);
+    }
+
+    /**
+     * Use this function to publish a prepared request without marshalling it again.
+     * Only the source, the sequence number and the token are patched into the encoded request.
+     * @param template Request that was prepared with RequestTemplate.of
+     * @param callback ReponseCallback with an onResponse method
+     */
+    public void call(RequestTemplate template, ResponseCallback callback) {
+        call(template.newRequest(), template, dispatch(callback), CALL_TIMEOUT_MS);
+    }
+
+    /**
+     * Runs the callback of a call on a virtual thread if they are enabled, so it may block, e.g. on callAwait,
+     * without stalling the consumer of the reply queue.
+     * @param callback ResponseCallback of the caller, may be null
+     * @return Callback that hands the response to a virtual thread or the given callback
+     */
+    private ResponseCallback dispatch(ResponseCallback callback) {
+        Executor executor = virtualThreadExecutor;
+        if(executor == null || callback == null){
+            return callback;
+        }
+        return response -> executor.execute(() -> callback.onResponse(response));
+    }
+
+    /**
+     * Use this function to publish a prepared request without marshalling it again and without blocking a thread.
+     * The future completes with the response or with a timeout Nack after 120 seconds.
+     * @param template Request that was prepared with RequestTemplate.of
+     * @return CompletableFuture with the Lsbl response for the given request.
+     */
+    public CompletableFuture<Lsbl> callAsync(RequestTemplate template) {
+        CompletableFuture<Lsbl> response = new CompletableFuture<>();
+        call(template.newRequest(), template, response::complete, CALL_TIMEOUT_MS);
+        return response;
+    }
+
+    /**
+     * Use this function to do RPC calls to the backend services without blocking a thread.
+     * The future completes with the response or with a timeout Nack after 120 seconds.
+     * @param request Command that is sent to the Services
+     * @return CompletableFuture with the Lsbl response for the given request.
+     */
+    public CompletableFuture<Lsbl> callAsync(Lsbl request) {
+        return callAsync(request, CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Use this function to do RPC calls to the backend services without blocking a thread.
+     * The future completes with the response or with a timeout Nack (see isTimeout) when the given timeout has passed.
+     * @param request Command that is sent to the Services
+     * @param timeout Time to wait for the response
+     * @param unit Unit of the timeout
+     * @return CompletableFuture with the Lsbl response for the given request.
+     */
+    public CompletableFuture<Lsbl> callAsync(Lsbl request, long timeout, TimeUnit unit) {
+        CompletableFuture<Lsbl> response = new CompletableFuture<>();
+        call(request, null, response::complete, unit.toMillis(timeout));
+        return response;
+    }
+
+    /**
+     * Sends the request over the shared reply queue, regardless of setSharedReplyQueue.
+     * Used by the bulk requests, they would otherwise declare a reply queue for every request.
+     * @param request Command that is sent to the Services
+     * @param timeoutMs Time in milliseconds until the call is answered with a timeout Nack
+     * @return CompletableFuture with the Lsbl response for the given request.
+     */
+    CompletableFuture<Lsbl> callAsyncWithSharedReplyQueue(Lsbl request, long timeoutMs) {
+        CompletableFuture<Lsbl> response = new CompletableFuture<>();
+        call(request, null, response::complete, timeoutMs, true);
+        return response;
+    }
+
+    private void call(Lsbl request, RequestTemplate template, ResponseCallback responseCallback, long timeoutMs) {
+        call(request, template, responseCallback, timeoutMs, sharedReplyQueue);
+    }
+
+    private void call(Lsbl request, RequestTemplate template, ResponseCallback responseCallback, long timeoutMs, boolean shared) {
+        TokenManager tokenManager = this.tokenManager;
+        if(tokenManager != null && isTokenExpired() && !TokenManager.isAuthenticationRequest(request)){
+            // Never publish with a token that is known to be expired, wait for the refresh or the new login instead
+            tokenManager.refresh().whenComplete((refreshedToken, error) -> {
+                if(error == null && !isTokenExpired()){
+                    call(request, template, responseCallback, timeoutMs, shared);
+                } else if(responseCallback != null){
+                    responseCallback.onResponse(createNackMessage(request, TOKEN_EXPIRED_ERROR_CODE, "The token expired and could not be refreshed"));
+                }
+            });
+            return;
+        }
+        ResponseCallback callback = measure(request.getAdr().getTarget(), responseCallback);
+        if(shared){
+            callWithSharedReplyQueue(request, template, callback, timeoutMs);
+            return;
+        }
         AtomicBoolean responseReceived = new AtomicBoolean(false);
+        AtomicReference<Channel> callChannel = new AtomicReference<>();
+        AtomicReference<String> callConsumerTag = new AtomicReference<>();
+        ScheduledFuture<?> timeout = schedule(() -> {
+            if(responseReceived.compareAndSet(false, true)){
+                if(callback != null){
+                    callback.onResponse(createTimeoutMessage(request));
+                }
+                cancelConsumer(callChannel.get(), callConsumerTag.get());
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        Channel channel = null;
         try{
-            Channel channel = connection.createChannel();
+            channel = getChannelPool().borrow();
+            callChannel.set(channel);
             String replyQueueName = channel.queueDeclare(randomReplyQueueName(), false, true, true, null).getQueue();
             channel.queueBind(replyQueueName, ServiceClient.RPC_EXCHANGE, replyQueueName);
             request.getAdr().setSrc(replyQueueName);
             request.getAdr().setSeq(ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE));
-            Hdr hdr = new Hdr();
-            hdr.setToken(this.token);
-            request.setHdr(hdr);
-            channel.basicPublish(ServiceClient.DMZ_EXCHANGE, request.getAdr().getTarget(), null, LsBL.write(request).getBytes("UTF-8"));
+            channel.basicPublish(ServiceClient.DMZ_EXCHANGE, request.getAdr().getTarget(), null, encodeRequest(request, template));
             String consumerTag = channel.basicConsume(replyQueueName, true, new DefaultConsumer(channel){
                 @Override
                 public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+                    if(!responseReceived.compareAndSet(false, true)){
+                        return;
+                    }
+                    timeout.cancel(false);
                     Lsbl response = null;
                     try {
-                        String lsblXML = autoRemoveBom(new String(body, StandardCharsets.UTF_8.name()));
-                        response = LsBL.parse(lsblXML);
+                        response = LsblCodec.decode(body);
                     } catch (JAXBException e) {
                         e.printStackTrace();
                     } finally {
-                        responseReceived.set(true);
                         if(callback != null){
                             callback.onResponse(response);
                         }
+                        cancelConsumer(getChannel(), consumerTag);
                     }
                 }
             });
+            callConsumerTag.set(consumerTag);
+            if(responseReceived.get()){
+                // The call timed out before the consumer was registered
+                cancelConsumer(channel, consumerTag);
+            }
+        } catch (IOException | AlreadyClosedException e) {
+            e.printStackTrace();
+        } finally {
+            if(channel != null){
+                getChannelPool().release(channel);
+            }
+        }
+    }
 
-            Thread waitForResponse = new Thread(() -> {
-                int timeout = 120000;
-                try {
-                    while (!responseReceived.get() && timeout > 0) {
-                        Thread.sleep(500);
-                        timeout = timeout - 500;
-                    }
-                    if (timeout <= 0 && !responseReceived.get()) {
-                        callback.onResponse(createTimeoutMessage(request));
-                    } else {
-                    }
-                    channel.basicCancel(consumerTag);
-                    channel.close();
-                } catch (AlreadyClosedException e) {
+    /**
+     * Publishes the request with the shared reply queue of this connection as source.
+     * The response is routed to the callback by the sequence number of the request.
+     * @param request Command that is sent to the Services
+     * @param callback ReponseCallback with an onResponse method
+     * @param timeoutMs Time in milliseconds until the call is answered with a timeout Nack
+     */
+    private void callWithSharedReplyQueue(Lsbl request, RequestTemplate template, ResponseCallback callback, long timeoutMs) {
+        SharedReplyQueue replyQueue = getReplyQueue();
+        SharedReplyQueue.PendingCall pendingCall = replyQueue.register(request, callback);
+        pendingCall.timeout = schedule(() -> {
+            if(replyQueue.remove(pendingCall) && callback != null){
+                callback.onResponse(createTimeoutMessage(request));
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        Channel channel = null;
+        try{
+            byte[] body = encodeRequest(request, template);
+            replyQueue.channel();
+            channel = getChannelPool().borrow();
+            channel.basicPublish(ServiceClient.DMZ_EXCHANGE, request.getAdr().getTarget(), null, body);
+        } catch (IOException | AlreadyClosedException e) {
+            e.printStackTrace();
+        } finally {
+            if(channel != null){
+                getChannelPool().release(channel);
+            }
+        }
+    }
 
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                } catch (TimeoutException e) {
-                    e.printStackTrace();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            });
-            waitForResponse.start();
+    /**
+     * Wraps the callback of a call to record its latency and outcome, unless no metrics are set.
+     * @param target Target service queue of the request
+     * @param callback ResponseCallback of the caller, may be null
+     * @return Callback that records the completed call before passing on the response
+     */
+    private ResponseCallback measure(String target, ResponseCallback callback) {
+        ClientMetrics metrics = this.metrics;
+        if(metrics == ClientMetrics.NOOP){
+            return callback;
+        }
+        long start = System.nanoTime();
+        metrics.callStarted(target);
+        return response -> {
+            metrics.callCompleted(target, System.nanoTime() - start, ClientMetrics.CallResult.of(response));
+            if(callback != null){
+                callback.onResponse(response);
+            }
+        };
+    }
+
+    /**
+     * Encodes the request with the current token, prepared requests are patched instead of marshalled.
+     */
+    private byte[] encodeRequest(Lsbl request, RequestTemplate template) {
+        if(template != null){
+            return template.encode(request.getAdr().getSrc(), request.getAdr().getSeq(), getToken());
+        }
+        Hdr hdr = new Hdr();
+        hdr.setToken(getToken());
+        request.setHdr(hdr);
+        return LsblCodec.encode(request);
+    }
+
+    /**
+     * Cancels the consumer of a finished call, the exclusive reply queue is deleted with its last consumer.
+     * @param channel Channel the consumer was registered on
+     * @param consumerTag Consumer tag of the call
+     */
+    private static void cancelConsumer(Channel channel, String consumerTag) {
+        if(channel == null || consumerTag == null || !channel.isOpen()){
+            return;
+        }
+        try {
+            channel.basicCancel(consumerTag);
+        } catch (AlreadyClosedException e) {
 
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Returns the pool of channels that is used to publish requests.
+     * The size can be set with CHANNEL_POOL_SIZE in the settings.properties file and defaults to 8.
+     * @return ChannelPool of the current connection
+     */
+    public synchronized ChannelPool getChannelPool() {
+        if(channelPool == null){
+            int size = Integer.parseInt(settings.getProperty("CHANNEL_POOL_SIZE", String.valueOf(DEFAULT_CHANNEL_POOL_SIZE)));
+            channelPool = new ChannelPool(connection, size, CALL_TIMEOUT_MS);
+        }
+        return channelPool;
+    }
+
+    private synchronized SharedReplyQueue getReplyQueue() {
+        if(replyQueue == null){
+            replyQueue = new SharedReplyQueue(connection, randomReplyQueueName(), ServiceClient.RPC_EXCHANGE);
+        }
+        return replyQueue;
+    }
 
     /**
      * Use this function to do blocking RPC calls to the backend services.
@@ -277,17 +770,26 @@ public class ServiceClient {
      * @return Lsbl response for the given request.
      */
     public Lsbl callAwait(Lsbl request) {
-        Lsbl lsblResponse = createTimeoutMessage(request);
-        CompletableFuture<Lsbl> response = new CompletableFuture<>();
-        this.call(request, lsbl -> {
-            response.complete(lsbl);
-        });
+        return callAwait(request, CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Use this function to do blocking RPC calls to the backend services with a custom timeout.
+     * @param request Command that is sent to the Services
+     * @param timeout Time to wait for the response
+     * @param unit Unit of the timeout
+     * @return Lsbl response for the given request or a timeout Nack.
+     */
+    public Lsbl callAwait(Lsbl request, long timeout, TimeUnit unit) {
         try{
-            lsblResponse = response.get(120, TimeUnit.SECONDS);
-        } catch (Exception ex) {}
-        finally {
-            return lsblResponse;
+            // Waiting on the future parks the thread, a virtual thread is unmounted from its carrier meanwhile
+            return callAsync(request, timeout, unit).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
         }
+        return createTimeoutMessage(request);
     }
 
     /**
@@ -295,7 +797,7 @@ public class ServiceClient {
      * @return Current token or null if not authenticated
      */
     public String getToken() {
-        return token;
+        return token.get().value;
     }
 
     /**
@@ -303,7 +805,16 @@ public class ServiceClient {
      * @param token JWT
      */
     public void setToken(String token) {
-        this.token = token;
+        this.token.updateAndGet(current -> new Token(token, current.expires));
+    }
+
+    /**
+     * Sets the JWT and its expiry at once, so no call is sent with the new token and the old expiry or vice versa.
+     * @param token JWT
+     * @param tokenExpires UTC Unix timestamp of the expiry
+     */
+    public void setToken(String token, long tokenExpires) {
+        this.token.set(new Token(token, tokenExpires));
     }
 
     /**
@@ -311,7 +822,84 @@ public class ServiceClient {
      * @return Current expiriy timestamp
      */
     public long getTokenExpires() {
-        return tokenExpires;
+        return token.get().expires;
+    }
+
+    /**
+     * Returns true if the expiry of the token is known and has passed.
+     * @return True if the token is expired
+     */
+    public boolean isTokenExpired() {
+        long expires = getTokenExpires();
+        return expires > 0 && System.currentTimeMillis() / 1000 >= expires;
+    }
+
+    /**
+     * Returns the TokenManager that refreshes the token in the background.
+     * @return TokenManager or null if the automatic refresh was not started
+     */
+    public TokenManager getTokenManager() {
+        return tokenManager;
+    }
+
+    void setTokenManager(TokenManager tokenManager) {
+        this.tokenManager = tokenManager;
+    }
+
+    /**
+     * Returns true if calls share one long-lived reply queue per connection.
+     * @return True if the shared reply queue is used
+     */
+    public boolean isSharedReplyQueue() {
+        return sharedReplyQueue;
+    }
+
+    /**
+     * Enables one exclusive reply queue per connection that is declared once and consumed until the connection closes.
+     * Responses are routed to the callbacks by the sequence number of the request, so each call costs a single publish
+     * instead of creating a channel, queue and consumer per call.
+     * Can also be enabled with SHARED_REPLY_QUEUE=true in the settings.properties file.
+     * @param sharedReplyQueue True to use the shared reply queue for all subsequent calls
+     */
+    public void setSharedReplyQueue(boolean sharedReplyQueue) {
+        this.sharedReplyQueue = sharedReplyQueue;
+    }
+
+    /**
+     * Runs the event callbacks of subscriptions without an own executor and the callbacks of call() on virtual threads,
+     * so they may block on callAwait or other *Await methods. Like with an executor, the events of a subscription are
+     * processed concurrently and each delivery is acknowledged on its own.
+     * Can also be enabled with VIRTUAL_THREADS=true in the settings.properties file, which is ignored before Java 21.
+     * @param virtualThreads True to run the callbacks on virtual threads
+     * @throws UnsupportedOperationException if virtual threads are enabled on a runtime before Java 21
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreadExecutor = virtualThreads ? VirtualThreads.executor() : null;
+    }
+
+    /**
+     * Returns true if the callbacks run on virtual threads.
+     * @return True if virtual threads are enabled
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreadExecutor != null;
+    }
+
+    /**
+     * Returns the metrics the calls and subscriptions are recorded to.
+     * @return ClientMetrics, ClientMetrics.NOOP if no metrics are set
+     */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics the calls and subscriptions are recorded to, e.g. a RecordingClientMetrics.
+     * Takes effect for subsequent calls and for the events of existing subscriptions.
+     * @param metrics ClientMetrics implementation or null to disable recording
+     */
+    public void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics == null ? ClientMetrics.NOOP : metrics;
     }
 
     /**
@@ -335,7 +923,7 @@ public class ServiceClient {
      * @param tokenExpires UTC Unix Timestamp
      */
     public void setTokenExpires(long tokenExpires) {
-        this.tokenExpires = tokenExpires;
+        this.token.updateAndGet(current -> new Token(current.value, tokenExpires));
     }
 
     /**
@@ -344,6 +932,17 @@ public class ServiceClient {
      * @return LsBL Nack message
      */
     public Lsbl createTimeoutMessage(Lsbl request) {
+        return createNackMessage(request, TIMEOUT_ERROR_CODE, "The request timed out");
+    }
+
+    /**
+     * Creates a LsBL Nack from the given request that is answered by the client itself.
+     * @param request Request that could not be answered by the service
+     * @param errorCode Error code of the Nack
+     * @param message Message of the Nack
+     * @return LsBL Nack message
+     */
+    private Lsbl createNackMessage(Lsbl request, String errorCode, String message) {
         Lsbl lsbl = new Lsbl();
         Lsbl.Adr adr = new Lsbl.Adr();
         adr.setSeq(request.getAdr().getSeq());
@@ -353,8 +952,8 @@ public class ServiceClient {
         Lsbl.Response response = new Lsbl.Response();
         CommonResponse commonResponse = new CommonResponse();
         NackResponse nackResponse = new NackResponse();
-        nackResponse.setErrorCode("timeout");
-        nackResponse.setMessage("The request timed out");
+        nackResponse.setErrorCode(errorCode);
+        nackResponse.setMessage(message);
         nackResponse.setTimestamp(BigInteger.valueOf(System.currentTimeMillis() / 1000));
         commonResponse.setNack(nackResponse);
         response.setCommonResponse(commonResponse);
@@ -363,6 +962,64 @@ public class ServiceClient {
         return lsbl;
     }
 
+    /**
+     * Returns the scheduler of the call timeouts, it is shared with the token refresh.
+     * Its thread must only hand off the due tasks, see schedule and timerTasks.
+     * @return Scheduler with one daemon thread
+     */
+    static ScheduledExecutorService scheduler() {
+        return TIMEOUT_SCHEDULER;
+    }
+
+    /**
+     * Returns the executor that runs the due tasks of the scheduler.
+     * @return Cached pool of daemon threads
+     */
+    static Executor timerTasks() {
+        return TIMER_TASKS;
+    }
+
+    /**
+     * Runs the task on the timer task executor once the delay elapsed.
+     * Cancelling the returned future before the task is due prevents it from running.
+     */
+    private static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMEOUT_SCHEDULER.schedule(() -> TIMER_TASKS.execute(task), delay, unit);
+    }
+
+    private static ScheduledThreadPoolExecutor createTimeoutScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "service-client-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private static ExecutorService createTimerTaskExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "service-client-timer-task-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks if the given response is the Nack that is created when a call times out.
+     * @param response Response of a call
+     * @return True if the call timed out
+     */
+    public static boolean isTimeout(Lsbl response) {
+        return response != null
+                && LsBL.isNack(response)
+                && response.getResponse() != null
+                && response.getResponse().getCommonResponse() != null
+                && response.getResponse().getCommonResponse().getNack() != null
+                && TIMEOUT_ERROR_CODE.equals(response.getResponse().getCommonResponse().getNack().getErrorCode());
+    }
+
     /**
      * Generate a queue name depending on the event name and the durable option.
      * @param eventName Name of the event the queue is subscribed to
@@ -395,7 +1052,7 @@ public class ServiceClient {
      * @param s String that might contain a BOM
      * @return String without a BOM
      */
-    private String autoRemoveBom(String s){
+    static String autoRemoveBom(String s){
         String UTF8_BOM = "\uFEFF";
         if(s.startsWith(UTF8_BOM)){
             s = s.substring(1);
@@ -403,6 +1060,22 @@ public class ServiceClient {
         return s;
     }
 
+    /**
+     * The token with its expiry, replaced as a whole so both are always read consistently.
+     */
+    private static final class Token {
+
+        static final Token NONE = new Token(null, 0);
+
+        final String value;
+        final long expires;
+
+        Token(String value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
     /**
      * Callback that will receive an event for further processing by your application.
      */
@@ -410,6 +1083,20 @@ public class ServiceClient {
         void onEvent(Lsbl event);
     }
 
+    /**
+     * Callback that will receive the decoded EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED events.
+     */
+    public interface ValueReportCallback {
+        void onValueReport(DeviceValueReport valueReport);
+    }
+
+    /**
+     * Decodes the body of a delivery and passes it to the callback of the subscription.
+     */
+    private interface DeliveryHandler {
+        void onDelivery(String routingKey, byte[] body);
+    }
+
     /**
      * Callback that will receive the response for calls to services that expect an answer.
      */
@@ -0,0 +1,152 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.rabbitmq.client.*;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A single exclusive reply queue per connection that is declared once and consumed for the lifetime of the connection.
+ * Responses are routed to the pending callbacks by the sequence number (Lsbl.Adr.seq) of the request.
+ */
+class SharedReplyQueue {
+
+    private final Connection connection;
+    private final String queueName;
+    private final String exchange;
+    private final ConcurrentHashMap<Long, PendingCall> pendingCalls = new ConcurrentHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger(ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE));
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Channel channel;
+
+    /**
+     * @param connection AMQP connection the reply queue belongs to
+     * @param queueName Name of the exclusive reply queue
+     * @param exchange Exchange the backend publishes the responses to
+     */
+    SharedReplyQueue(Connection connection, String queueName, String exchange) {
+        this.connection = connection;
+        this.queueName = queueName;
+        this.exchange = exchange;
+    }
+
+    /**
+     * Returns the channel of the reply queue, the queue is declared and consumed on first use
+     * and again if the channel was closed due to an error.
+     * @return Open channel that consumes the reply queue
+     * @throws IOException if the queue could not be declared or consumed
+     */
+    Channel channel() throws IOException {
+        Channel current = channel;
+        if(current != null && current.isOpen()) {
+            return current;
+        }
+        // Not synchronized, a virtual thread that waits for the queue declaration must not pin its carrier thread
+        lock.lock();
+        try {
+            if(channel == null || !channel.isOpen()) {
+                Channel replyChannel = connection.createChannel();
+                replyChannel.queueDeclare(queueName, false, true, true, null);
+                replyChannel.queueBind(queueName, exchange, queueName);
+                replyChannel.basicConsume(queueName, true, new DefaultConsumer(replyChannel) {
+                    @Override
+                    public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+                        dispatch(body);
+                    }
+                });
+                channel = replyChannel;
+            }
+            return channel;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers the callback for the given request and assigns the source and sequence number used to route the response.
+     * @param request Request that will be published
+     * @param callback Callback that will receive the response
+     * @return The pending call that is completed by the response or the timeout
+     */
+    PendingCall register(Lsbl request, ServiceClient.ResponseCallback callback) {
+        long seq;
+        PendingCall pendingCall;
+        do {
+            seq = sequence.getAndUpdate(s -> s == Integer.MAX_VALUE ? 1 : s + 1);
+            pendingCall = new PendingCall(seq, request, callback);
+        } while (pendingCalls.putIfAbsent(seq, pendingCall) != null);
+        request.getAdr().setSrc(queueName);
+        request.getAdr().setSeq(seq);
+        return pendingCall;
+    }
+
+    /**
+     * Removes the pending call, whoever removes it first (response or timeout) completes the call.
+     * @param pendingCall The pending call that should be completed
+     * @return True if the call was still pending
+     */
+    boolean remove(PendingCall pendingCall) {
+        return pendingCalls.remove(pendingCall.seq, pendingCall);
+    }
+
+    /**
+     * Returns the name of the reply queue.
+     * @return Name of the reply queue
+     */
+    String getQueueName() {
+        return queueName;
+    }
+
+    /**
+     * Routes the response to the pending call with the same sequence number.
+     * @param body Message body of the response
+     */
+    void dispatch(byte[] body) {
+        Lsbl response;
+        try {
+            response = LsblCodec.decode(body);
+        } catch (JAXBException e) {
+            // Without the envelope the response can not be routed, the call will run into its timeout.
+            e.printStackTrace();
+            return;
+        }
+        if(response == null || response.getAdr() == null) {
+            return;
+        }
+        PendingCall pendingCall = pendingCalls.remove(response.getAdr().getSeq());
+        if(pendingCall == null) {
+            return;
+        }
+        ScheduledFuture<?> timeout = pendingCall.timeout;
+        if(timeout != null) {
+            timeout.cancel(false);
+        }
+        if(pendingCall.callback != null) {
+            pendingCall.callback.onResponse(response);
+        }
+    }
+
+    /**
+     * A request that is waiting for its response.
+     */
+    static class PendingCall {
+
+        final long seq;
+        final Lsbl request;
+        final ServiceClient.ResponseCallback callback;
+        volatile ScheduledFuture<?> timeout;
+
+        PendingCall(long seq, Lsbl request, ServiceClient.ResponseCallback callback) {
+            this.seq = seq;
+            this.request = request;
+            this.callback = callback;
+        }
+    }
+
+}
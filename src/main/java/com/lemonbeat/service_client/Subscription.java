@@ -0,0 +1,128 @@
+package com.lemonbeat.service_client;
+
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle of an event subscription with one or more consumer channels on the same queue.
+ */
+public class Subscription {
+
+    private final String eventName;
+    private final String queueName;
+    private final List<Channel> channels;
+    private final List<String> consumerTags;
+    private final SubscriptionBuffer buffer;
+    private final EventLanes lanes;
+
+    Subscription(String eventName, String queueName, List<Channel> channels, List<String> consumerTags) {
+        this(eventName, queueName, channels, consumerTags, null, null);
+    }
+
+    Subscription(String eventName, String queueName, List<Channel> channels, List<String> consumerTags,
+                 SubscriptionBuffer buffer, EventLanes lanes) {
+        this.eventName = eventName;
+        this.queueName = queueName;
+        this.channels = Collections.unmodifiableList(channels);
+        this.consumerTags = Collections.unmodifiableList(consumerTags);
+        this.buffer = buffer;
+        this.lanes = lanes;
+    }
+
+    /**
+     * Returns the name of the event the subscription is bound to.
+     * @return Event name
+     */
+    public String getEventName() {
+        return eventName;
+    }
+
+    /**
+     * Returns the name of the queue the events are consumed from.
+     * @return Queue name
+     */
+    public String getQueueName() {
+        return queueName;
+    }
+
+    /**
+     * Returns the AMQP consumer tags, one per consumer channel.
+     * @return List of consumer tags
+     */
+    public List<String> getConsumerTags() {
+        return consumerTags;
+    }
+
+    /**
+     * Returns the number of events that were received but not processed yet.
+     * @return Buffered events, 0 if the buffer is not bounded with SubscriptionOptions.setBuffer
+     */
+    public int getBufferDepth() {
+        return buffer != null ? buffer.getDepth() : 0;
+    }
+
+    /**
+     * Returns true while the deliveries are paused because the buffer reached its high watermark.
+     * @return True if the subscription is paused
+     */
+    public boolean isPaused() {
+        return buffer != null && buffer.isPaused();
+    }
+
+    /**
+     * Returns how often the subscription was paused because the buffer reached its high watermark.
+     * @return Number of pauses
+     */
+    public long getPauseCount() {
+        return buffer != null ? buffer.getPauseCount() : 0;
+    }
+
+    /**
+     * Returns the total time the subscription was paused, including the current pause.
+     * @return Paused time in milliseconds
+     */
+    public long getPausedTimeMs() {
+        return buffer != null ? TimeUnit.NANOSECONDS.toMillis(buffer.getPausedNanos()) : 0;
+    }
+
+    /**
+     * Returns the number of events that wait for each lane, including the events that are being processed.
+     * A lane with many more events than the others is slowed down by a few busy devices.
+     * @return Waiting events per lane, empty if the events are not distributed to lanes with SubscriptionOptions.setLaneCount
+     */
+    public int[] getLaneDepths() {
+        return lanes != null ? lanes.getDepths() : new int[0];
+    }
+
+    /**
+     * Cancels all consumers and closes their channels. A non durable queue is deleted by the broker afterwards.
+     */
+    public void cancel() {
+        if(buffer != null) {
+            buffer.close();
+        }
+        for(int i = 0; i < channels.size(); i++) {
+            Channel channel = channels.get(i);
+            try {
+                if(channel.isOpen()) {
+                    channel.basicCancel(consumerTags.get(i));
+                    channel.close();
+                }
+            } catch (AlreadyClosedException e) {
+
+            } catch (IOException | TimeoutException e) {
+                e.printStackTrace();
+            }
+        }
+        if(lanes != null) {
+            lanes.shutdown();
+        }
+    }
+
+}
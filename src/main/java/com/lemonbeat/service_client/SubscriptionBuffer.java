@@ -0,0 +1,179 @@
+package com.lemonbeat.service_client;
+
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of events of a subscription that were received but not processed yet,
+ * e.g. that wait in the queue of the executor. When the buffer reaches the high watermark the prefetch count of every
+ * consumer channel is shrunk to 1 for the whole channel (basicQos with global=true), so the broker stops delivering
+ * while more than one event is unacknowledged and keeps the remaining events in the queue. Once the buffer drained to
+ * the low watermark the channel limit is lifted again and the prefetch count of the consumer applies.
+ * Unlike cancelling the consumers this keeps the non durable queues, they are deleted with their last consumer.
+ * Quorum queues ignore the channel limit, so durable subscriptions cannot be bounded by a buffer.
+ * The deliveries the broker sent before it processed the new limit are still buffered, so the depth can exceed
+ * the high watermark by up to the prefetch count per consumer channel.
+ * The limits are changed while the lock is held, it is a ReentrantLock so a virtual thread that waits for the broker
+ * does not pin its carrier thread.
+ */
+class SubscriptionBuffer {
+
+    private final ServiceClient serviceClient;
+    private final String eventName;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Channel> channels = new ArrayList<>();
+    private volatile boolean paused;
+    private boolean closed;
+    private long pausedSince;
+    private long pausedNanos;
+    private long pauseCount;
+
+    /**
+     * @param serviceClient ServiceClient whose metrics receive the buffer depth and the pauses
+     * @param eventName Subscribed event name
+     * @param highWatermark Number of buffered events that pauses the subscription
+     * @param lowWatermark Number of buffered events that resumes a paused subscription
+     */
+    SubscriptionBuffer(ServiceClient serviceClient, String eventName, int highWatermark, int lowWatermark) {
+        this.serviceClient = serviceClient;
+        this.eventName = eventName;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * Adds a consumer channel of the subscription, it is paused and resumed together with the others.
+     * @param channel Channel of the consumer
+     */
+    void register(Channel channel) {
+        lock.lock();
+        try {
+            channels.add(channel);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called when a delivery was received, pauses the subscription if the high watermark is reached.
+     */
+    void added() {
+        int current = depth.incrementAndGet();
+        serviceClient.getMetrics().bufferChanged(eventName, current);
+        if(current >= highWatermark && !paused) {
+            lock.lock();
+            try {
+                if(!paused && !closed && depth.get() >= highWatermark) {
+                    pause();
+                    if(depth.get() <= lowWatermark) {
+                        // The callbacks drained the buffer to the low watermark before paused was set and basicQos lowered
+                        // the channel limit. Their removed() calls saw paused still false and will not resume, with no
+                        // deliveries left in flight nothing else would raise the limit again
+                        resume();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Called when a delivery was processed and acknowledged, resumes the subscription if the low watermark is reached.
+     */
+    void removed() {
+        int current = depth.decrementAndGet();
+        serviceClient.getMetrics().bufferChanged(eventName, current);
+        if(current <= lowWatermark && paused) {
+            lock.lock();
+            try {
+                if(paused && !closed && depth.get() <= lowWatermark) {
+                    resume();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void pause() {
+        paused = true;
+        setChannelLimit(1);
+        pausedSince = System.nanoTime();
+        pauseCount++;
+        serviceClient.getMetrics().subscriptionPaused(eventName, depth.get());
+    }
+
+    private void resume() {
+        setChannelLimit(0);
+        paused = false;
+        long duration = System.nanoTime() - pausedSince;
+        pausedNanos += duration;
+        serviceClient.getMetrics().subscriptionResumed(eventName, duration);
+    }
+
+    /**
+     * Sets the prefetch count that is shared by all consumers of each channel, 0 removes the limit.
+     */
+    private void setChannelLimit(int prefetchCount) {
+        for(Channel channel : channels) {
+            try {
+                if(channel.isOpen()) {
+                    channel.basicQos(prefetchCount, true);
+                }
+            } catch (AlreadyClosedException e) {
+
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops pausing and resuming, the subscription is cancelled.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getDepth() {
+        return depth.get();
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    long getPauseCount() {
+        lock.lock();
+        try {
+            return pauseCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getPausedNanos() {
+        lock.lock();
+        try {
+            return paused ? pausedNanos + System.nanoTime() - pausedSince : pausedNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.lemonbeat.service_client;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options for ServiceClient.subscribe that control how many events are delivered and processed in parallel.
+ * The defaults (prefetch count 1, one consumer, processing on the AMQP consumer thread) match the plain subscribe methods.
+ */
+public class SubscriptionOptions {
+
+    private boolean durable = false;
+    private int prefetchCount = 1;
+    private int consumerCount = 1;
+    private Executor executor;
+    private int ackBatchSize = 1;
+    private long ackBatchTimeoutMs = 100;
+    private int bufferHighWatermark = 0;
+    private int bufferLowWatermark = 0;
+    private int laneCount = 0;
+
+    /**
+     * Returns true if the queue of the subscription is durable.
+     * @return True for a durable queue
+     */
+    public boolean isDurable() {
+        return durable;
+    }
+
+    /**
+     * Creates a queue that will be persisted if durable is set to true.
+     * Allows events to be stored on the broker even if the consumer is not connected.
+     * @param durable True for a durable queue
+     * @return This options instance
+     */
+    public SubscriptionOptions setDurable(boolean durable) {
+        this.durable = durable;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of unacknowledged events per consumer channel.
+     * @return Prefetch count
+     */
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    /**
+     * Sets the maximum number of unacknowledged events per consumer channel.
+     * See: https://www.rabbitmq.com/consumer-prefetch.html
+     * @param prefetchCount Prefetch count, at least 1
+     * @return This options instance
+     */
+    public SubscriptionOptions setPrefetchCount(int prefetchCount) {
+        if(prefetchCount < 1) {
+            throw new IllegalArgumentException("The prefetch count must be at least 1");
+        }
+        this.prefetchCount = prefetchCount;
+        return this;
+    }
+
+    /**
+     * Returns the number of channels that consume the queue of the subscription in parallel.
+     * @return Number of consumers
+     */
+    public int getConsumerCount() {
+        return consumerCount;
+    }
+
+    /**
+     * Sets the number of channels that consume the queue of the subscription in parallel.
+     * @param consumerCount Number of consumers, at least 1
+     * @return This options instance
+     */
+    public SubscriptionOptions setConsumerCount(int consumerCount) {
+        if(consumerCount < 1) {
+            throw new IllegalArgumentException("The consumer count must be at least 1");
+        }
+        this.consumerCount = consumerCount;
+        return this;
+    }
+
+    /**
+     * Returns the executor the event callbacks run on, or null if they run on the AMQP consumer thread.
+     * @return Executor or null
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets an executor the event callbacks run on. Events of one consumer channel may then be processed in parallel
+     * and complete out of order, each event is acknowledged on its own once its callback returned
+     * unless acknowledgements are batched with setAckBatchSize.
+     * @param executor Executor for the event callbacks or null to run them on the AMQP consumer thread
+     * @return This options instance
+     */
+    public SubscriptionOptions setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Returns the number of completed events that are acknowledged together.
+     * @return Acknowledgement batch size, 1 if every event is acknowledged on its own
+     */
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    /**
+     * Acknowledges the events in batches with multiple=true instead of one acknowledgement per event,
+     * which reduces the number of frames sent to the broker for high-volume subscriptions.
+     * Only the contiguous range of completed events is acknowledged, so events that are processed out of order
+     * on an executor are never acknowledged before their callback returned.
+     * The batch size is limited to half of the prefetch count, so the broker keeps delivering while a batch fills up.
+     * @param ackBatchSize Acknowledgement batch size, at least 1
+     * @return This options instance
+     */
+    public SubscriptionOptions setAckBatchSize(int ackBatchSize) {
+        if(ackBatchSize < 1) {
+            throw new IllegalArgumentException("The acknowledgement batch size must be at least 1");
+        }
+        this.ackBatchSize = ackBatchSize;
+        return this;
+    }
+
+    /**
+     * Returns the maximum time a completed event waits for its batched acknowledgement.
+     * @return Acknowledgement batch timeout in milliseconds
+     */
+    public long getAckBatchTimeoutMs() {
+        return ackBatchTimeoutMs;
+    }
+
+    /**
+     * Sets the maximum time a completed event waits for its batched acknowledgement, default is 100 ms.
+     * @param ackBatchTimeoutMs Acknowledgement batch timeout in milliseconds, at least 1
+     * @return This options instance
+     */
+    public SubscriptionOptions setAckBatchTimeoutMs(long ackBatchTimeoutMs) {
+        if(ackBatchTimeoutMs < 1) {
+            throw new IllegalArgumentException("The acknowledgement batch timeout must be at least 1 ms");
+        }
+        this.ackBatchTimeoutMs = ackBatchTimeoutMs;
+        return this;
+    }
+
+    /**
+     * Returns the number of buffered events that pauses the subscription.
+     * @return High watermark, 0 if the buffer is not bounded
+     */
+    public int getBufferHighWatermark() {
+        return bufferHighWatermark;
+    }
+
+    /**
+     * Returns the number of buffered events that resumes a paused subscription.
+     * @return Low watermark
+     */
+    public int getBufferLowWatermark() {
+        return bufferLowWatermark;
+    }
+
+    /**
+     * Bounds the events that were received but not processed yet, e.g. that wait in the queue of the executor.
+     * When highWatermark events are buffered the deliveries are paused and the broker keeps the events in the queue,
+     * once the buffer drained to lowWatermark events they are resumed.
+     * This allows a high prefetch count without unbounded memory if the callbacks fall behind, e.g. when a gateway
+     * reconnects and replays its value reports. Without an executor the prefetch count already bounds the events.
+     * The buffer is not supported on durable subscriptions, their quorum queues ignore the channel wide prefetch count
+     * the subscription is paused with. The events are acknowledged once they were processed, so the prefetch count
+     * bounds the buffered events of a durable subscription instead.
+     * @param highWatermark Number of buffered events that pauses the subscription, at least 1
+     * @param lowWatermark Number of buffered events that resumes the subscription, less than highWatermark
+     * @return This options instance
+     */
+    public SubscriptionOptions setBuffer(int highWatermark, int lowWatermark) {
+        if(highWatermark < 1) {
+            throw new IllegalArgumentException("The high watermark must be at least 1");
+        }
+        if(lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("The low watermark must be between 0 and the high watermark");
+        }
+        this.bufferHighWatermark = highWatermark;
+        this.bufferLowWatermark = lowWatermark;
+        return this;
+    }
+
+    /**
+     * Returns the number of single-threaded lanes the events are distributed to by their device SGTIN.
+     * @return Number of lanes, 0 if the events are not distributed to lanes
+     */
+    public int getLaneCount() {
+        return laneCount;
+    }
+
+    /**
+     * Processes the events on laneCount single-threaded lanes instead of the executor. Each event is assigned to a lane
+     * by the hash of its device SGTIN, so events of different devices are processed in parallel while the events
+     * of one device keep their order. Each event is acknowledged on its own once its callback returned,
+     * or as part of the contiguous range if acknowledgements are batched, so events that complete out of order on
+     * different lanes are never acknowledged early. The order is kept for the deliveries of one consumer channel,
+     * use a consumer count of 1 and a prefetch count of at least the number of lanes.
+     * @param laneCount Number of lanes, at least 1, e.g. the number of cores
+     * @return This options instance
+     */
+    public SubscriptionOptions setLaneCount(int laneCount) {
+        if(laneCount < 1) {
+            throw new IllegalArgumentException("The lane count must be at least 1");
+        }
+        this.laneCount = laneCount;
+        return this;
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsbl.lsbl_user_service.UserCmd;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the token of a ServiceClient valid. The token is refreshed refreshAheadSeconds before it expires,
+ * if the refresh fails or the token already expired, the manager logs in again with the stored credentials.
+ * Concurrent refreshes share one request, and calls that are made while the token is expired wait for the new token.
+ * Started with UserServiceClient.startTokenRefresh().
+ */
+public class TokenManager {
+
+    private static final long RETRY_DELAY_MS = 5000;
+    private static final long MIN_REFRESH_DELAY_MS = 1000;
+
+    private final ServiceClient serviceClient;
+    private final UserServiceClient userServiceClient;
+    private final String username;
+    private final String password;
+    private final long refreshAheadSeconds;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+
+    private final AtomicReference<CompletableFuture<String>> pendingRefresh = new AtomicReference<>();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder loginCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private ScheduledFuture<?> scheduledRefresh;
+    private boolean stopped;
+
+    /**
+     * @param serviceClient ServiceClient that holds the token
+     * @param userServiceClient UserServiceClient that sends the refresh and login requests
+     * @param username Backend username for a new login
+     * @param password Backend password for a new login
+     * @param refreshAheadSeconds Seconds before the expiry the token is refreshed
+     * @param scheduler Scheduler of the refreshes
+     * @param executor Executor that runs the scheduled refreshes, the refresh call must not block the scheduler thread
+     */
+    TokenManager(ServiceClient serviceClient, UserServiceClient userServiceClient, String username, String password,
+                 long refreshAheadSeconds, ScheduledExecutorService scheduler, Executor executor) {
+        this.serviceClient = serviceClient;
+        this.userServiceClient = userServiceClient;
+        this.username = username;
+        this.password = password;
+        this.refreshAheadSeconds = refreshAheadSeconds;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Logs in if there is no valid token yet, otherwise schedules the refresh ahead of the expiry.
+     */
+    void start() {
+        if(serviceClient.getToken() == null || serviceClient.isTokenExpired()) {
+            refresh();
+        } else {
+            schedule();
+        }
+    }
+
+    /**
+     * Stops the scheduled refreshes, a refresh that is already in flight still completes.
+     */
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            if(scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+                scheduledRefresh = null;
+            }
+        }
+        if(serviceClient.getTokenManager() == this) {
+            serviceClient.setTokenManager(null);
+        }
+    }
+
+    /**
+     * Refreshes the token now. A valid token is refreshed, an expired or missing token is replaced by a new login,
+     * a failed refresh falls back to a new login. Concurrent invocations share the same request.
+     * @return CompletableFuture that completes with the new token or exceptionally if no token could be acquired
+     */
+    public CompletableFuture<String> refresh() {
+        CompletableFuture<String> refresh = new CompletableFuture<>();
+        CompletableFuture<String> pending = pendingRefresh.compareAndExchange(null, refresh);
+        if(pending != null) {
+            return pending;
+        }
+        boolean login = serviceClient.getToken() == null || serviceClient.isTokenExpired();
+        CompletableFuture<Lsbl> response = login ? login() : userServiceClient.tokenRefreshAsync().thenCompose(refreshResponse -> {
+            if(LsBL.isResponse(refreshResponse)) {
+                refreshCount.increment();
+                return CompletableFuture.completedFuture(refreshResponse);
+            }
+            return login();
+        });
+        response.whenComplete((lsbl, error) -> {
+            pendingRefresh.set(null);
+            if(error == null && LsBL.isResponse(lsbl)) {
+                schedule();
+                refresh.complete(serviceClient.getToken());
+            } else {
+                failureCount.increment();
+                retry();
+                refresh.completeExceptionally(error != null ? error : new IllegalStateException("The token could not be refreshed"));
+            }
+        });
+        return refresh;
+    }
+
+    private CompletableFuture<Lsbl> login() {
+        return userServiceClient.loginAsync(username, password).thenApply(loginResponse -> {
+            if(LsBL.isResponse(loginResponse)) {
+                loginCount.increment();
+            }
+            return loginResponse;
+        });
+    }
+
+    /**
+     * Schedules the next refresh refreshAheadSeconds before the token expires.
+     * A token that lives no longer than refreshAheadSeconds is refreshed at half its remaining lifetime instead,
+     * and never sooner than MIN_REFRESH_DELAY_MS, so a short lived token does not cause a refresh loop.
+     * Tokens without a known expiry are not refreshed.
+     */
+    private synchronized void schedule() {
+        long expires = serviceClient.getTokenExpires();
+        if(stopped || expires <= 0) {
+            return;
+        }
+        long remainingMs = TimeUnit.SECONDS.toMillis(expires) - System.currentTimeMillis();
+        long refreshAheadMs = TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+        long delayMs = remainingMs > refreshAheadMs ? remainingMs - refreshAheadMs : remainingMs / 2;
+        scheduleRefresh(Math.max(MIN_REFRESH_DELAY_MS, delayMs));
+    }
+
+    private synchronized void retry() {
+        if(!stopped) {
+            scheduleRefresh(RETRY_DELAY_MS);
+        }
+    }
+
+    private void scheduleRefresh(long delayMs) {
+        if(scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        scheduledRefresh = scheduler.schedule(() -> executor.execute(this::scheduledRefresh), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduledRefresh() {
+        long refreshAt = TimeUnit.SECONDS.toMillis(serviceClient.getTokenExpires() - refreshAheadSeconds);
+        if(serviceClient.getToken() != null && System.currentTimeMillis() < refreshAt) {
+            // The token was replaced since the refresh was scheduled, e.g. by a manual login
+            schedule();
+            return;
+        }
+        refresh();
+    }
+
+    /**
+     * Returns how often the token was refreshed.
+     * @return Number of successful token refreshes
+     */
+    public long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    /**
+     * Returns how often the manager logged in again because the token was missing, expired or could not be refreshed.
+     * @return Number of successful logins
+     */
+    public long getLoginCount() {
+        return loginCount.sum();
+    }
+
+    /**
+     * Returns how often neither a refresh nor a login succeeded.
+     * @return Number of failed attempts
+     */
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    /**
+     * Returns true for the login and token refresh requests, they are sent even if the token is expired.
+     * @param request Request that is about to be published
+     * @return True if the request acquires a new token
+     */
+    static boolean isAuthenticationRequest(Lsbl request) {
+        if(request.getCmd() == null || request.getCmd().getUserCmd() == null) {
+            return false;
+        }
+        UserCmd userCmd = request.getCmd().getUserCmd();
+        return userCmd.getUserLogin() != null || userCmd.getUserTokenRefresh() != null;
+    }
+
+}
@@ -4,15 +4,22 @@ import com.lemonbeat.lsbl.LsBL;
 import com.lemonbeat.lsbl.lsbl.Lsbl;
 import com.lemonbeat.lsbl.lsbl_topo_service.DeviceDescriptionGetRequest;
 import com.lemonbeat.lsbl.lsbl_topo_service.GwDeviceListGetRequest;
+import com.lemonbeat.lsbl.lsbl_topo_service.GwDeviceListGetResponse;
 import com.lemonbeat.lsbl.lsbl_topo_service.GwListGetRequest;
 import com.lemonbeat.lsbl.lsbl_topo_service.TopoCmd;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * ServiceClient for getting information about devices and gateways.
  */
 public class TopoServiceClient {
 
     private ServiceClient serviceClient;
+    private DescriptionCache descriptionCache;
 
     private static final String SERVICE_QUEUE = "SERVICE.TOPOSERVICE";
 
@@ -39,6 +46,15 @@ public class TopoServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Get a list of all known gateways.
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> getGatewayListAsync() {
+        Lsbl cmd = createGwListGetRequest();
+        return serviceClient.callAsync(cmd);
+    }
+
     /**
      * Get all devices that are known by the given gateway.
      * @param gatewaySgtin SGTIN of the gateway.
@@ -59,6 +75,66 @@ public class TopoServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Get all devices that are known by the given gateway.
+     * @param gatewaySgtin SGTIN of the gateway.
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> getDeviceListAsync(String gatewaySgtin) {
+        Lsbl cmd = createGwDeviceListGetRequest(gatewaySgtin);
+        return serviceClient.callAsync(cmd);
+    }
+
+
+    /**
+     * Get the device lists of all known gateways. The gateway list is requested first, then the device lists
+     * are requested with at most maxInFlight requests at a time, see getAllDeviceLists(Collection, int, DeviceListCallback).
+     * @param maxInFlight Maximum number of device list requests that wait for their response at the same time
+     * @param callback Callback that receives every device list as it arrives
+     * @return CompletableFuture with the report of the failed gateways, it completes exceptionally if the gateway list could not be fetched.
+     */
+    public CompletableFuture<BulkReport> getAllDeviceLists(int maxInFlight, DeviceListCallback callback) {
+        return getGatewayListAsync().thenCompose(response -> {
+            if(!LsBL.isResponse(response)) {
+                CompletableFuture<BulkReport> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new RuntimeException("The gateway list could not be fetched: " + describe(response)));
+                return failed;
+            }
+            List<String> gatewaySgtins = response.getResponse().getTopoResponse().getGwListGet().getGw();
+            return getAllDeviceLists(gatewaySgtins, maxInFlight, callback);
+        });
+    }
+
+    /**
+     * Get the device lists of the given gateways with at most maxInFlight requests at a time.
+     * Every device list is passed to the callback as soon as it arrives, a gateway that answers with a Nack or times out
+     * is recorded in the BulkReport and does not stop the other requests.
+     * @param gatewaySgtins SGTINs of the gateways
+     * @param maxInFlight Maximum number of requests that wait for their response at the same time
+     * @param callback Callback that receives every device list as it arrives
+     * @return CompletableFuture with the report of the failed gateways, it completes when every gateway was answered or timed out.
+     */
+    public CompletableFuture<BulkReport> getAllDeviceLists(Collection<String> gatewaySgtins, int maxInFlight, DeviceListCallback callback) {
+        return getAllDeviceLists(gatewaySgtins, maxInFlight, ServiceClient.CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS, callback);
+    }
+
+    /**
+     * Get the device lists of the given gateways with at most maxInFlight requests at a time.
+     * Every device list is passed to the callback as soon as it arrives, a gateway that answers with a Nack or times out
+     * is recorded in the BulkReport and does not stop the other requests.
+     * @param gatewaySgtins SGTINs of the gateways
+     * @param maxInFlight Maximum number of requests that wait for their response at the same time
+     * @param timeout Time to wait for the device list of a single gateway
+     * @param unit Unit of the timeout
+     * @param callback Callback that receives every device list as it arrives
+     * @return CompletableFuture with the report of the failed gateways, it completes when every gateway was answered or timed out.
+     */
+    public CompletableFuture<BulkReport> getAllDeviceLists(Collection<String> gatewaySgtins, int maxInFlight, long timeout, TimeUnit unit,
+                                                           DeviceListCallback callback) {
+        return new BulkRequest<>(serviceClient, gatewaySgtins, this::createGwDeviceListGetRequest,
+                (gatewaySgtin, response) -> callback.onDeviceList(gatewaySgtin, response.getResponse().getTopoResponse().getGwDeviceListGet()),
+                new BulkReport(), maxInFlight, false, unit.toMillis(timeout)).start();
+    }
 
     /**
      * Get the device_description_report for the given device SGTIN.
@@ -80,6 +156,43 @@ public class TopoServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Get the device_description_report for the given device SGTIN.
+     * @param deviceSgtin SGTIN of the device
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> getDeviceDescriptionAsync(String deviceSgtin) {
+        Lsbl cmd = createDeviceDescriptionGetRequest(deviceSgtin);
+        return serviceClient.callAsync(cmd);
+    }
+
+    /**
+     * Enables the cache of the parsed device and value descriptions. The cache subscribes to the topo events,
+     * a device that is included, excluded, removed, replaced or reports a new description is fetched again.
+     * A previously enabled cache is closed.
+     * @param maxEntries Maximum number of devices per description type, the least recently used device is evicted first
+     * @param ttl Time after which a description is fetched again
+     * @param unit Unit of the ttl
+     * @return The DescriptionCache to get the descriptions from
+     */
+    public synchronized DescriptionCache enableDescriptionCache(int maxEntries, long ttl, TimeUnit unit) {
+        DescriptionCache cache = new DescriptionCache(serviceClient, this, maxEntries, ttl, unit);
+        if(descriptionCache != null) {
+            descriptionCache.close();
+        }
+        descriptionCache = cache;
+        cache.start();
+        return cache;
+    }
+
+    /**
+     * Returns the cache of the device and value descriptions.
+     * @return DescriptionCache or null if enableDescriptionCache was not called
+     */
+    public synchronized DescriptionCache getDescriptionCache() {
+        return descriptionCache;
+    }
+
     private Lsbl createGwListGetRequest() {
         Lsbl.Cmd cmd = new Lsbl.Cmd();
         TopoCmd topoCmd = new TopoCmd();
@@ -109,4 +222,29 @@ public class TopoServiceClient {
         return LsBL.createCmd(cmd, SERVICE_QUEUE, serviceClient.getToken());
     }
 
+    private static String describe(Lsbl response) {
+        if(response == null) {
+            return "undecodable response";
+        }
+        if(LsBL.isNack(response) && response.getResponse().getCommonResponse() != null) {
+            return response.getResponse().getCommonResponse().getNack().getMessage();
+        }
+        return String.valueOf(response.getAdr().getType());
+    }
+
+    /**
+     * Receives the device lists of getAllDeviceLists.
+     */
+    public interface DeviceListCallback {
+
+        /**
+         * Called for every gateway that answered with its device list. Called from the threads that receive the responses,
+         * possibly concurrently for different gateways, implementations should not block.
+         * An exception thrown by the callback is reported as failure of the gateway.
+         * @param gatewaySgtin SGTIN of the gateway
+         * @param deviceList Devices known by the gateway
+         */
+        void onDeviceList(String gatewaySgtin, GwDeviceListGetResponse deviceList);
+    }
+
 }
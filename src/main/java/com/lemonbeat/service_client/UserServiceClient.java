@@ -5,6 +5,7 @@ import com.lemonbeat.lsbl.lsbl.Lsbl;
 import com.lemonbeat.lsbl.lsbl_user_service.*;
 
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * ServiceClient for login and token refresh.
@@ -15,6 +16,7 @@ public class UserServiceClient {
     private ServiceClient serviceClient;
 
     private static final String SERVICE_QUEUE = "SERVICE.USERSERVICE";
+    private static final long DEFAULT_REFRESH_AHEAD_SECONDS = 60;
 
     public UserServiceClient(ServiceClient serviceClient){
         this.serviceClient = serviceClient;
@@ -32,8 +34,7 @@ public class UserServiceClient {
         serviceClient.call(cmd, response -> {
             if(LsBL.isResponse(response)){
                 UserLoginResponse userLoginResponse = response.getResponse().getUserResponse().getUserLogin();
-                serviceClient.setToken(userLoginResponse.getToken());
-                serviceClient.setTokenExpires(userLoginResponse.getExpires());
+                serviceClient.setToken(userLoginResponse.getToken(), userLoginResponse.getExpires());
             }
             callback.onResponse(response);
         });
@@ -51,8 +52,7 @@ public class UserServiceClient {
         Lsbl response = serviceClient.callAwait(cmd);
         if(LsBL.isResponse(response)){
             UserLoginResponse userLoginResponse = response.getResponse().getUserResponse().getUserLogin();
-            serviceClient.setToken(userLoginResponse.getToken());
-            serviceClient.setTokenExpires(userLoginResponse.getExpires());
+            serviceClient.setToken(userLoginResponse.getToken(), userLoginResponse.getExpires());
         }
         return response;
     }
@@ -68,6 +68,35 @@ public class UserServiceClient {
         return loginAwait(username, password);
     }
 
+    /**
+     * Login with the given credentials without blocking.
+     * If the login succeeds the token will be automatically stored in the serviceClient instance before the future completes.
+     * @param username Backend username
+     * @param password Backend password
+     * @return CompletableFuture with the result of the login request.
+     */
+    public CompletableFuture<Lsbl> loginAsync(String username, String password) {
+        Lsbl cmd = createLoginRequest(username, password);
+        return serviceClient.callAsync(cmd).thenApply(response -> {
+            if(LsBL.isResponse(response)){
+                UserLoginResponse userLoginResponse = response.getResponse().getUserResponse().getUserLogin();
+                serviceClient.setToken(userLoginResponse.getToken(), userLoginResponse.getExpires());
+            }
+            return response;
+        });
+    }
+
+    /**
+     * Login with BACKEND_USERNAME and BACKEND_PASSWORD from the settings.properties file without blocking.
+     * @return CompletableFuture with the result of the login request.
+     */
+    public CompletableFuture<Lsbl> loginAsync() {
+        Properties settings = this.serviceClient.getSettings();
+        String username = settings.getProperty("BACKEND_USERNAME", "");
+        String password = settings.getProperty("BACKEND_PASSWORD", "");
+        return loginAsync(username, password);
+    }
+
     /**
      * The JWT expires, this method does a refresh and stores the new token in the serviceClient instance.
      * @param callback Callback that will receive the response.
@@ -78,8 +107,7 @@ public class UserServiceClient {
         serviceClient.call(cmd, response -> {
             if(LsBL.isResponse(response)){
                 UserTokenRefreshResponse tokenRefreshResponse = response.getResponse().getUserResponse().getUserTokenRefresh();
-                serviceClient.setToken(tokenRefreshResponse.getToken());
-                serviceClient.setTokenExpires(tokenRefreshResponse.getExpires());
+                serviceClient.setToken(tokenRefreshResponse.getToken(), tokenRefreshResponse.getExpires());
             }
             callback.onResponse(response);
         });
@@ -94,12 +122,61 @@ public class UserServiceClient {
         Lsbl response = serviceClient.callAwait(cmd);
         if(LsBL.isResponse(response)){
             UserTokenRefreshResponse tokenRefreshResponse = response.getResponse().getUserResponse().getUserTokenRefresh();
-            serviceClient.setToken(tokenRefreshResponse.getToken());
-            serviceClient.setTokenExpires(tokenRefreshResponse.getExpires());
+            serviceClient.setToken(tokenRefreshResponse.getToken(), tokenRefreshResponse.getExpires());
         }
         return response;
     }
 
+    /**
+     * The JWT expires, this method does a refresh without blocking.
+     * The new token is stored in the serviceClient instance before the future completes.
+     * @return CompletableFuture with the result of the token refresh request.
+     */
+    public CompletableFuture<Lsbl> tokenRefreshAsync() {
+        Lsbl cmd = createRefreshRequest();
+        return serviceClient.callAsync(cmd).thenApply(response -> {
+            if(LsBL.isResponse(response)){
+                UserTokenRefreshResponse tokenRefreshResponse = response.getResponse().getUserResponse().getUserTokenRefresh();
+                serviceClient.setToken(tokenRefreshResponse.getToken(), tokenRefreshResponse.getExpires());
+            }
+            return response;
+        });
+    }
+
+    /**
+     * Starts refreshing the token in the background with BACKEND_USERNAME and BACKEND_PASSWORD
+     * from the settings.properties file for a new login.
+     * The token is refreshed TOKEN_REFRESH_AHEAD_SECONDS (default 60) before it expires.
+     * @return TokenManager that can be stopped
+     */
+    public TokenManager startTokenRefresh() {
+        Properties settings = this.serviceClient.getSettings();
+        String username = settings.getProperty("BACKEND_USERNAME", "");
+        String password = settings.getProperty("BACKEND_PASSWORD", "");
+        long refreshAheadSeconds = Long.parseLong(settings.getProperty("TOKEN_REFRESH_AHEAD_SECONDS", String.valueOf(DEFAULT_REFRESH_AHEAD_SECONDS)));
+        return startTokenRefresh(username, password, refreshAheadSeconds);
+    }
+
+    /**
+     * Starts refreshing the token in the background. If there is no valid token yet, it logs in right away.
+     * The refresh is scheduled ahead of the expiry, if it fails the manager logs in again with the given credentials.
+     * Calls that are made while the token is expired wait for the new token instead of being sent with the expired one.
+     * @param username Backend username for a new login
+     * @param password Backend password for a new login
+     * @param refreshAheadSeconds Seconds before the expiry the token is refreshed
+     * @return TokenManager that can be stopped
+     */
+    public synchronized TokenManager startTokenRefresh(String username, String password, long refreshAheadSeconds) {
+        TokenManager running = serviceClient.getTokenManager();
+        if(running != null) {
+            running.stop();
+        }
+        TokenManager tokenManager = new TokenManager(serviceClient, this, username, password, refreshAheadSeconds, ServiceClient.scheduler(), ServiceClient.timerTasks());
+        serviceClient.setTokenManager(tokenManager);
+        tokenManager.start();
+        return tokenManager;
+    }
+
     private Lsbl createRefreshRequest(){
         Lsbl.Cmd cmd = new Lsbl.Cmd();
         UserCmd userCmd = new UserCmd();
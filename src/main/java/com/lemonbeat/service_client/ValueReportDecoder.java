@@ -0,0 +1,153 @@
+package com.lemonbeat.service_client;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming decoder for EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED events.
+ * Instead of unmarshalling the Lsbl envelope and the embedded LsDL document with JAXB, the decoder pulls the sgtins,
+ * the event time and the value_report attributes straight out of the message body with StAX.
+ */
+class ValueReportDecoder {
+
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = ThreadLocal.withInitial(() -> {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    });
+
+    private ValueReportDecoder() {
+    }
+
+    /**
+     * Decodes the UTF-8 encoded Lsbl event.
+     * @param body Message body, may start with a UTF-8 byte order mark
+     * @return Device value report
+     * @throws XMLStreamException if the body is no valid XML or contains no device_value_reported event
+     */
+    static DeviceValueReport decode(byte[] body) throws XMLStreamException {
+        int offset = LsblCodec.bomLength(body);
+        XMLStreamReader reader = INPUT_FACTORY.get().createXMLStreamReader(new ByteArrayInputStream(body, offset, body.length - offset));
+        try {
+            long time = 0;
+            String deviceSgtin = null;
+            String gwSgtin = null;
+            String lsdl = null;
+            boolean reported = false;
+            while(reader.hasNext()) {
+                int event = reader.next();
+                if(event == XMLStreamConstants.END_ELEMENT && reported && "device_value_reported".equals(reader.getLocalName())) {
+                    break;
+                }
+                if(event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if(!reported) {
+                    if("event".equals(name)) {
+                        time = parseLong(reader.getAttributeValue(null, "time"));
+                    } else if("device_value_reported".equals(name)) {
+                        reported = true;
+                    }
+                } else if("device_sgtin".equals(name)) {
+                    deviceSgtin = reader.getElementText();
+                } else if("gw_sgtin".equals(name)) {
+                    gwSgtin = reader.getElementText();
+                } else if("lsdl".equals(name)) {
+                    lsdl = reader.getElementText();
+                }
+            }
+            if(!reported) {
+                throw new XMLStreamException("The message contains no device_value_reported event");
+            }
+            List<DeviceValueReport.Value> values = lsdl == null ? Collections.emptyList() : decodeValues(lsdl);
+            return new DeviceValueReport(deviceSgtin, gwSgtin, time, values);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Decodes the value_report entries of a LsDL value document.
+     * @param lsdl LsDL XML
+     * @return Reported values
+     * @throws XMLStreamException if the document is no valid XML
+     */
+    static List<DeviceValueReport.Value> decodeValues(String lsdl) throws XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.get().createXMLStreamReader(new StringReader(ServiceClient.autoRemoveBom(lsdl)));
+        try {
+            List<DeviceValueReport.Value> values = new ArrayList<>();
+            while(reader.hasNext()) {
+                if(reader.next() != XMLStreamConstants.START_ELEMENT || !"value_report".equals(reader.getLocalName())) {
+                    continue;
+                }
+                String hexBinary = reader.getAttributeValue(null, "hexBinary");
+                values.add(new DeviceValueReport.Value(
+                        parseLong(reader.getAttributeValue(null, "value_id")),
+                        parseLong(reader.getAttributeValue(null, "timestamp")),
+                        parseDouble(reader.getAttributeValue(null, "number")),
+                        reader.getAttributeValue(null, "string"),
+                        hexBinary == null ? null : parseHexBinary(hexBinary)));
+            }
+            return values;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static long parseLong(String value) throws XMLStreamException {
+        if(value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid number: " + value, e);
+        }
+    }
+
+    private static Double parseDouble(String value) throws XMLStreamException {
+        if(value == null) {
+            return null;
+        }
+        String number = value.trim();
+        // xsd:double writes infinity as INF, which Double.valueOf does not accept
+        if("INF".equals(number) || "+INF".equals(number)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if("-INF".equals(number)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        try {
+            return Double.valueOf(number);
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid number: " + value, e);
+        }
+    }
+
+    private static byte[] parseHexBinary(String value) throws XMLStreamException {
+        String hex = value.trim();
+        if(hex.length() % 2 != 0) {
+            throw new XMLStreamException("Invalid hexBinary: " + value);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for(int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if(high < 0 || low < 0) {
+                throw new XMLStreamException("Invalid hexBinary: " + value);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+}
@@ -7,9 +7,15 @@ import com.lemonbeat.lsbl.lsbl_value_service.ValueDescriptionGetRequest;
 import com.lemonbeat.lsbl.lsbl_value_service.ValueGetRequest;
 import com.lemonbeat.lsbl.lsbl_value_service.ValueSetRequest;
 import com.lemonbeat.lsdl.LsDL;
+import com.lemonbeat.lsdl.value.ValueReportType;
 import com.lemonbeat.lsdl.value.ValueSetType;
 
+import javax.xml.bind.DataBindingException;
+import javax.xml.bind.JAXBException;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ServiceClient for getting and setting values on devices.
@@ -20,6 +26,7 @@ public class ValueServiceClient {
     private ServiceClient serviceClient;
 
     private static final String SERVICE_QUEUE = "SERVICE.VALUESERVICE";
+    private static final int DEFAULT_BULK_IN_FLIGHT = 64;
 
     public ValueServiceClient(ServiceClient serviceClient){
         this.serviceClient = serviceClient;
@@ -46,6 +53,66 @@ public class ValueServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Get the current value_report for the given device by SGTIN without blocking.
+     * @param deviceSgtin SGTIN of the device
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> getValuesBySgtinAsync(String deviceSgtin) {
+        Lsbl cmd = createValueGetBySgtinRequest(deviceSgtin);
+        return serviceClient.callAsync(cmd);
+    }
+
+    /**
+     * Prepare the value_get for the given device by SGTIN, e.g. for devices that are polled.
+     * Publish it with ServiceClient.call or ServiceClient.callAsync, the request is only encoded once.
+     * @param deviceSgtin SGTIN of the device
+     * @return Prepared request
+     */
+    public RequestTemplate getValuesBySgtinTemplate(String deviceSgtin) {
+        return RequestTemplate.of(createValueGetBySgtinRequest(deviceSgtin));
+    }
+
+    /**
+     * Get the current value_reports of many devices by SGTIN and block until all devices answered or timed out,
+     * see getValuesBulkAsync(Collection, int, long, TimeUnit).
+     * @param deviceSgtins SGTINs of the devices
+     * @return BulkResult with the parsed value reports per device SGTIN and the failed devices.
+     */
+    public BulkResult<List<ValueReportType>> getValuesBulk(Collection<String> deviceSgtins) {
+        return getValuesBulkAsync(deviceSgtins).join();
+    }
+
+    /**
+     * Get the current value_reports of many devices by SGTIN without blocking,
+     * see getValuesBulkAsync(Collection, int, long, TimeUnit).
+     * @param deviceSgtins SGTINs of the devices
+     * @return CompletableFuture with the parsed value reports per device SGTIN and the failed devices.
+     */
+    public CompletableFuture<BulkResult<List<ValueReportType>>> getValuesBulkAsync(Collection<String> deviceSgtins) {
+        return getValuesBulkAsync(deviceSgtins, DEFAULT_BULK_IN_FLIGHT, ServiceClient.CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the current value_reports of many devices by SGTIN without blocking.
+     * The value_get requests are pipelined over the shared reply queue. The number of requests in flight starts small,
+     * grows with every response up to maxInFlight and is halved when requests time out, so an overloaded value service
+     * is not flooded. The LsDL of every response is parsed into its value reports, a device that answers with a Nack,
+     * times out or sends an invalid LsDL is reported in the failures of the result.
+     * @param deviceSgtins SGTINs of the devices
+     * @param maxInFlight Maximum number of requests that wait for their response at the same time
+     * @param timeout Time to wait for the response of a single device
+     * @param unit Unit of the timeout
+     * @return CompletableFuture with the parsed value reports per device SGTIN and the failed devices.
+     */
+    public CompletableFuture<BulkResult<List<ValueReportType>>> getValuesBulkAsync(Collection<String> deviceSgtins, int maxInFlight,
+                                                                                 long timeout, TimeUnit unit) {
+        BulkResult<List<ValueReportType>> result = new BulkResult<>();
+        return new BulkRequest<>(serviceClient, deviceSgtins, this::createValueGetBySgtinRequest,
+                (deviceSgtin, response) -> result.result(deviceSgtin, parseValueReport(response)),
+                result, maxInFlight, true, unit.toMillis(timeout)).start();
+    }
+
     /**
      * Get the current value_report for the given device by UUID.
      * @param deviceUuid UUID of the device
@@ -66,6 +133,26 @@ public class ValueServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Get the current value_report for the given device by UUID without blocking.
+     * @param deviceUuid UUID of the device
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> getValuesByUuidAsync(String deviceUuid) {
+        Lsbl cmd = createValueGetByUuidRequest(deviceUuid);
+        return serviceClient.callAsync(cmd);
+    }
+
+    /**
+     * Prepare the value_get for the given device by UUID, e.g. for devices that are polled.
+     * Publish it with ServiceClient.call or ServiceClient.callAsync, the request is only encoded once.
+     * @param deviceUuid UUID of the device
+     * @return Prepared request
+     */
+    public RequestTemplate getValuesByUuidTemplate(String deviceUuid) {
+        return RequestTemplate.of(createValueGetByUuidRequest(deviceUuid));
+    }
+
 
     /**
      * Get the current value_description_report for the given device by SGTIN.
@@ -87,6 +174,16 @@ public class ValueServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Get the current value_description_report for the given device by SGTIN without blocking.
+     * @param deviceSgtin SGTIN of the device
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> getValueDescriptionBySgtinAsync(String deviceSgtin) {
+        Lsbl cmd = createValueDescriptionGetBySgtinRequest(deviceSgtin);
+        return serviceClient.callAsync(cmd);
+    }
+
     /**
      * Get the current value_description_report for the given device by UUID.
      * @param deviceUuid UUID of the device
@@ -107,6 +204,16 @@ public class ValueServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Get the current value_description_report for the given device by UUID without blocking.
+     * @param deviceUuid UUID of the device
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> getValueDescriptionByUuidAsync(String deviceUuid) {
+        Lsbl cmd = createValueDescriptionGetByUuidRequest(deviceUuid);
+        return serviceClient.callAsync(cmd);
+    }
+
 
     /**
      * Set values for the given device by SGTIN.
@@ -141,6 +248,16 @@ public class ValueServiceClient {
         return this.setValueBySgtinAwait(deviceSgtin, values, 0);
     }
 
+    /**
+     * Set values for the given device by SGTIN without blocking.
+     * @param deviceSgtin SGTIN of the device
+     * @param values List of values that should be set
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> setValueBySgtinAsync(String deviceSgtin, List<ValueSetType> values) {
+        return this.setValueBySgtinAsync(deviceSgtin, values, 0);
+    }
+
     /**
      * Set values for the given device by SGTIN with retries and return the response.
      * @param deviceSgtin SGTIN of the device
@@ -153,6 +270,18 @@ public class ValueServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Set values for the given device by SGTIN with retries without blocking.
+     * @param deviceSgtin SGTIN of the device
+     * @param values List of values that should be set
+     * @param retries Number of retries
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> setValueBySgtinAsync(String deviceSgtin, List<ValueSetType> values, long retries) {
+        Lsbl cmd = createValueSetBySgtin(deviceSgtin, values, retries);
+        return serviceClient.callAsync(cmd);
+    }
+
     /**
      * Set values for the given device by UUID.
      * @param deviceUuid UUID of the device
@@ -185,6 +314,16 @@ public class ValueServiceClient {
         return setValueByUuidAwait(deviceUuid, values, 0);
     }
 
+    /**
+     * Set values for the given device by UUID without blocking.
+     * @param deviceUuid UUID of the device
+     * @param values List of values that should be set
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> setValueByUuidAsync(String deviceUuid, List<ValueSetType> values) {
+        return setValueByUuidAsync(deviceUuid, values, 0);
+    }
+
     /**
      * Set values for the given device by UUID with retries and return the response.
      * @param deviceUuid UUID of the device
@@ -197,6 +336,26 @@ public class ValueServiceClient {
         return serviceClient.callAwait(cmd);
     }
 
+    /**
+     * Set values for the given device by UUID with retries without blocking.
+     * @param deviceUuid UUID of the device
+     * @param values List of values that should be set
+     * @param retries Number of retries
+     * @return CompletableFuture with the result of the request.
+     */
+    public CompletableFuture<Lsbl> setValueByUuidAsync(String deviceUuid, List<ValueSetType> values, long retries) {
+        Lsbl cmd = createValueSetByUuid(deviceUuid, values, retries);
+        return serviceClient.callAsync(cmd);
+    }
+
+    private static List<ValueReportType> parseValueReport(Lsbl response) {
+        try {
+            return LsblCodec.parseValueReport(response.getResponse().getValueResponse().getValueGet().getLsdl());
+        } catch (JAXBException e) {
+            throw new DataBindingException(e);
+        }
+    }
+
     private Lsbl createValueGetBySgtinRequest(String deviceSgtin){
         Lsbl.Cmd cmd = new Lsbl.Cmd();
         ValueCmd valueCmd = new ValueCmd();
@@ -238,7 +397,7 @@ public class ValueServiceClient {
     }
 
     private Lsbl createValueSetBySgtin(String deviceSgtin, List<ValueSetType> values, long retries){
-        String lsdl = LsDL.write(LsDL.createValueSet(values));
+        String lsdl = LsblCodec.writeValueLsdl(LsDL.createValueSet(values));
         Lsbl.Cmd cmd = new Lsbl.Cmd();
         ValueCmd valueCmd = new ValueCmd();
         ValueSetRequest valueSetRequest = new ValueSetRequest();
@@ -251,7 +410,7 @@ public class ValueServiceClient {
     }
 
     private Lsbl createValueSetByUuid(String deviceUuid, List<ValueSetType> values, long retries){
-        String lsdl = LsDL.write(LsDL.createValueSet(values));
+        String lsdl = LsblCodec.writeValueLsdl(LsDL.createValueSet(values));
         Lsbl.Cmd cmd = new Lsbl.Cmd();
         ValueCmd valueCmd = new ValueCmd();
         ValueSetRequest valueSetRequest = new ValueSetRequest();
@@ -0,0 +1,391 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsdl.value.ValueReportType;
+
+import javax.xml.bind.DataBindingException;
+import javax.xml.bind.JAXBException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latest reported value per device SGTIN and value id, fed by the EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED events.
+ * Reads are answered locally without a lock, the ValueServiceClient is only asked if a device is unknown
+ * or one of its values is older than maxAge.
+ * <p>
+ * The values of a device are kept in parallel primitive arrays instead of DeviceValueReport.Value or ValueReportType
+ * objects, a value costs about 40 bytes plus about 250 bytes per device for the SGTIN, the map entry and the arrays,
+ * e.g. about 45 MB for 100k devices with 5 values each.
+ * A report only replaces a value if it is not older than the stored one, so a late RPC response does not overwrite
+ * a newer event.
+ * <pre>
+ * ValueShadow shadow = new ValueShadow(serviceClient, 15, TimeUnit.MINUTES).start();
+ * DeviceValueReport.Value value = shadow.getValueAsync(deviceSgtin, 1).get();
+ * </pre>
+ */
+public class ValueShadow {
+
+    private static final byte NONE = 0;
+    private static final byte NUMBER = 1;
+    private static final byte STRING = 2;
+    private static final byte HEX_BINARY = 3;
+
+    private final ServiceClient serviceClient;
+    private final ValueServiceClient valueServiceClient;
+    private final long maxAgeNanos;
+    private final ConcurrentHashMap<String, DeviceValues> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<List<DeviceValueReport.Value>>> pending = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleReads = new LongAdder();
+    private final LongAdder reports = new LongAdder();
+    private Subscription subscription;
+
+    /**
+     * @param serviceClient ServiceClient that receives the value reports and sends the fallback requests
+     * @param maxAge Age after which a value is fetched from the value service again
+     * @param unit Unit of the maxAge
+     */
+    public ValueShadow(ServiceClient serviceClient, long maxAge, TimeUnit unit) {
+        this.serviceClient = serviceClient;
+        this.valueServiceClient = new ValueServiceClient(serviceClient);
+        this.maxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    /**
+     * Subscribes to the value reports with the default SubscriptionOptions.
+     * @return This instance
+     */
+    public ValueShadow start() {
+        return start(new SubscriptionOptions());
+    }
+
+    /**
+     * Subscribes to the value reports, e.g. with a higher prefetch count for large fleets.
+     * @param options Options of the subscription
+     * @return This instance
+     */
+    public synchronized ValueShadow start(SubscriptionOptions options) {
+        if(subscription == null) {
+            subscription = serviceClient.subscribeValueReports(this::update, options);
+        }
+        return this;
+    }
+
+    /**
+     * Cancels the subscription, the stored values are kept but age until they are fetched again.
+     */
+    public synchronized void close() {
+        if(subscription != null) {
+            subscription.cancel();
+            subscription = null;
+        }
+    }
+
+    /**
+     * Returns the latest value of the device from the shadow, without asking the value service.
+     * @param deviceSgtin SGTIN of the device
+     * @param valueId Id of the value
+     * @return Value or null if the value is unknown or older than maxAge
+     */
+    public DeviceValueReport.Value getValue(String deviceSgtin, long valueId) {
+        DeviceValues values = devices.get(deviceSgtin);
+        int index = values != null ? values.indexOf(valueId) : -1;
+        if(index < 0) {
+            return null;
+        }
+        if(values.isStale(index, System.nanoTime(), maxAgeNanos)) {
+            staleReads.increment();
+            return null;
+        }
+        hits.increment();
+        return values.get(index);
+    }
+
+    /**
+     * Returns the latest values of the device from the shadow, without asking the value service.
+     * @param deviceSgtin SGTIN of the device
+     * @return Values or null if the device is unknown or one of its values is older than maxAge
+     */
+    public List<DeviceValueReport.Value> getValues(String deviceSgtin) {
+        DeviceValues values = devices.get(deviceSgtin);
+        if(values == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        for(int i = 0; i < values.size(); i++) {
+            if(values.isStale(i, now, maxAgeNanos)) {
+                staleReads.increment();
+                return null;
+            }
+        }
+        hits.increment();
+        return values.toList();
+    }
+
+    /**
+     * Returns the latest value of the device from the shadow, or from the value service if the value is unknown or
+     * older than maxAge. The response of the value service updates all values of the device.
+     * @param deviceSgtin SGTIN of the device
+     * @param valueId Id of the value
+     * @return CompletableFuture with the value or null if the device has no such value,
+     *         it completes exceptionally if the value service answered with a Nack or timed out.
+     */
+    public CompletableFuture<DeviceValueReport.Value> getValueAsync(String deviceSgtin, long valueId) {
+        DeviceValueReport.Value value = getValue(deviceSgtin, valueId);
+        if(value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        return fetch(deviceSgtin).thenApply(values -> {
+            for(DeviceValueReport.Value fetched : values) {
+                if(fetched.getValueId() == valueId) {
+                    return fetched;
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns the latest values of the device from the shadow, or from the value service if the device is unknown or
+     * one of its values is older than maxAge.
+     * @param deviceSgtin SGTIN of the device
+     * @return CompletableFuture with the values,
+     *         it completes exceptionally if the value service answered with a Nack or timed out.
+     */
+    public CompletableFuture<List<DeviceValueReport.Value>> getValuesAsync(String deviceSgtin) {
+        List<DeviceValueReport.Value> values = getValues(deviceSgtin);
+        if(values != null) {
+            return CompletableFuture.completedFuture(values);
+        }
+        return fetch(deviceSgtin);
+    }
+
+    /**
+     * Requests the values of the device from the value service, concurrent requests for the same device share one call.
+     */
+    private CompletableFuture<List<DeviceValueReport.Value>> fetch(String deviceSgtin) {
+        CompletableFuture<List<DeviceValueReport.Value>> fetch = new CompletableFuture<>();
+        CompletableFuture<List<DeviceValueReport.Value>> existing = pending.putIfAbsent(deviceSgtin, fetch);
+        if(existing != null) {
+            return existing;
+        }
+        misses.increment();
+        valueServiceClient.getValuesBySgtinAsync(deviceSgtin).whenComplete((response, error) -> {
+            pending.remove(deviceSgtin, fetch);
+            try {
+                if(error != null) {
+                    throw error instanceof RuntimeException ? (RuntimeException) error : new RuntimeException(error);
+                }
+                List<DeviceValueReport.Value> values = parseValues(response);
+                update(deviceSgtin, values);
+                fetch.complete(values);
+            } catch (RuntimeException e) {
+                fetch.completeExceptionally(e);
+            }
+        });
+        return fetch;
+    }
+
+    private static List<DeviceValueReport.Value> parseValues(Lsbl response) {
+        if(response == null || !LsBL.isResponse(response)) {
+            String message = response != null && LsBL.isNack(response)
+                    ? response.getResponse().getCommonResponse().getNack().getMessage()
+                    : "undecodable response";
+            throw new IllegalStateException("The values could not be fetched: " + message);
+        }
+        List<ValueReportType> valueReports;
+        try {
+            valueReports = LsblCodec.parseValueReport(response.getResponse().getValueResponse().getValueGet().getLsdl());
+        } catch (JAXBException e) {
+            throw new DataBindingException(e);
+        }
+        List<DeviceValueReport.Value> values = new ArrayList<>(valueReports.size());
+        for(ValueReportType valueReport : valueReports) {
+            values.add(new DeviceValueReport.Value(
+                    valueReport.getValueId() != null ? valueReport.getValueId() : 0,
+                    valueReport.getTimestamp() != null ? valueReport.getTimestamp().longValue() : 0,
+                    valueReport.getNumber(), valueReport.getString(), valueReport.getHexBinary()));
+        }
+        return values;
+    }
+
+    void update(DeviceValueReport report) {
+        if(report == null || report.getDeviceSgtin() == null) {
+            return;
+        }
+        reports.increment();
+        update(report.getDeviceSgtin(), report.getValues());
+    }
+
+    private void update(String deviceSgtin, List<DeviceValueReport.Value> values) {
+        long now = System.nanoTime();
+        devices.compute(deviceSgtin, (sgtin, current) -> DeviceValues.merge(current, values, now));
+    }
+
+    /**
+     * Removes the values of the device, e.g. when it was excluded.
+     * @param deviceSgtin SGTIN of the device
+     */
+    public void remove(String deviceSgtin) {
+        devices.remove(deviceSgtin);
+    }
+
+    /**
+     * Returns the number of devices in the shadow.
+     * @return Number of devices
+     */
+    public int getDeviceCount() {
+        return devices.size();
+    }
+
+    /**
+     * Returns the number of reads that were answered from the shadow.
+     * @return Number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of requests to the value service because a value was unknown or stale.
+     * @return Number of fallback requests
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of reads that found a value older than maxAge.
+     * @return Number of stale reads
+     */
+    public long getStaleCount() {
+        return staleReads.sum();
+    }
+
+    /**
+     * Returns the number of value reports received from the subscription.
+     * @return Number of value reports
+     */
+    public long getReportCount() {
+        return reports.sum();
+    }
+
+    /**
+     * Values of one device. The instances are immutable, an update creates new arrays and replaces the map entry,
+     * so readers never see a partially updated device.
+     */
+    private static final class DeviceValues {
+
+        private final long[] valueIds;
+        private final long[] timestamps;
+        private final long[] received;
+        private final double[] numbers;
+        private final byte[] types;
+        private final Object[] objects;
+
+        private DeviceValues(int size) {
+            valueIds = new long[size];
+            timestamps = new long[size];
+            received = new long[size];
+            numbers = new double[size];
+            types = new byte[size];
+            objects = new Object[size];
+        }
+
+        private DeviceValues(DeviceValues current, int size) {
+            valueIds = Arrays.copyOf(current.valueIds, size);
+            timestamps = Arrays.copyOf(current.timestamps, size);
+            received = Arrays.copyOf(current.received, size);
+            numbers = Arrays.copyOf(current.numbers, size);
+            types = Arrays.copyOf(current.types, size);
+            objects = Arrays.copyOf(current.objects, size);
+        }
+
+        static DeviceValues merge(DeviceValues current, List<DeviceValueReport.Value> values, long now) {
+            int added = 0;
+            for(DeviceValueReport.Value value : values) {
+                if(current == null || current.indexOf(value.getValueId()) < 0) {
+                    added++;
+                }
+            }
+            int size = current != null ? current.size() : 0;
+            DeviceValues merged = current != null ? new DeviceValues(current, size + added) : new DeviceValues(added);
+            for(DeviceValueReport.Value value : values) {
+                int index = merged.indexOf(value.getValueId(), size);
+                if(index < 0) {
+                    index = size++;
+                } else if(value.getTimestamp() != 0 && merged.timestamps[index] > value.getTimestamp()) {
+                    // A newer report was stored already
+                    continue;
+                }
+                merged.set(index, value, now);
+            }
+            // A value id that is reported twice only takes one slot
+            return size < merged.size() ? new DeviceValues(merged, size) : merged;
+        }
+
+        private void set(int index, DeviceValueReport.Value value, long now) {
+            valueIds[index] = value.getValueId();
+            timestamps[index] = value.getTimestamp();
+            received[index] = now;
+            numbers[index] = 0;
+            objects[index] = null;
+            if(value.getNumber() != null) {
+                types[index] = NUMBER;
+                numbers[index] = value.getNumber();
+            } else if(value.getString() != null) {
+                types[index] = STRING;
+                objects[index] = value.getString();
+            } else if(value.getHexBinary() != null) {
+                types[index] = HEX_BINARY;
+                objects[index] = value.getHexBinary();
+            } else {
+                types[index] = NONE;
+            }
+        }
+
+        int size() {
+            return valueIds.length;
+        }
+
+        int indexOf(long valueId) {
+            return indexOf(valueId, valueIds.length);
+        }
+
+        private int indexOf(long valueId, int size) {
+            for(int i = 0; i < size; i++) {
+                if(valueIds[i] == valueId) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        boolean isStale(int index, long now, long maxAgeNanos) {
+            return now - received[index] > maxAgeNanos;
+        }
+
+        DeviceValueReport.Value get(int index) {
+            return new DeviceValueReport.Value(valueIds[index], timestamps[index],
+                    types[index] == NUMBER ? numbers[index] : null,
+                    types[index] == STRING ? (String) objects[index] : null,
+                    types[index] == HEX_BINARY ? (byte[]) objects[index] : null);
+        }
+
+        List<DeviceValueReport.Value> toList() {
+            List<DeviceValueReport.Value> values = new ArrayList<>(size());
+            for(int i = 0; i < size(); i++) {
+                values.add(get(i));
+            }
+            return values;
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.lemonbeat.service_client;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21 and newer while the library itself is compiled for Java 11.
+ * The Thread.ofVirtual builder is looked up once by reflection, on older runtimes isSupported returns false.
+ * <pre>
+ * if(VirtualThreads.isSupported()) {
+ *     serviceClient.setVirtualThreads(true);
+ *     VirtualThreads.executor().execute(() -&gt; valueServiceClient.getValuesBySgtinAwait(deviceSgtin));
+ * }
+ * </pre>
+ */
+public final class VirtualThreads {
+
+    private static final ThreadFactory FACTORY = createFactory("service-client-virtual-");
+    private static final Method IS_VIRTUAL = findIsVirtual();
+    private static final Executor EXECUTOR = FACTORY == null ? null : runnable -> FACTORY.newThread(runnable).start();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Returns true if the runtime supports virtual threads, i.e. Java 21 or newer.
+     * @return True if virtual threads are available
+     */
+    public static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread per task. It has no pool and needs no shutdown.
+     * @return Executor that runs each task on its own virtual thread
+     * @throws UnsupportedOperationException if the runtime does not support virtual threads
+     */
+    public static Executor executor() {
+        if(EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer, running on " + System.getProperty("java.version"));
+        }
+        return EXECUTOR;
+    }
+
+    /**
+     * Returns true if the given thread is a virtual thread.
+     * @param thread Thread to check
+     * @return True if the thread is virtual, always false before Java 21
+     */
+    public static boolean isVirtual(Thread thread) {
+        if(IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates the factory of Thread.ofVirtual().name(prefix, 0).factory() or returns null before Java 21.
+     */
+    private static ThreadFactory createFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Thread.ofVirtual is a preview API on Java 19 and 20 and missing before
+            return null;
+        }
+    }
+
+    private static Method findIsVirtual() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.lemonbeat.service_client;
+
+import com.rabbitmq.client.Channel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class AckTrackerTest {
+
+    private final List<Long> acks = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void cleanup() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private Channel recordingChannel() {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class[]{Channel.class}, (proxy, method, args) -> {
+            if(method.getName().equals("basicAck")) {
+                assertTrue((Boolean) args[1]);
+                acks.add((Long) args[0]);
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void acknowledgesFullBatches() {
+        AckTracker ackTracker = new AckTracker(recordingChannel(), 3, 60000, scheduler, executor);
+        for(long deliveryTag = 1; deliveryTag <= 7; deliveryTag++) {
+            ackTracker.complete(deliveryTag);
+        }
+        assertEquals(List.of(3L, 6L), acks);
+        ackTracker.flush();
+        assertEquals(List.of(3L, 6L, 7L), acks);
+    }
+
+    @Test
+    public void acknowledgesOnlyTheContiguousRange() {
+        AckTracker ackTracker = new AckTracker(recordingChannel(), 2, 60000, scheduler, executor);
+        ackTracker.complete(2);
+        ackTracker.complete(3);
+        ackTracker.complete(4);
+        assertTrue(acks.isEmpty());
+        ackTracker.complete(1);
+        assertEquals(List.of(4L), acks);
+        ackTracker.complete(6);
+        ackTracker.flush();
+        assertEquals(List.of(4L), acks);
+        ackTracker.complete(5);
+        assertEquals(List.of(4L, 6L), acks);
+    }
+
+    @Test
+    public void waitsForTheFirstDelivery() {
+        AckTracker ackTracker = new AckTracker(recordingChannel(), 2, 60000, scheduler, executor);
+        ackTracker.complete(2);
+        ackTracker.complete(3);
+        ackTracker.flush();
+        assertTrue(acks.isEmpty());
+        ackTracker.complete(1);
+        assertEquals(List.of(3L), acks);
+    }
+
+    @Test
+    public void acknowledgesAfterTheBatchTimeout() throws Exception {
+        AckTracker ackTracker = new AckTracker(recordingChannel(), 100, 50, scheduler, executor);
+        ackTracker.complete(1);
+        ackTracker.complete(2);
+        TestHelper.await(() -> !acks.isEmpty());
+        assertEquals(List.of(2L), acks);
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.lemonbeat.service_client;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AmqpMetricsCollectorTest {
+
+    private static Channel channel(int channelNumber) {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class[]{Channel.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getChannelNumber":
+                    return channelNumber;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        });
+    }
+
+    @Test
+    public void countsPerChannelAndConsumer() {
+        AmqpMetricsCollector metricsCollector = new AmqpMetricsCollector();
+        Channel publisher = channel(1);
+        Channel consumer = channel(2);
+        metricsCollector.newChannel(publisher);
+        metricsCollector.newChannel(consumer);
+        metricsCollector.basicConsume(consumer, "ctag-1", false);
+        for(int i = 1; i <= 5; i++) {
+            metricsCollector.basicPublish(publisher);
+            metricsCollector.consumedMessage(consumer, i, "ctag-1");
+        }
+        metricsCollector.basicAck(consumer, 5, true);
+
+        AmqpMetricsCollector.Snapshot snapshot = metricsCollector.snapshot();
+        assertEquals(2, snapshot.getChannels());
+        assertEquals(5, snapshot.getPublished());
+        assertEquals(5, snapshot.getConsumed());
+        assertEquals(1, snapshot.getAcks());
+        assertEquals(2, snapshot.getChannelSnapshots().size());
+        for(AmqpMetricsCollector.ChannelSnapshot channelSnapshot : snapshot.getChannelSnapshots()) {
+            if(channelSnapshot.getChannelNumber() == 1) {
+                assertEquals(5, channelSnapshot.getPublished());
+                assertEquals(0, channelSnapshot.getConsumed());
+            } else {
+                assertEquals(5, channelSnapshot.getConsumed());
+                assertEquals(1, channelSnapshot.getAcks());
+            }
+        }
+        assertEquals(1, snapshot.getConsumerSnapshots().size());
+        assertEquals("ctag-1", snapshot.getConsumerSnapshots().get(0).getConsumerTag());
+        assertEquals(2, snapshot.getConsumerSnapshots().get(0).getChannelNumber());
+        assertEquals(5, snapshot.getConsumerSnapshots().get(0).getConsumed());
+    }
+
+    @Test
+    public void closedChannelsAndCancelledConsumersAreRemoved() throws Exception {
+        AmqpMetricsCollector metricsCollector = new AmqpMetricsCollector();
+        Connection connection = new InMemoryBroker().newConnection();
+        metricsCollector.newConnection(connection);
+        Channel channel = connection.createChannel();
+        metricsCollector.newChannel(channel);
+        metricsCollector.basicConsume(channel, "ctag-1", true);
+        metricsCollector.basicConsume(channel, "ctag-2", true);
+        metricsCollector.basicCancel(channel, "ctag-1");
+        assertEquals(1, metricsCollector.snapshot().getConsumerSnapshots().size());
+
+        // The RabbitMQ client does not call closeChannel, the collector learns about the close from the channel
+        channel.close();
+        metricsCollector.basicAck(channel, 1, false);
+        AmqpMetricsCollector.Snapshot snapshot = metricsCollector.snapshot();
+        assertEquals(0, snapshot.getChannels());
+        assertTrue(snapshot.getChannelSnapshots().isEmpty());
+        assertTrue(snapshot.getConsumerSnapshots().isEmpty());
+        assertEquals(1, snapshot.getAcks());
+        assertEquals(1, snapshot.getConnections());
+
+        connection.close();
+        assertEquals(0, metricsCollector.snapshot().getConnections());
+    }
+
+    @Test
+    public void ratesSinceThePreviousSnapshot() throws InterruptedException {
+        AmqpMetricsCollector metricsCollector = new AmqpMetricsCollector();
+        Channel channel = channel(1);
+        metricsCollector.newChannel(channel);
+        metricsCollector.snapshot();
+        for(int i = 0; i < 100; i++) {
+            metricsCollector.basicPublish(channel);
+        }
+        Thread.sleep(100);
+        AmqpMetricsCollector.Snapshot snapshot = metricsCollector.snapshot();
+        assertTrue(snapshot.getPublishRate() > 0);
+        assertTrue(snapshot.getPublishRate() <= 1000);
+        assertEquals(0, snapshot.getConsumeRate(), 0);
+        assertEquals(0, metricsCollector.snapshot().getPublishRate(), 0);
+    }
+
+    @Test
+    public void countsFromSeveralThreads() throws InterruptedException {
+        AmqpMetricsCollector metricsCollector = new AmqpMetricsCollector();
+        Channel channel = channel(1);
+        metricsCollector.newChannel(channel);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for(int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                for(int i = 0; i < 100000; i++) {
+                    metricsCollector.basicPublish(channel);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(400000, metricsCollector.snapshot().getPublished());
+        assertEquals(400000, metricsCollector.snapshot().getChannelSnapshots().get(0).getPublished());
+    }
+
+}
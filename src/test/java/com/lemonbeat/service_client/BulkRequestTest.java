@@ -0,0 +1,287 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsbl.lsbl.MessageType;
+import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataAttribute;
+import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataReport;
+import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataResponse;
+import com.lemonbeat.lsbl.lsbl_topo_service.GwDeviceListGetResponse;
+import com.lemonbeat.lsbl.lsbl_value_service.ValueCmd;
+import com.lemonbeat.lsbl.lsbl_value_service.ValueGetRequest;
+import com.lemonbeat.lsdl.value.ValueReportType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the bulk requests of the service clients against the InMemoryBroker and the simulated services.
+ */
+public class BulkRequestTest {
+
+    InMemoryBroker broker;
+    ServiceResponders services;
+    ServiceClient serviceClient;
+
+    @Before
+    public void setup() throws IOException {
+        broker = new InMemoryBroker();
+        services = new ServiceResponders(broker.newConnection()).start();
+        serviceClient = new ServiceClient(broker.newConnection());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        services.close();
+        serviceClient.getConnection().close();
+    }
+
+    private static List<String> randomSgtins(int count) {
+        List<String> sgtins = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            sgtins.add(TestHelper.randomSgtin());
+        }
+        return sgtins;
+    }
+
+    private static Lsbl valueGetRequest(String deviceSgtin) {
+        Lsbl.Cmd cmd = new Lsbl.Cmd();
+        ValueCmd valueCmd = new ValueCmd();
+        ValueGetRequest valueGetRequest = new ValueGetRequest();
+        valueGetRequest.setDeviceSgtin(deviceSgtin);
+        valueCmd.setValueGet(valueGetRequest);
+        cmd.setValueCmd(valueCmd);
+        return LsBL.createCmd(cmd, "SERVICE.VALUESERVICE", null);
+    }
+
+    @Test
+    public void getAllDeviceLists() throws Exception {
+        Map<String, GwDeviceListGetResponse> deviceLists = new ConcurrentHashMap<>();
+
+        BulkReport report = new TopoServiceClient(serviceClient).getAllDeviceLists(2, deviceLists::put).get(10, TimeUnit.SECONDS);
+
+        assertTrue(report.isSuccess());
+        assertEquals(3, report.getRequestCount());
+        assertEquals(3, report.getSuccessCount());
+        assertEquals(3, deviceLists.size());
+        for(GwDeviceListGetResponse deviceList : deviceLists.values()) {
+            assertEquals(3, deviceList.getDeviceList().getLsdl().size());
+        }
+    }
+
+    @Test
+    public void getAllDeviceListsReportsNacksPerGateway() throws Exception {
+        List<String> gateways = randomSgtins(10);
+        List<String> failing = Arrays.asList(gateways.get(2), gateways.get(7));
+        services.respond("SERVICE.TOPOSERVICE", request -> failing.contains(request.getCmd().getTopoCmd().getGwDeviceListGet().getGwSgtin())
+                ? TestHelper.createNack("Gateway offline", null, "gw_offline")
+                : ServiceResponders.defaultResponse(request));
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+        BulkReport report = new TopoServiceClient(serviceClient).getAllDeviceLists(gateways, 4, (gatewaySgtin, deviceList) -> received.add(gatewaySgtin))
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(10, report.getRequestCount());
+        assertEquals(8, report.getSuccessCount());
+        assertEquals(2, report.getFailureCount());
+        assertEquals(0, report.getTimeoutCount());
+        assertEquals(failing.size(), report.getFailures().size());
+        for(String gateway : failing) {
+            BulkReport.Failure failure = report.getFailures().get(gateway);
+            assertEquals(ClientMetrics.CallResult.NACK, failure.getResult());
+            assertEquals("gw_offline", failure.getErrorCode());
+            assertFalse(received.contains(gateway));
+        }
+        assertEquals(8, received.size());
+    }
+
+    @Test
+    public void getAllDeviceListsReportsTimeoutsPerGateway() throws Exception {
+        List<String> gateways = randomSgtins(5);
+        String silent = gateways.get(0);
+        services.respond("SERVICE.TOPOSERVICE", request -> silent.equals(request.getCmd().getTopoCmd().getGwDeviceListGet().getGwSgtin())
+                ? null
+                : ServiceResponders.defaultResponse(request));
+        AtomicInteger received = new AtomicInteger();
+
+        BulkReport report = new TopoServiceClient(serviceClient)
+                .getAllDeviceLists(gateways, 2, 200, TimeUnit.MILLISECONDS, (gatewaySgtin, deviceList) -> received.incrementAndGet())
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(4, report.getSuccessCount());
+        assertEquals(4, received.get());
+        assertEquals(1, report.getTimeoutCount());
+        assertTrue(report.getFailures().get(silent).isTimeout());
+    }
+
+    @Test
+    public void getAllDeviceListsLimitsRequestsInFlight() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        serviceClient.setMetrics(new ClientMetrics() {
+            @Override
+            public void callStarted(String target) {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            }
+
+            @Override
+            public void callCompleted(String target, long durationNanos, CallResult result) {
+                inFlight.decrementAndGet();
+            }
+        });
+
+        BulkReport report = new TopoServiceClient(serviceClient).getAllDeviceLists(randomSgtins(200), 8, (gatewaySgtin, deviceList) -> {})
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(200, report.getSuccessCount());
+        assertTrue(maxInFlight.get() <= 8);
+        assertEquals(0, inFlight.get());
+    }
+
+    @Test
+    public void emptyBulkRequestCompletesImmediately() throws Exception {
+        BulkReport report = new TopoServiceClient(serviceClient).getAllDeviceLists(Collections.emptyList(), 4, (gatewaySgtin, deviceList) -> fail())
+                .get(1, TimeUnit.SECONDS);
+
+        assertTrue(report.isSuccess());
+        assertEquals(0, report.getRequestCount());
+    }
+
+    @Test
+    public void getValuesBulk() {
+        List<String> devices = randomSgtins(100);
+        String invalid = devices.get(10);
+        String nack = devices.get(20);
+        services.respond("SERVICE.VALUESERVICE", request -> {
+            String sgtin = request.getCmd().getValueCmd().getValueGet().getDeviceSgtin();
+            if(nack.equals(sgtin)) {
+                return TestHelper.createNack("Unknown device");
+            }
+            Lsbl response = ServiceResponders.defaultResponse(request);
+            if(invalid.equals(sgtin)) {
+                response.getResponse().getValueResponse().getValueGet().setLsdl("<network");
+            }
+            return response;
+        });
+
+        BulkResult<List<ValueReportType>> result = new ValueServiceClient(serviceClient).getValuesBulk(devices);
+
+        assertEquals(100, result.getRequestCount());
+        assertEquals(98, result.getSuccessCount());
+        assertEquals(98, result.getResults().size());
+        for(List<ValueReportType> valueReports : result.getResults().values()) {
+            assertEquals(1, valueReports.size());
+            assertEquals(1L, (long) valueReports.get(0).getValueId());
+        }
+        assertEquals(ClientMetrics.CallResult.NACK, result.getFailures().get(nack).getResult());
+        assertEquals(ClientMetrics.CallResult.ERROR, result.getFailures().get(invalid).getResult());
+        assertNotNull(result.getFailures().get(invalid).getError());
+    }
+
+    @Test
+    public void adaptiveWindowGrowsWithResponses() {
+        BulkRequest<BulkReport> request = new BulkRequest<>(serviceClient, randomSgtins(300), BulkRequestTest::valueGetRequest,
+                (sgtin, response) -> {}, new BulkReport(), 16, true, 10000);
+        assertEquals(BulkRequest.INITIAL_ADAPTIVE_IN_FLIGHT, request.getWindow());
+
+        BulkReport report = request.start().join();
+
+        assertEquals(300, report.getSuccessCount());
+        assertEquals(16, request.getWindow());
+    }
+
+    @Test
+    public void adaptiveWindowShrinksOnTimeouts() {
+        services.respond("SERVICE.VALUESERVICE", request -> null);
+        BulkRequest<BulkReport> request = new BulkRequest<>(serviceClient, randomSgtins(20), BulkRequestTest::valueGetRequest,
+                (sgtin, response) -> {}, new BulkReport(), 16, true, 50);
+
+        BulkReport report = request.start().join();
+
+        assertEquals(20, report.getTimeoutCount());
+        assertEquals(1, request.getWindow());
+    }
+
+    @Test
+    public void setMetadataBulkRetriesTimeouts() {
+        Map<String, List<MetadataAttribute>> attributesBySgtin = new HashMap<>();
+        for(String sgtin : randomSgtins(50)) {
+            attributesBySgtin.put(sgtin, Collections.singletonList(TestHelper.createMetadataAttribute("location", sgtin)));
+        }
+        Set<String> dropped = ConcurrentHashMap.newKeySet();
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        services.respond("SERVICE.METADATASERVICE", request -> {
+            String sgtin = request.getCmd().getMetadataCmd().getMetadataSet().getSgtin();
+            received.add(request.getCmd().getMetadataCmd().getMetadataSet().getAttribute().get(0).getValue());
+            // Every fifth device loses its first request
+            return sgtin.hashCode() % 5 == 0 && dropped.add(sgtin) ? null : ServiceResponders.defaultResponse(request);
+        });
+
+        BulkReport report = new MetadataServiceClient(serviceClient)
+                .setMetadataBulkAsync(attributesBySgtin, 8, 2, 100, TimeUnit.MILLISECONDS).join();
+
+        assertTrue(report.isSuccess());
+        assertEquals(50, report.getSuccessCount());
+        assertEquals(dropped.size(), report.getRetryCount());
+        assertEquals(50 + dropped.size(), received.size());
+        assertTrue(received.containsAll(attributesBySgtin.keySet()));
+    }
+
+    @Test
+    public void setMetadataBulkGivesUpAfterTheRetries() {
+        String sgtin = TestHelper.randomSgtin();
+        services.respond("SERVICE.METADATASERVICE", request -> null);
+
+        BulkReport report = new MetadataServiceClient(serviceClient)
+                .setMetadataBulkAsync(Collections.singletonMap(sgtin, Collections.emptyList()), 8, 2, 50, TimeUnit.MILLISECONDS).join();
+
+        assertEquals(1, report.getTimeoutCount());
+        assertEquals(2, report.getRetryCount());
+        assertEquals(3, services.getRequestCount());
+        assertTrue(report.getFailures().get(sgtin).isTimeout());
+    }
+
+    @Test
+    public void getMetadataBulk() {
+        List<String> sgtins = randomSgtins(20);
+        services.respond("SERVICE.METADATASERVICE", request -> {
+            MetadataReport metadataReport = new MetadataReport();
+            metadataReport.setSgtin(request.getCmd().getMetadataCmd().getMetadataGet().getSgtin());
+            metadataReport.getAttribute().add(TestHelper.createMetadataAttribute("location", metadataReport.getSgtin()));
+            MetadataResponse metadataResponse = new MetadataResponse();
+            metadataResponse.setMetadataReport(metadataReport);
+            Lsbl response = LsBL.create(null, null, 0, MessageType.LSBL_RESPONSE);
+            response.setResponse(new Lsbl.Response());
+            response.getResponse().setMetadataResponse(metadataResponse);
+            return response;
+        });
+
+        BulkResult<List<MetadataAttribute>> result = new MetadataServiceClient(serviceClient).getMetadataBulk(sgtins);
+
+        assertTrue(result.isSuccess());
+        assertEquals(20, result.getResults().size());
+        for(String sgtin : sgtins) {
+            assertEquals(sgtin, result.getResults().get(sgtin).get(0).getValue());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxInFlightMustBePositive() {
+        new TopoServiceClient(serviceClient).getAllDeviceLists(randomSgtins(1), 0, (gatewaySgtin, deviceList) -> {});
+    }
+
+}
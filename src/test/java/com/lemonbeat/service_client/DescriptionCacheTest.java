@@ -0,0 +1,195 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsbl.lsbl.MessageType;
+import com.lemonbeat.lsbl.lsbl_topo_service.DeviceDescriptionGetResponse;
+import com.lemonbeat.lsbl.lsbl_topo_service.DeviceExcludedEvent;
+import com.lemonbeat.lsbl.lsbl_topo_service.TopoEvent;
+import com.lemonbeat.lsbl.lsbl_topo_service.TopoResponse;
+import com.lemonbeat.lsdl.device_description.InfoType;
+import com.lemonbeat.lsdl.value_description.ValueDescriptionType;
+import com.rabbitmq.client.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the DescriptionCache against the InMemoryBroker and the simulated services.
+ */
+public class DescriptionCacheTest {
+
+    InMemoryBroker broker;
+    ServiceResponders services;
+    ServiceClient serviceClient;
+    TopoServiceClient topoServiceClient;
+    AtomicInteger descriptionRequests = new AtomicInteger();
+
+    @Before
+    public void setup() throws IOException {
+        broker = new InMemoryBroker();
+        services = new ServiceResponders(broker.newConnection()).start();
+        services.respond("SERVICE.TOPOSERVICE", request -> {
+            descriptionRequests.incrementAndGet();
+            return createDeviceDescriptionResponse(request.getCmd().getTopoCmd().getDeviceDescriptionGet().getDeviceSgtin());
+        });
+        serviceClient = new ServiceClient(broker.newConnection());
+        topoServiceClient = new TopoServiceClient(serviceClient);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if(topoServiceClient.getDescriptionCache() != null) {
+            topoServiceClient.getDescriptionCache().close();
+        }
+        services.close();
+        serviceClient.getConnection().close();
+    }
+
+    private static Lsbl createDeviceDescriptionResponse(String deviceSgtin) {
+        DeviceDescriptionGetResponse deviceDescriptionGet = new DeviceDescriptionGetResponse();
+        deviceDescriptionGet.setLsdl(TestHelper.createDeviceDescriptionReport(deviceSgtin, TestHelper.randomMac()));
+        TopoResponse topoResponse = new TopoResponse();
+        topoResponse.setDeviceDescriptionGet(deviceDescriptionGet);
+        Lsbl lsbl = LsBL.create(null, null, 0, MessageType.LSBL_RESPONSE);
+        lsbl.setResponse(new Lsbl.Response());
+        lsbl.getResponse().setTopoResponse(topoResponse);
+        return lsbl;
+    }
+
+    private void publishDeviceExcluded(String deviceSgtin) throws IOException {
+        Lsbl lsbl = LsBL.create("SERVICE.TOPOSERVICE", "EVENT.APP.TOPOSERVICE.DEVICE_EXCLUDED", 42, MessageType.LSBL_EVENT);
+        DeviceExcludedEvent deviceExcluded = new DeviceExcludedEvent();
+        deviceExcluded.setDeviceSgtin(deviceSgtin);
+        TopoEvent topoEvent = new TopoEvent();
+        topoEvent.setDeviceExcluded(deviceExcluded);
+        Lsbl.Event event = new Lsbl.Event();
+        event.setName("DEVICE_EXCLUDED");
+        event.setTopoEvent(topoEvent);
+        lsbl.setEvent(event);
+        Channel channel = broker.newConnection().createChannel();
+        channel.basicPublish("EVENT.APP", "EVENT.APP.TOPOSERVICE.DEVICE_EXCLUDED", null, LsblCodec.encode(lsbl));
+    }
+
+    @Test
+    public void cachesDeviceDescriptions() throws Exception {
+        DescriptionCache cache = topoServiceClient.enableDescriptionCache(100, 1, TimeUnit.HOURS);
+        String sgtin = TestHelper.randomSgtin();
+
+        List<InfoType> first = cache.getDeviceDescription(sgtin).get(10, TimeUnit.SECONDS);
+        List<InfoType> second = cache.getDeviceDescription(sgtin).get(10, TimeUnit.SECONDS);
+
+        assertFalse(first.isEmpty());
+        assertSame(first, second);
+        assertEquals(1, descriptionRequests.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneFetch() throws Exception {
+        DescriptionCache cache = topoServiceClient.enableDescriptionCache(100, 1, TimeUnit.HOURS);
+        String sgtin = TestHelper.randomSgtin();
+
+        CompletableFuture<List<InfoType>> first = cache.getDeviceDescription(sgtin);
+        CompletableFuture<List<InfoType>> second = cache.getDeviceDescription(sgtin);
+
+        assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, descriptionRequests.get());
+    }
+
+    @Test
+    public void cachesValueDescriptions() throws Exception {
+        AtomicInteger valueDescriptionRequests = new AtomicInteger();
+        services.respond("SERVICE.VALUESERVICE", request -> {
+            valueDescriptionRequests.incrementAndGet();
+            return ValueServiceClientTest.createValueDescriptionGetResponse(request.getCmd().getValueCmd().getValueDescriptionGet().getDeviceSgtin());
+        });
+        DescriptionCache cache = topoServiceClient.enableDescriptionCache(100, 1, TimeUnit.HOURS);
+        String sgtin = TestHelper.randomSgtin();
+
+        List<ValueDescriptionType> first = cache.getValueDescription(sgtin).get(10, TimeUnit.SECONDS);
+        List<ValueDescriptionType> second = cache.getValueDescription(sgtin).get(10, TimeUnit.SECONDS);
+
+        assertFalse(first.isEmpty());
+        assertSame(first, second);
+        assertEquals(1, valueDescriptionRequests.get());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedDevice() throws Exception {
+        DescriptionCache cache = topoServiceClient.enableDescriptionCache(2, 1, TimeUnit.HOURS);
+        String a = TestHelper.randomSgtin();
+        String b = TestHelper.randomSgtin();
+        String c = TestHelper.randomSgtin();
+
+        cache.getDeviceDescription(a).get(10, TimeUnit.SECONDS);
+        cache.getDeviceDescription(b).get(10, TimeUnit.SECONDS);
+        cache.getDeviceDescription(a).get(10, TimeUnit.SECONDS);
+        cache.getDeviceDescription(c).get(10, TimeUnit.SECONDS);
+        cache.getDeviceDescription(a).get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getDeviceDescriptionCount());
+        assertEquals(3, descriptionRequests.get());
+
+        cache.getDeviceDescription(b).get(10, TimeUnit.SECONDS);
+        assertEquals(4, descriptionRequests.get());
+    }
+
+    @Test
+    public void fetchesExpiredDescriptionsAgain() throws Exception {
+        DescriptionCache cache = topoServiceClient.enableDescriptionCache(100, 50, TimeUnit.MILLISECONDS);
+        String sgtin = TestHelper.randomSgtin();
+
+        cache.getDeviceDescription(sgtin).get(10, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        cache.getDeviceDescription(sgtin).get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, descriptionRequests.get());
+    }
+
+    @Test
+    public void topoEventsInvalidateTheDevice() throws Exception {
+        DescriptionCache cache = topoServiceClient.enableDescriptionCache(100, 1, TimeUnit.HOURS);
+        String excluded = TestHelper.randomSgtin();
+        String other = TestHelper.randomSgtin();
+        cache.getDeviceDescription(excluded).get(10, TimeUnit.SECONDS);
+        cache.getDeviceDescription(other).get(10, TimeUnit.SECONDS);
+
+        publishDeviceExcluded(excluded);
+        TestHelper.await(() -> cache.getInvalidationCount() > 0);
+        assertEquals(1, cache.getInvalidationCount());
+        cache.getDeviceDescription(excluded).get(10, TimeUnit.SECONDS);
+        cache.getDeviceDescription(other).get(10, TimeUnit.SECONDS);
+        assertEquals(3, descriptionRequests.get());
+    }
+
+    @Test
+    public void nacksAreNotCached() throws Exception {
+        services.respond("SERVICE.TOPOSERVICE", request -> descriptionRequests.incrementAndGet() == 1
+                ? TestHelper.createNack("Device unknown")
+                : createDeviceDescriptionResponse(request.getCmd().getTopoCmd().getDeviceDescriptionGet().getDeviceSgtin()));
+        DescriptionCache cache = topoServiceClient.enableDescriptionCache(100, 1, TimeUnit.HOURS);
+        String sgtin = TestHelper.randomSgtin();
+
+        try {
+            cache.getDeviceDescription(sgtin).join();
+            fail("The Nack should complete the future exceptionally");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause().getMessage().contains("Device unknown"));
+        }
+        assertFalse(cache.getDeviceDescription(sgtin).get(10, TimeUnit.SECONDS).isEmpty());
+        assertEquals(2, descriptionRequests.get());
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsbl.lsbl.MessageType;
+import com.lemonbeat.lsbl.lsbl_topo_service.DeviceExcludedEvent;
+import com.lemonbeat.lsbl.lsbl_topo_service.DeviceIncludedEvent;
+import com.lemonbeat.lsbl.lsbl_topo_service.TopoEvent;
+import com.rabbitmq.client.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs subscriptions of several events on one queue against the InMemoryBroker.
+ */
+public class EventHandlersTest {
+
+    InMemoryBroker broker;
+    ServiceClient serviceClient;
+    Channel channel;
+
+    @Before
+    public void setup() throws IOException {
+        broker = new InMemoryBroker();
+        serviceClient = new ServiceClient(broker.newConnection());
+        channel = broker.newConnection().createChannel();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        serviceClient.getConnection().close();
+    }
+
+    private void publishTopoEvent(String name, TopoEvent topoEvent) throws IOException {
+        String eventName = "EVENT.APP.TOPOSERVICE." + name;
+        Lsbl lsbl = LsBL.create("SERVICE.TOPOSERVICE", eventName, 42, MessageType.LSBL_EVENT);
+        Lsbl.Event event = new Lsbl.Event();
+        event.setName(name);
+        event.setTopoEvent(topoEvent);
+        lsbl.setEvent(event);
+        channel.basicPublish("EVENT.APP", eventName, null, LsblCodec.encode(lsbl));
+    }
+
+    private void publishDeviceIncluded(String deviceSgtin) throws IOException {
+        DeviceIncludedEvent deviceIncluded = new DeviceIncludedEvent();
+        deviceIncluded.setDeviceSgtin(deviceSgtin);
+        TopoEvent topoEvent = new TopoEvent();
+        topoEvent.setDeviceIncluded(deviceIncluded);
+        publishTopoEvent("DEVICE_INCLUDED", topoEvent);
+    }
+
+    private void publishDeviceExcluded(String deviceSgtin) throws IOException {
+        DeviceExcludedEvent deviceExcluded = new DeviceExcludedEvent();
+        deviceExcluded.setDeviceSgtin(deviceSgtin);
+        TopoEvent topoEvent = new TopoEvent();
+        topoEvent.setDeviceExcluded(deviceExcluded);
+        publishTopoEvent("DEVICE_EXCLUDED", topoEvent);
+    }
+
+    @Test
+    public void dispatchesSeveralEventsFromOneQueue() throws Exception {
+        String deviceSgtin = TestHelper.randomSgtin();
+        List<String> included = new CopyOnWriteArrayList<>();
+        List<String> excluded = new CopyOnWriteArrayList<>();
+        AtomicInteger topoEvents = new AtomicInteger();
+        AtomicInteger valueReports = new AtomicInteger();
+        RecordingClientMetrics metrics = new RecordingClientMetrics();
+        serviceClient.setMetrics(metrics);
+        EventHandlers handlers = new EventHandlers("HANDLERS_TEST")
+                .on("EVENT.APP.TOPOSERVICE.#", DeviceIncludedEvent.class, deviceIncluded -> included.add(deviceIncluded.getDeviceSgtin()))
+                .on("EVENT.APP.TOPOSERVICE.#", DeviceExcludedEvent.class, deviceExcluded -> excluded.add(deviceExcluded.getDeviceSgtin()))
+                .on("EVENT.APP.*.DEVICE_EXCLUDED", event -> topoEvents.incrementAndGet())
+                .onValueReports(valueReport -> valueReports.incrementAndGet());
+        assertEquals(Arrays.asList("EVENT.APP.TOPOSERVICE.#", "EVENT.APP.*.DEVICE_EXCLUDED", "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED"),
+                handlers.getBindingKeys());
+
+        int queues = broker.getQueueCount();
+        Subscription subscription = serviceClient.subscribe(handlers, new SubscriptionOptions().setPrefetchCount(50));
+        assertEquals(queues + 1, broker.getQueueCount());
+        assertEquals(1, subscription.getConsumerTags().size());
+
+        for(int i = 0; i < 10; i++) {
+            publishDeviceIncluded(deviceSgtin);
+            publishDeviceExcluded(deviceSgtin);
+            Lsbl valueReported = TestHelper.createValueReportedEvent(deviceSgtin, TestHelper.randomSgtin(), TestHelper.createValueReport());
+            channel.basicPublish("EVENT.APP", "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED", null, LsblCodec.encode(valueReported));
+        }
+        // Not bound, the broker drops it
+        channel.basicPublish("EVENT.APP", "EVENT.APP.METADATASERVICE.METADATA_ADDED", null, LsblCodec.encode(TestHelper.createTestEvent("EVENT.APP.METADATASERVICE.METADATA_ADDED")));
+
+        TestHelper.await(() -> included.size() == 10 && excluded.size() == 10 && topoEvents.get() == 10 && valueReports.get() == 10);
+        assertEquals(deviceSgtin, included.get(0));
+        assertEquals(deviceSgtin, excluded.get(0));
+        assertEquals(30, metrics.getEventStats("EVENT.APP.HANDLERS_TEST").getCallbackTime().getCount());
+        assertEquals(0, channel.messageCount(subscription.getQueueName()));
+        subscription.cancel();
+    }
+
+    @Test
+    public void matchesTopicPatterns() {
+        assertTrue(EventHandlers.matches("EVENT.APP.TOPOSERVICE.DEVICE_INCLUDED", "EVENT.APP.TOPOSERVICE.DEVICE_INCLUDED"));
+        assertFalse(EventHandlers.matches("EVENT.APP.TOPOSERVICE.DEVICE_INCLUDED", "EVENT.APP.TOPOSERVICE.DEVICE_EXCLUDED"));
+        assertTrue(EventHandlers.matches("EVENT.APP.TOPOSERVICE.#", "EVENT.APP.TOPOSERVICE.DEVICE_INCLUDED"));
+        assertTrue(EventHandlers.matches("EVENT.APP.#", "EVENT.APP"));
+        assertTrue(EventHandlers.matches("EVENT.APP.*.DEVICE_EXCLUDED", "EVENT.APP.TOPOSERVICE.DEVICE_EXCLUDED"));
+        assertFalse(EventHandlers.matches("EVENT.APP.*", "EVENT.APP.TOPOSERVICE.DEVICE_EXCLUDED"));
+    }
+
+    @Test
+    public void findsThePayloadGetters() throws Exception {
+        assertEquals(TopoEvent.class.getMethod("getDeviceExcluded"), EventHandlers.payloadGetters(DeviceExcludedEvent.class)[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTypesThatAreNoPayload() {
+        new EventHandlers("HANDLERS_TEST").on("EVENT.APP.#", String.class, payload -> {});
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.rabbitmq.client.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs subscriptions with lanes against the InMemoryBroker.
+ */
+public class EventLanesTest {
+
+    private static final int LANES = 4;
+
+    InMemoryBroker broker;
+    ServiceClient serviceClient;
+
+    @Before
+    public void setup() {
+        broker = new InMemoryBroker();
+        serviceClient = new ServiceClient(broker.newConnection());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        serviceClient.getConnection().close();
+    }
+
+    /**
+     * Returns SGTINs that are assigned to different lanes.
+     */
+    private static List<String> sgtinsOnDifferentLanes(int count) {
+        List<String> sgtins = new ArrayList<>();
+        Set<Integer> lanes = new HashSet<>();
+        while(sgtins.size() < count) {
+            String sgtin = TestHelper.randomSgtin();
+            if(lanes.add(EventLanes.index(sgtin, LANES))) {
+                sgtins.add(sgtin);
+            }
+        }
+        return sgtins;
+    }
+
+    @Test
+    public void keepsTheOrderPerDevice() throws Exception {
+        List<String> devices = sgtinsOnDifferentLanes(LANES);
+        int events = 50;
+        Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(devices.size() * events);
+        SubscriptionOptions options = new SubscriptionOptions()
+                .setPrefetchCount(100)
+                .setLaneCount(LANES);
+        Subscription subscription = serviceClient.subscribeValueReports(valueReport -> {
+            received.computeIfAbsent(valueReport.getDeviceSgtin(), sgtin -> new CopyOnWriteArrayList<>())
+                    .add(valueReport.getValues().size());
+            threads.add(Thread.currentThread().getName());
+            latch.countDown();
+        }, options);
+
+        // The number of values is the sequence number of the event
+        Channel channel = broker.newConnection().createChannel();
+        for(int i = 1; i <= events; i++) {
+            for(String device : devices) {
+                Lsbl event = TestHelper.createValueReportedEvent(device, TestHelper.randomSgtin(), TestHelper.createValueReport(i));
+                channel.basicPublish("EVENT.APP", "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED", null, LsblCodec.encode(event));
+            }
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for(String device : devices) {
+            List<Integer> sequence = received.get(device);
+            assertEquals(events, sequence.size());
+            for(int i = 0; i < events; i++) {
+                assertEquals(i + 1, (int) sequence.get(i));
+            }
+        }
+        assertEquals(LANES, threads.size());
+        for(String thread : threads) {
+            assertTrue(thread.startsWith("service-client-lane-"));
+        }
+        assertEquals(LANES, subscription.getLaneDepths().length);
+        assertEquals(0, channel.messageCount(subscription.getQueueName()));
+        subscription.cancel();
+    }
+
+    @Test
+    public void readsTheDeviceSgtin() {
+        String valueReported = "<lsbl xmlns=\"urn:lsbl\"><event><value_event><device_value_reported>" +
+                "<device_sgtin>3034F8EE9C0000800000A1B2</device_sgtin><gw_sgtin>3034F8EE9C0000800000FFFF</gw_sgtin>" +
+                "<lsdl>&lt;network/&gt;</lsdl></device_value_reported></value_event></event></lsbl>";
+        String deviceExcluded = "\uFEFF<lsbl><event><topo_event><device_excluded>" +
+                "<gw_sgtin>3034F8EE9C0000800000FFFF</gw_sgtin><device_sgtin>3034F8EE9C0000800000C3D4</device_sgtin>" +
+                "</device_excluded></topo_event></event></lsbl>";
+        String replacement = "<lsbl><event><topo_event><device_replacement_executed>" +
+                "<old_sgtin>3034F8EE9C0000800000E5F6</old_sgtin><new_sgtin>3034F8EE9C0000800000E5F7</new_sgtin>" +
+                "</device_replacement_executed></topo_event></event></lsbl>";
+
+        assertEquals("3034F8EE9C0000800000A1B2", EventLanes.deviceSgtin(valueReported.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("3034F8EE9C0000800000C3D4", EventLanes.deviceSgtin(deviceExcluded.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("3034F8EE9C0000800000E5F6", EventLanes.deviceSgtin(replacement.getBytes(StandardCharsets.UTF_8)));
+        assertNull(EventLanes.deviceSgtin("<lsbl><event/></lsbl>".getBytes(StandardCharsets.UTF_8)));
+        assertNull(EventLanes.deviceSgtin("not xml".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void assignsTheSameDeviceToTheSameLane() {
+        String sgtin = TestHelper.randomSgtin();
+        int lane = EventLanes.index(sgtin, LANES);
+        assertTrue(lane >= 0 && lane < LANES);
+        assertEquals(lane, EventLanes.index(new String(sgtin), LANES));
+        assertEquals(0, EventLanes.index(null, LANES));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void laneCountAtLeastOne() {
+        new SubscriptionOptions().setLaneCount(0);
+    }
+
+}
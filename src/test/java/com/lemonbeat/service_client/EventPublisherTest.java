@@ -0,0 +1,128 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.rabbitmq.client.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs Flow publishers of events against the InMemoryBroker.
+ */
+public class EventPublisherTest {
+
+    private static final String VALUE_REPORTED = "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED";
+
+    InMemoryBroker broker;
+    ServiceClient serviceClient;
+
+    @Before
+    public void setup() {
+        broker = new InMemoryBroker();
+        serviceClient = new ServiceClient(broker.newConnection());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        serviceClient.getConnection().close();
+    }
+
+    private void publishValueReports(String deviceSgtin, int count) throws IOException {
+        Lsbl event = TestHelper.createValueReportedEvent(deviceSgtin, TestHelper.randomSgtin(), TestHelper.createValueReport());
+        byte[] body = LsblCodec.encode(event);
+        Channel channel = broker.newConnection().createChannel();
+        for(int i = 0; i < count; i++) {
+            channel.basicPublish("EVENT.APP", VALUE_REPORTED, null, body);
+        }
+    }
+
+    /**
+     * Records the signals and requests the given number of events on subscribe.
+     */
+    private static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+        final long initialRequest;
+        final List<T> items = new CopyOnWriteArrayList<>();
+        final CompletableFuture<Throwable> terminated = new CompletableFuture<>();
+        volatile Flow.Subscription subscription;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            terminated.complete(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            terminated.complete(null);
+        }
+    }
+
+    @Test
+    public void deliversOnlyWhatWasRequested() throws Exception {
+        RecordingSubscriber<Lsbl> subscriber = new RecordingSubscriber<>(5);
+        serviceClient.subscribeAsPublisher(VALUE_REPORTED, new SubscriptionOptions().setPrefetchCount(50)).subscribe(subscriber);
+
+        publishValueReports(TestHelper.randomSgtin(), 100);
+        TestHelper.await(() -> subscriber.items.size() == 5);
+        Thread.sleep(100);
+
+        // The broker holds back the events that were not requested, except the one the channel limit allows
+        assertEquals(5, subscriber.items.size());
+        assertTrue(broker.getDeliveredCount() <= 6);
+
+        subscriber.subscription.request(95);
+        TestHelper.await(() -> subscriber.items.size() == 100);
+        assertNotNull(subscriber.items.get(99).getEvent().getValueEvent().getDeviceValueReported());
+        assertFalse(subscriber.terminated.isDone());
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void publishesValueReports() throws Exception {
+        String deviceSgtin = TestHelper.randomSgtin();
+        RecordingClientMetrics metrics = new RecordingClientMetrics();
+        serviceClient.setMetrics(metrics);
+        RecordingSubscriber<DeviceValueReport> subscriber = new RecordingSubscriber<>(Long.MAX_VALUE);
+        serviceClient.subscribeValueReportsAsPublisher(new SubscriptionOptions().setPrefetchCount(20).setAckBatchSize(5))
+                .subscribe(subscriber);
+
+        publishValueReports(deviceSgtin, 200);
+        TestHelper.await(() -> subscriber.items.size() == 200);
+
+        assertEquals(deviceSgtin, subscriber.items.get(0).getDeviceSgtin());
+        assertEquals(200, metrics.getEventStats(VALUE_REPORTED).getCallbackTime().getCount());
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void rejectsNonPositiveRequests() throws Exception {
+        RecordingSubscriber<Lsbl> subscriber = new RecordingSubscriber<>(0);
+        serviceClient.subscribeAsPublisher(VALUE_REPORTED, new SubscriptionOptions()).subscribe(subscriber);
+
+        assertTrue(subscriber.terminated.get(10, TimeUnit.SECONDS) instanceof IllegalArgumentException);
+    }
+
+}
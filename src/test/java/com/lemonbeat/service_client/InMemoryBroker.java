@@ -0,0 +1,673 @@
+package com.lemonbeat.service_client;
+
+import com.rabbitmq.client.*;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stand-in for the RabbitMQ broker, so the ServiceClient can be tested and load tested without RabbitMQ.
+ * Connections and channels are dynamic proxies of the amqp-client interfaces and implement the subset used by the
+ * ServiceClient: queue declare, bind and delete, publish, consume with prefetch, ack, nack and cancel.
+ * Like on RabbitMQ, basicQos with global=true limits the unacknowledged deliveries of all consumers of the channel
+ * and takes effect for the existing consumers, otherwise it applies to the consumers that are registered afterwards.
+ *
+ * The DMZ, PARTNER and EVENT.APP exchanges are declared on start. All exchanges route like topic exchanges,
+ * so exact routing keys behave like a direct exchange and wildcards can be used for event bindings.
+ * Like on the broker, the consumers of one channel are called one after another on a dispatch thread of the channel.
+ * The shutdown listeners of connections and channels are called when they are closed.
+ */
+public class InMemoryBroker {
+
+    private final Map<String, Exchange> exchanges = new ConcurrentHashMap<>();
+    private final Map<String, Queue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong queueNumber = new AtomicLong();
+    private final AtomicLong consumerNumber = new AtomicLong();
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder deliveredCount = new LongAdder();
+    private final LongAdder unroutableCount = new LongAdder();
+
+    public InMemoryBroker() {
+        for(String exchange : new String[]{"DMZ", "PARTNER", "EVENT.APP"}) {
+            exchanges.put(exchange, new Exchange(exchange));
+        }
+    }
+
+    /**
+     * Opens a new connection to the broker.
+     * @return Connection that can be passed to the ServiceClient constructor
+     */
+    public Connection newConnection() {
+        return new BrokerConnection().proxy;
+    }
+
+    /**
+     * Returns the number of declared queues.
+     * @return Number of queues
+     */
+    public int getQueueCount() {
+        return queues.size();
+    }
+
+    /**
+     * Returns true if a queue with the given name exists.
+     * @param queueName Name of the queue
+     * @return True if the queue exists
+     */
+    public boolean hasQueue(String queueName) {
+        return queues.containsKey(queueName);
+    }
+
+    /**
+     * Returns the number of messages that were published to an exchange.
+     * @return Number of published messages
+     */
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    /**
+     * Returns the number of messages that were delivered to consumers, including redeliveries.
+     * @return Number of deliveries
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.sum();
+    }
+
+    /**
+     * Returns the number of published messages that were dropped because no queue was bound for the routing key.
+     * @return Number of unroutable messages
+     */
+    public long getUnroutableCount() {
+        return unroutableCount.sum();
+    }
+
+    /**
+     * Returns true if the routing key matches the binding key of a topic exchange.
+     * '*' matches exactly one word, '#' matches zero or more words.
+     * @param bindingKey Binding key with optional wildcards
+     * @param routingKey Routing key of the message
+     * @return True if the routing key matches
+     */
+    static boolean topicMatches(String bindingKey, String routingKey) {
+        return topicMatches(bindingKey.split("\\.", -1), 0, routingKey.split("\\.", -1), 0);
+    }
+
+    private static boolean topicMatches(String[] binding, int b, String[] routing, int r) {
+        if(b == binding.length) {
+            return r == routing.length;
+        }
+        if("#".equals(binding[b])) {
+            for(int skip = r; skip <= routing.length; skip++) {
+                if(topicMatches(binding, b + 1, routing, skip)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if(r == routing.length) {
+            return false;
+        }
+        return ("*".equals(binding[b]) || binding[b].equals(routing[r])) && topicMatches(binding, b + 1, routing, r + 1);
+    }
+
+    private void route(String exchangeName, String routingKey, AMQP.BasicProperties properties, byte[] body) throws IOException {
+        publishedCount.increment();
+        if(exchangeName.isEmpty()) {
+            // Default exchange, routes to the queue with the name of the routing key
+            Queue queue = queues.get(routingKey);
+            if(queue == null) {
+                unroutableCount.increment();
+            } else {
+                queue.enqueue(new Message(exchangeName, routingKey, properties, body));
+            }
+            return;
+        }
+        Exchange exchange = exchanges.get(exchangeName);
+        if(exchange == null) {
+            throw new IOException("NOT_FOUND - no exchange '" + exchangeName + "'");
+        }
+        Set<Queue> targets = new LinkedHashSet<>();
+        for(Binding binding : exchange.bindings) {
+            if(topicMatches(binding.key, routingKey)) {
+                targets.add(binding.queue);
+            }
+        }
+        if(targets.isEmpty()) {
+            unroutableCount.increment();
+        }
+        for(Queue queue : targets) {
+            queue.enqueue(new Message(exchangeName, routingKey, properties, body));
+        }
+    }
+
+    private void deleteQueue(Queue queue) {
+        if(queues.remove(queue.name, queue)) {
+            queue.deleted = true;
+            for(Exchange exchange : exchanges.values()) {
+                exchange.bindings.removeIf(binding -> binding.queue == queue);
+            }
+        }
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args, String name) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return name;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Like the amqp-client, a listener that is added to a closed connection or channel is called right away.
+     */
+    private static void addShutdownListener(List<ShutdownListener> listeners, ShutdownListener listener, boolean open,
+                                            ShutdownSignalException signal) {
+        if(open) {
+            listeners.add(listener);
+        } else {
+            listener.shutdownCompleted(signal);
+        }
+    }
+
+    private static UnsupportedOperationException unsupported(Method method) {
+        return new UnsupportedOperationException("The in-memory broker does not support " + method);
+    }
+
+    private static class Exchange {
+        final String name;
+        final List<Binding> bindings = new CopyOnWriteArrayList<>();
+
+        Exchange(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Binding {
+        final Queue queue;
+        final String key;
+
+        Binding(Queue queue, String key) {
+            this.queue = queue;
+            this.key = key;
+        }
+    }
+
+    private static class Message {
+        final String exchange;
+        final String routingKey;
+        final AMQP.BasicProperties properties;
+        final byte[] body;
+        final boolean redelivered;
+
+        Message(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) {
+            this(exchange, routingKey, properties, body, false);
+        }
+
+        Message(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body, boolean redelivered) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.properties = properties;
+            this.body = body;
+            this.redelivered = redelivered;
+        }
+
+        Message redelivered() {
+            return new Message(exchange, routingKey, properties, body, true);
+        }
+    }
+
+    /**
+     * A consumer on a queue, the prefetch count limits its unacknowledged deliveries.
+     */
+    private static class QueueConsumer {
+        final BrokerChannel channel;
+        final String tag;
+        final Consumer consumer;
+        final boolean autoAck;
+        final int prefetchCount;
+        final Queue queue;
+        final AtomicInteger unacked = new AtomicInteger();
+
+        QueueConsumer(BrokerChannel channel, String tag, Consumer consumer, boolean autoAck, int prefetchCount, Queue queue) {
+            this.channel = channel;
+            this.tag = tag;
+            this.consumer = consumer;
+            this.autoAck = autoAck;
+            this.prefetchCount = prefetchCount;
+            this.queue = queue;
+        }
+
+        boolean hasCapacity() {
+            return autoAck || (prefetchCount == 0 || unacked.get() < prefetchCount) && channel.hasCapacity();
+        }
+    }
+
+    private class Queue {
+        final String name;
+        final boolean exclusive;
+        final boolean autoDelete;
+        final BrokerConnection owner;
+        final ArrayDeque<Message> messages = new ArrayDeque<>();
+        final List<QueueConsumer> consumers = new ArrayList<>();
+        int nextConsumer;
+        volatile boolean deleted;
+
+        Queue(String name, boolean exclusive, boolean autoDelete, BrokerConnection owner) {
+            this.name = name;
+            this.exclusive = exclusive;
+            this.autoDelete = autoDelete;
+            this.owner = owner;
+        }
+
+        void enqueue(Message message) {
+            synchronized (this) {
+                if(deleted) {
+                    return;
+                }
+                messages.addLast(message);
+            }
+            drain();
+        }
+
+        void requeue(Message message) {
+            synchronized (this) {
+                if(deleted) {
+                    return;
+                }
+                messages.addFirst(message.redelivered());
+            }
+            drain();
+        }
+
+        void addConsumer(QueueConsumer consumer) {
+            synchronized (this) {
+                consumers.add(consumer);
+            }
+            drain();
+        }
+
+        void removeConsumer(QueueConsumer consumer) {
+            boolean delete;
+            synchronized (this) {
+                consumers.remove(consumer);
+                delete = autoDelete && consumers.isEmpty();
+            }
+            if(delete) {
+                deleteQueue(this);
+            }
+        }
+
+        synchronized int messageCount() {
+            return messages.size();
+        }
+
+        synchronized int consumerCount() {
+            return consumers.size();
+        }
+
+        /**
+         * Hands the queued messages round-robin to the consumers that have capacity left.
+         */
+        synchronized void drain() {
+            while(!messages.isEmpty() && !consumers.isEmpty()) {
+                QueueConsumer target = null;
+                for(int i = 0; i < consumers.size(); i++) {
+                    QueueConsumer candidate = consumers.get((nextConsumer + i) % consumers.size());
+                    if(candidate.hasCapacity()) {
+                        target = candidate;
+                        nextConsumer = (nextConsumer + i + 1) % consumers.size();
+                        break;
+                    }
+                }
+                if(target == null) {
+                    return;
+                }
+                target.channel.deliver(target, messages.pollFirst());
+            }
+        }
+    }
+
+    private class BrokerConnection implements InvocationHandler {
+
+        final Connection proxy;
+        final AtomicInteger channelNumber = new AtomicInteger();
+        final Set<BrokerChannel> channels = ConcurrentHashMap.newKeySet();
+        final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+        volatile boolean open = true;
+
+        BrokerConnection() {
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if(method.getDeclaringClass() == Object.class) {
+                return objectMethod(proxy, method, args, "InMemoryBrokerConnection");
+            }
+            switch (method.getName()) {
+                case "createChannel":
+                    if(!open) {
+                        throw new AlreadyClosedException(new ShutdownSignalException(true, true, null, proxy));
+                    }
+                    BrokerChannel channel = new BrokerChannel(this, channelNumber.incrementAndGet());
+                    channels.add(channel);
+                    return channel.proxy;
+                case "close":
+                case "abort":
+                    close();
+                    return null;
+                case "isOpen":
+                    return open;
+                case "getChannelMax":
+                    return 2047;
+                case "addShutdownListener":
+                    addShutdownListener(shutdownListeners, (ShutdownListener) args[0], open, new ShutdownSignalException(true, true, null, proxy));
+                    return null;
+                case "removeShutdownListener":
+                    shutdownListeners.remove((ShutdownListener) args[0]);
+                    return null;
+                case "getClientProvidedName":
+                case "getId":
+                    return "in-memory";
+                case "getServerProperties":
+                    return Collections.emptyMap();
+                default:
+                    throw unsupported(method);
+            }
+        }
+
+        void close() {
+            if(!open) {
+                return;
+            }
+            open = false;
+            for(BrokerChannel channel : channels) {
+                channel.close();
+            }
+            for(Queue queue : queues.values()) {
+                if(queue.exclusive && queue.owner == this) {
+                    deleteQueue(queue);
+                }
+            }
+            ShutdownSignalException signal = new ShutdownSignalException(true, true, null, proxy);
+            for(ShutdownListener listener : shutdownListeners) {
+                listener.shutdownCompleted(signal);
+            }
+        }
+    }
+
+    private class BrokerChannel implements InvocationHandler {
+
+        final BrokerConnection connection;
+        final int number;
+        final Channel proxy;
+        final ExecutorService dispatcher;
+        final AtomicLong deliveryTag = new AtomicLong();
+        final ConcurrentSkipListMap<Long, Delivery> unacked = new ConcurrentSkipListMap<>();
+        final Map<String, QueueConsumer> consumers = new ConcurrentHashMap<>();
+        final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+        volatile int prefetchCount = 0;
+        volatile int globalPrefetchCount = 0;
+        volatile boolean open = true;
+
+        BrokerChannel(BrokerConnection connection, int number) {
+            this.connection = connection;
+            this.number = number;
+            this.proxy = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class[]{Channel.class}, this);
+            this.dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "in-memory-broker-channel-" + number);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if(method.getDeclaringClass() == Object.class) {
+                return objectMethod(proxy, method, args, "InMemoryBrokerChannel(" + number + ")");
+            }
+            String name = method.getName();
+            switch (name) {
+                case "isOpen":
+                    return open;
+                case "getChannelNumber":
+                    return number;
+                case "getConnection":
+                    return connection.proxy;
+                case "addShutdownListener":
+                    addShutdownListener(shutdownListeners, (ShutdownListener) args[0], open, new ShutdownSignalException(false, true, null, proxy));
+                    return null;
+                case "removeShutdownListener":
+                    shutdownListeners.remove((ShutdownListener) args[0]);
+                    return null;
+                case "close":
+                case "abort":
+                    close();
+                    return null;
+                default:
+            }
+            if(!open) {
+                throw new AlreadyClosedException(new ShutdownSignalException(false, true, null, proxy));
+            }
+            switch (name) {
+                case "basicQos":
+                    boolean global = args[args.length - 1] instanceof Boolean && (Boolean) args[args.length - 1];
+                    if(global) {
+                        globalPrefetchCount = (Integer) args[args.length == 3 ? 1 : 0];
+                        for(QueueConsumer queueConsumer : consumers.values()) {
+                            queueConsumer.queue.drain();
+                        }
+                    } else {
+                        prefetchCount = (Integer) args[args.length == 3 ? 1 : 0];
+                    }
+                    return null;
+                case "exchangeDeclare":
+                    exchanges.putIfAbsent((String) args[0], new Exchange((String) args[0]));
+                    return null;
+                case "queueDeclare":
+                    return queueDeclare(args);
+                case "queueBind":
+                    exchange((String) args[1]).bindings.add(new Binding(queue((String) args[0]), (String) args[2]));
+                    return null;
+                case "queueUnbind":
+                    Queue unbound = queue((String) args[0]);
+                    exchange((String) args[1]).bindings.removeIf(binding -> binding.queue == unbound && binding.key.equals(args[2]));
+                    return null;
+                case "queueDelete":
+                    Queue deleted = queues.get((String) args[0]);
+                    if(deleted != null) {
+                        deleteQueue(deleted);
+                    }
+                    return null;
+                case "messageCount":
+                    return (long) queue((String) args[0]).messageCount();
+                case "consumerCount":
+                    return (long) queue((String) args[0]).consumerCount();
+                case "basicPublish":
+                    route((String) args[0], (String) args[1], (AMQP.BasicProperties) args[args.length - 2], (byte[]) args[args.length - 1]);
+                    return null;
+                case "basicConsume":
+                    return basicConsume(args);
+                case "basicCancel":
+                    cancel((String) args[0]);
+                    return null;
+                case "basicAck":
+                    settle((Long) args[0], (Boolean) args[1], false);
+                    return null;
+                case "basicNack":
+                    settle((Long) args[0], (Boolean) args[1], (Boolean) args[2]);
+                    return null;
+                case "basicReject":
+                    settle((Long) args[0], false, (Boolean) args[1]);
+                    return null;
+                default:
+                    throw unsupported(method);
+            }
+        }
+
+        private Object queueDeclare(Object[] args) {
+            String queueName = args == null || args[0] == null || ((String) args[0]).isEmpty()
+                    ? "amq.gen-" + queueNumber.incrementAndGet()
+                    : (String) args[0];
+            boolean exclusive = args == null || (Boolean) args[2];
+            boolean autoDelete = args == null || (Boolean) args[3];
+            Queue queue = queues.computeIfAbsent(queueName, n -> new Queue(n, exclusive, autoDelete, connection));
+            return Proxy.newProxyInstance(AMQP.Queue.DeclareOk.class.getClassLoader(), new Class[]{AMQP.Queue.DeclareOk.class}, (p, method, a) -> {
+                switch (method.getName()) {
+                    case "getQueue":
+                        return queue.name;
+                    case "getMessageCount":
+                        return queue.messageCount();
+                    case "getConsumerCount":
+                        return queue.consumerCount();
+                    default:
+                        return objectMethod(p, method, a, "DeclareOk(" + queue.name + ")");
+                }
+            });
+        }
+
+        private String basicConsume(Object[] args) throws IOException {
+            Queue queue = queue((String) args[0]);
+            boolean autoAck = args.length > 2 && args[1] instanceof Boolean && (Boolean) args[1];
+            String tag = args.length > 3 && args[2] instanceof String && !((String) args[2]).isEmpty()
+                    ? (String) args[2]
+                    : "amq.ctag-" + consumerNumber.incrementAndGet();
+            Object callback = args[args.length - 1];
+            if(!(callback instanceof Consumer)) {
+                throw new UnsupportedOperationException("The in-memory broker only supports Consumer callbacks");
+            }
+            Consumer consumer = (Consumer) callback;
+            QueueConsumer queueConsumer = new QueueConsumer(this, tag, consumer, autoAck, prefetchCount, queue);
+            consumers.put(tag, queueConsumer);
+            dispatcher.execute(() -> consumer.handleConsumeOk(tag));
+            queue.addConsumer(queueConsumer);
+            return tag;
+        }
+
+        boolean hasCapacity() {
+            return globalPrefetchCount == 0 || unacked.size() < globalPrefetchCount;
+        }
+
+        private void cancel(String tag) throws IOException {
+            QueueConsumer queueConsumer = consumers.remove(tag);
+            if(queueConsumer == null) {
+                throw new IOException("NOT_FOUND - unknown consumer tag '" + tag + "'");
+            }
+            queueConsumer.queue.removeConsumer(queueConsumer);
+            dispatcher.execute(() -> queueConsumer.consumer.handleCancelOk(tag));
+        }
+
+        /**
+         * Called by the queue with the queue lock held, the consumer is called on the dispatch thread of the channel.
+         */
+        void deliver(QueueConsumer queueConsumer, Message message) {
+            long tag = deliveryTag.incrementAndGet();
+            if(!queueConsumer.autoAck) {
+                queueConsumer.unacked.incrementAndGet();
+                unacked.put(tag, new Delivery(queueConsumer, message));
+            }
+            deliveredCount.increment();
+            Envelope envelope = new Envelope(tag, message.redelivered, message.exchange, message.routingKey);
+            try {
+                dispatcher.execute(() -> {
+                    try {
+                        queueConsumer.consumer.handleDelivery(queueConsumer.tag, envelope, message.properties, message.body);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The channel was closed concurrently, the delivery is requeued by close
+            }
+        }
+
+        private void settle(long tag, boolean multiple, boolean requeue) throws IOException {
+            Collection<Delivery> settled;
+            if(multiple) {
+                NavigableMap<Long, Delivery> range = unacked.headMap(tag, true);
+                settled = new ArrayList<>(range.values());
+                range.clear();
+            } else {
+                Delivery delivery = unacked.remove(tag);
+                if(delivery == null) {
+                    close();
+                    throw new IOException("PRECONDITION_FAILED - unknown delivery tag " + tag);
+                }
+                settled = Collections.singletonList(delivery);
+            }
+            Set<Queue> affected = new LinkedHashSet<>();
+            for(Delivery delivery : settled) {
+                delivery.consumer.unacked.decrementAndGet();
+                if(requeue) {
+                    delivery.consumer.queue.requeue(delivery.message);
+                }
+                affected.add(delivery.consumer.queue);
+            }
+            for(Queue queue : affected) {
+                queue.drain();
+            }
+        }
+
+        void close() {
+            if(!open) {
+                return;
+            }
+            open = false;
+            connection.channels.remove(this);
+            ShutdownSignalException signal = new ShutdownSignalException(false, true, null, proxy);
+            for(QueueConsumer queueConsumer : consumers.values()) {
+                queueConsumer.queue.removeConsumer(queueConsumer);
+                dispatcher.execute(() -> queueConsumer.consumer.handleShutdownSignal(queueConsumer.tag, signal));
+            }
+            consumers.clear();
+            for(Delivery delivery : unacked.values()) {
+                delivery.consumer.queue.requeue(delivery.message);
+            }
+            unacked.clear();
+            dispatcher.shutdown();
+            for(ShutdownListener listener : shutdownListeners) {
+                listener.shutdownCompleted(signal);
+            }
+        }
+
+        private Queue queue(String queueName) throws IOException {
+            Queue queue = queues.get(queueName);
+            if(queue == null) {
+                throw new IOException("NOT_FOUND - no queue '" + queueName + "'");
+            }
+            return queue;
+        }
+
+        private Exchange exchange(String exchangeName) throws IOException {
+            Exchange exchange = exchanges.get(exchangeName);
+            if(exchange == null) {
+                throw new IOException("NOT_FOUND - no exchange '" + exchangeName + "'");
+            }
+            return exchange;
+        }
+    }
+
+    private static class Delivery {
+        final QueueConsumer consumer;
+        final Message message;
+
+        Delivery(QueueConsumer consumer, Message message) {
+            this.consumer = consumer;
+            this.message = message;
+        }
+    }
+
+}
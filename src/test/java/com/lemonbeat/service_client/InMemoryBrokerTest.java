@@ -0,0 +1,173 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.rabbitmq.client.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the ServiceClient against the InMemoryBroker and the simulated services, no RabbitMQ is needed.
+ */
+public class InMemoryBrokerTest {
+
+    InMemoryBroker broker;
+    ServiceResponders services;
+    ServiceClient serviceClient;
+
+    @Before
+    public void setup() throws IOException {
+        broker = new InMemoryBroker();
+        services = new ServiceResponders(broker.newConnection()).start();
+        serviceClient = new ServiceClient(broker.newConnection());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        services.close();
+        serviceClient.getConnection().close();
+    }
+
+    @Test
+    public void topicMatches() {
+        assertTrue(InMemoryBroker.topicMatches("SERVICE.VALUESERVICE", "SERVICE.VALUESERVICE"));
+        assertFalse(InMemoryBroker.topicMatches("SERVICE.VALUESERVICE", "SERVICE.TOPOSERVICE"));
+        assertTrue(InMemoryBroker.topicMatches("EVENT.APP.*.DEVICE_INCLUDED", "EVENT.APP.TOPOSERVICE.DEVICE_INCLUDED"));
+        assertFalse(InMemoryBroker.topicMatches("EVENT.APP.*", "EVENT.APP.TOPOSERVICE.DEVICE_INCLUDED"));
+        assertTrue(InMemoryBroker.topicMatches("EVENT.APP.#", "EVENT.APP.TOPOSERVICE.DEVICE_INCLUDED"));
+        assertTrue(InMemoryBroker.topicMatches("EVENT.APP.#", "EVENT.APP"));
+        assertTrue(InMemoryBroker.topicMatches("#.DEVICE_INCLUDED", "EVENT.APP.TOPOSERVICE.DEVICE_INCLUDED"));
+    }
+
+    @Test
+    public void callAwait() {
+        String sgtin = TestHelper.randomSgtin();
+        Lsbl response = new ValueServiceClient(serviceClient).getValuesBySgtinAwait(sgtin);
+
+        assertTrue(LsBL.isResponse(response));
+        assertEquals(sgtin, response.getResponse().getValueResponse().getValueGet().getDeviceSgtin());
+        assertFalse(broker.hasQueue(response.getAdr().getTarget()));
+    }
+
+    @Test
+    public void loginStoresToken() {
+        Lsbl response = new UserServiceClient(serviceClient).loginAwait("user", "password");
+
+        assertTrue(LsBL.isResponse(response));
+        assertEquals(response.getResponse().getUserResponse().getUserLogin().getToken(), serviceClient.getToken());
+    }
+
+    @Test
+    public void callMetrics() {
+        RecordingClientMetrics metrics = new RecordingClientMetrics();
+        serviceClient.setMetrics(metrics);
+        services.respond("SERVICE.TOPOSERVICE", request -> TestHelper.createNack());
+
+        new ValueServiceClient(serviceClient).getValuesBySgtinAwait(TestHelper.randomSgtin());
+        new TopoServiceClient(serviceClient).getGatewayListAwait();
+
+        RecordingClientMetrics.CallStats valueService = metrics.getCallStats("SERVICE.VALUESERVICE");
+        assertEquals(1, valueService.getResponseCount());
+        assertEquals(1, valueService.getLatency().getCount());
+        assertTrue(valueService.getLatency().getMax() > 0);
+        assertEquals(1, metrics.getCallStats("SERVICE.TOPOSERVICE").getNackCount());
+        assertEquals(0, metrics.getInFlight());
+    }
+
+    @Test
+    public void eventMetrics() throws Exception {
+        RecordingClientMetrics metrics = new RecordingClientMetrics();
+        serviceClient.setMetrics(metrics);
+        String eventName = "EVENT.APP.TESTSERVICE.METRICS";
+        CountDownLatch latch = new CountDownLatch(10);
+        Subscription subscription = serviceClient.subscribe(eventName, event -> latch.countDown(), new SubscriptionOptions());
+        Channel channel = serviceClient.getConnection().createChannel();
+        for(int i = 0; i < 10; i++) {
+            channel.basicPublish("EVENT.APP", eventName, null, LsblCodec.encode(TestHelper.createTestEvent(eventName)));
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        subscription.cancel();
+
+        RecordingClientMetrics.EventStats stats = metrics.getEventStats(eventName);
+        assertEquals(10, stats.getCount());
+        assertEquals(10, stats.getDecodeTime().getCount());
+        assertTrue(stats.getCallbackTime().getCount() >= 9);
+    }
+
+    @Test
+    public void nackRequeuesDelivery() throws Exception {
+        Channel channel = serviceClient.getConnection().createChannel();
+        channel.queueDeclare("TEST.REQUEUE", false, true, true, null);
+        channel.basicQos(1);
+        List<Boolean> redelivered = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        channel.basicConsume("TEST.REQUEUE", false, new DefaultConsumer(channel) {
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+                redelivered.add(envelope.isRedeliver());
+                if(envelope.isRedeliver()) {
+                    channel.basicAck(envelope.getDeliveryTag(), false);
+                } else {
+                    channel.basicNack(envelope.getDeliveryTag(), false, true);
+                }
+                latch.countDown();
+            }
+        });
+        channel.basicPublish("", "TEST.REQUEUE", null, new byte[]{1});
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(false, redelivered.get(0));
+        assertEquals(true, redelivered.get(1));
+    }
+
+    @Test
+    public void answersManyCalls() throws Exception {
+        serviceClient.setSharedReplyQueue(true);
+        ValueServiceClient valueServiceClient = new ValueServiceClient(serviceClient);
+        RequestTemplate template = valueServiceClient.getValuesBySgtinTemplate(TestHelper.randomSgtin());
+        // Warm up the JAXB contexts
+        serviceClient.callAsync(template).get(10, TimeUnit.SECONDS);
+
+        int calls = 5000;
+        AtomicInteger responses = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(calls);
+        for(int i = 0; i < calls; i++) {
+            serviceClient.call(template, response -> {
+                if(LsBL.isResponse(response)) {
+                    responses.incrementAndGet();
+                }
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        assertEquals(calls, responses.get());
+    }
+
+    @Test
+    public void deliversManyEvents() throws Exception {
+        int events = 10000;
+        CountDownLatch latch = new CountDownLatch(events);
+        String eventName = "EVENT.APP.TESTSERVICE.THROUGHPUT";
+        Subscription subscription = serviceClient.subscribe(eventName, event -> latch.countDown(),
+                new SubscriptionOptions().setPrefetchCount(100).setAckBatchSize(50));
+        byte[] body = LsblCodec.encode(TestHelper.createTestEvent(eventName));
+
+        Channel channel = serviceClient.getConnection().createChannel();
+        for(int i = 0; i < events; i++) {
+            channel.basicPublish("EVENT.APP", eventName, null, body);
+        }
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        subscription.cancel();
+    }
+
+}
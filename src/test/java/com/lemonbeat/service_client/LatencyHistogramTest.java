@@ -0,0 +1,69 @@
+package com.lemonbeat.service_client;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void empty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99), 0);
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long i = 1; i <= 10000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), histogram.getMax());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(5000), histogram.getValueAtPercentile(50), 0.07 * TimeUnit.MICROSECONDS.toNanos(5000));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(9900), histogram.getValueAtPercentile(99), 0.07 * TimeUnit.MICROSECONDS.toNanos(9900));
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(5000) + 500, histogram.getMean(), 1);
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE};
+        for(long value : values) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.upperBound(bucket - 1));
+        }
+        assertEquals(0, histogramOf(-5).getMax());
+    }
+
+    @Test
+    public void recordFromSeveralThreads() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for(int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                for(int i = 0; i < 100000; i++) {
+                    histogram.record(i);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(400000, histogram.getCount());
+        assertEquals(99999, histogram.getMax());
+    }
+
+    private static LatencyHistogram histogramOf(long value) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(value);
+        return histogram;
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsbl.lsbl.MessageType;
+import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataAddedEvent;
+import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataEvent;
+import com.lemonbeat.lsdl.LsDL;
+import com.lemonbeat.lsdl.value.Network;
+import com.lemonbeat.lsdl.value.ValueReportType;
+import com.lemonbeat.lsdl.value.ValueSetType;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LsblCodecTest {
+
+    private static byte[] testEvent(int uuidLength, boolean bom) {
+        Lsbl lsbl = LsBL.create("SERVICE.TEST", "EVENT.APP.SERVICE.TEST", 42, MessageType.LSBL_EVENT);
+        Lsbl.Event event = new Lsbl.Event();
+        MetadataEvent metadataEvent = new MetadataEvent();
+        MetadataAddedEvent metadataAddedEvent = new MetadataAddedEvent();
+        metadataAddedEvent.setSgtin(TestHelper.randomSgtin());
+        metadataAddedEvent.setUuid(TestHelper.randomString(uuidLength));
+        metadataEvent.setMetadataAdded(metadataAddedEvent);
+        event.setMetadataEvent(metadataEvent);
+        lsbl.setEvent(event);
+        return ((bom ? "\uFEFF" : "") + LsBL.write(lsbl)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void decode() throws Exception {
+        byte[] body = testEvent(36, false);
+        Lsbl lsbl = LsblCodec.decode(body);
+        assertEquals("EVENT.APP.SERVICE.TEST", lsbl.getAdr().getTarget());
+        assertNotNull(lsbl.getEvent().getMetadataEvent().getMetadataAdded().getSgtin());
+    }
+
+    @Test
+    public void decodeWithBom() throws Exception {
+        byte[] body = testEvent(36, true);
+        assertEquals(3, LsblCodec.bomLength(body));
+        Lsbl lsbl = LsblCodec.decode(body);
+        assertEquals("EVENT.APP.SERVICE.TEST", lsbl.getAdr().getTarget());
+    }
+
+    @Test
+    public void bomLengthOfShortBodies() {
+        assertEquals(0, LsblCodec.bomLength(new byte[0]));
+        assertEquals(0, LsblCodec.bomLength(new byte[]{(byte) 0xEF, (byte) 0xBB}));
+    }
+
+    @Test
+    public void encodeAndDecode() throws Exception {
+        Lsbl lsbl = LsblCodec.decode(testEvent(36, false));
+        byte[] body = LsblCodec.encode(lsbl);
+        assertEquals(LsBL.write(lsbl), new String(body, StandardCharsets.UTF_8));
+        Lsbl decoded = LsblCodec.decode(body);
+        assertEquals(lsbl.getEvent().getMetadataEvent().getMetadataAdded().getUuid(),
+                decoded.getEvent().getMetadataEvent().getMetadataAdded().getUuid());
+    }
+
+    @Test
+    public void fallbackToLibrary() throws Exception {
+        LsblCodec.setCacheEnabled(false);
+        try {
+            Lsbl lsbl = LsblCodec.decode(testEvent(36, true));
+            assertEquals("EVENT.APP.SERVICE.TEST", lsbl.getAdr().getTarget());
+            assertEquals(LsBL.write(lsbl), new String(LsblCodec.encode(lsbl), StandardCharsets.UTF_8));
+        } finally {
+            LsblCodec.setCacheEnabled(true);
+        }
+    }
+
+    @Test
+    public void writeAndParseValueLsdl() throws Exception {
+        ValueSetType valueSet = new ValueSetType();
+        valueSet.setValueId(1L);
+        valueSet.setNumber(42.0);
+        Network network = LsDL.createValueSet(List.of(valueSet));
+
+        String lsdl = LsblCodec.writeValueLsdl(network);
+        assertEquals(LsDL.write(network), lsdl);
+
+        Network parsed = LsblCodec.parseValueLsdl(lsdl);
+        ValueSetType parsedValueSet = (ValueSetType) parsed.getDevice().get(0).getValueGetOrValueReportOrValueSet().get(0);
+        assertEquals(1L, parsedValueSet.getValueId());
+        assertEquals(42.0, parsedValueSet.getNumber(), 0.0);
+    }
+
+    @Test
+    public void parseValueReportOfTheFirstDevice() throws Exception {
+        String lsdl = "<network xmlns=\"urn:valuexsd\" version=\"1\">\n" +
+                "<device version=\"1\">\n<value_report value_id=\"1\" timestamp=\"1700000001\" number=\"1.5\"/>\n" +
+                "<value_report value_id=\"2\" timestamp=\"1700000002\" number=\"3.0\"/>\n</device>\n" +
+                "<device version=\"1\">\n<value_report value_id=\"3\" timestamp=\"1700000003\" number=\"4.5\"/>\n</device>\n" +
+                "</network>";
+        List<ValueReportType> cached = LsblCodec.parseValueReport(lsdl);
+        List<ValueReportType> library;
+        LsblCodec.setCacheEnabled(false);
+        try {
+            library = LsblCodec.parseValueReport(lsdl);
+        } finally {
+            LsblCodec.setCacheEnabled(true);
+        }
+
+        for(List<ValueReportType> valueReports : List.of(cached, library)) {
+            assertEquals(2, valueReports.size());
+            assertEquals(1L, (long) valueReports.get(0).getValueId());
+            assertEquals(2L, (long) valueReports.get(1).getValueId());
+            assertEquals(3.0, valueReports.get(1).getNumber(), 0.0);
+        }
+    }
+
+    @Test
+    public void decodeFromSeveralThreads() throws Exception {
+        byte[] body = testEvent(36, true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Lsbl>> results = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            results.add(executor.submit(() -> LsblCodec.decode(body)));
+        }
+        for(Future<Lsbl> result : results) {
+            assertEquals("EVENT.APP.SERVICE.TEST", result.get(30, TimeUnit.SECONDS).getAdr().getTarget());
+        }
+        executor.shutdown();
+    }
+
+}
@@ -138,6 +138,20 @@ public class MetadataServiceClientTest {
         assert sent.getCmd().getMetadataCmd().getMetadataGet().getSgtin().equals(randomSgtin);
     }
 
+    @Test
+    public void getMetadataBySgtinAsync() throws Exception {
+        String randomSgtin = TestHelper.randomSgtin();
+
+        Lsbl nack = TestHelper.createNack();
+        CompletableFuture<Lsbl> mock = TestHelper.mockServiceResponse(serviceClient, "SERVICE.METADATASERVICE", nack);
+
+        Lsbl result = metadataServiceClient.getMetadataBySgtinAsync(randomSgtin).get();
+
+        assert LsBL.isNack(result);
+        Lsbl sent = mock.get();
+        assert sent.getCmd().getMetadataCmd().getMetadataGet().getSgtin().equals(randomSgtin);
+    }
+
     @Test
     public void getMetadataByUuid() throws Exception {
         CompletableFuture<Lsbl> result = new CompletableFuture<>();
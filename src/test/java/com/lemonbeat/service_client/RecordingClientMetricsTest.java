@@ -0,0 +1,55 @@
+package com.lemonbeat.service_client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecordingClientMetricsTest {
+
+    @Test
+    public void recordCalls() {
+        RecordingClientMetrics metrics = new RecordingClientMetrics();
+        metrics.callStarted("SERVICE.VALUESERVICE");
+        metrics.callStarted("SERVICE.VALUESERVICE");
+        metrics.callStarted("SERVICE.TOPOSERVICE");
+        assertEquals(3, metrics.getInFlight());
+
+        metrics.callCompleted("SERVICE.VALUESERVICE", 1000, ClientMetrics.CallResult.RESPONSE);
+        metrics.callCompleted("SERVICE.VALUESERVICE", 3000, ClientMetrics.CallResult.NACK);
+        metrics.callCompleted("SERVICE.TOPOSERVICE", 5000, ClientMetrics.CallResult.TIMEOUT);
+
+        RecordingClientMetrics.CallStats valueService = metrics.getCallStats("SERVICE.VALUESERVICE");
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(1, valueService.getResponseCount());
+        assertEquals(1, valueService.getNackCount());
+        assertEquals(0, valueService.getTimeoutCount());
+        assertEquals(2, valueService.getLatency().getCount());
+        assertEquals(2000, valueService.getLatency().getMean(), 0);
+        assertEquals(1, metrics.getCallStats("SERVICE.TOPOSERVICE").getTimeoutCount());
+        assertEquals(2, metrics.getCallStats().size());
+    }
+
+    @Test
+    public void recordEvents() {
+        RecordingClientMetrics metrics = new RecordingClientMetrics();
+        String eventName = "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED";
+        metrics.eventQueued(eventName, 100);
+        metrics.eventDecoded(eventName, 200);
+        metrics.eventProcessed(eventName, 300);
+
+        RecordingClientMetrics.EventStats stats = metrics.getEventStats(eventName);
+        assertEquals(1, stats.getCount());
+        assertEquals(100, stats.getQueueLag().getMax());
+        assertEquals(200, stats.getDecodeTime().getMax());
+        assertEquals(300, stats.getCallbackTime().getMax());
+    }
+
+    @Test
+    public void callResult() {
+        assertEquals(ClientMetrics.CallResult.ERROR, ClientMetrics.CallResult.of(null));
+        assertEquals(ClientMetrics.CallResult.NACK, ClientMetrics.CallResult.of(TestHelper.createNack()));
+        assertEquals(ClientMetrics.CallResult.TIMEOUT, ClientMetrics.CallResult.of(
+                new ServiceClient((com.rabbitmq.client.Connection) null).createTimeoutMessage(TestHelper.createNack())));
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Hdr;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsbl.lsbl_value_service.ValueCmd;
+import com.lemonbeat.lsbl.lsbl_value_service.ValueGetRequest;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class RequestTemplateTest {
+
+    private static Lsbl createValueGet(String deviceSgtin) {
+        Lsbl.Cmd cmd = new Lsbl.Cmd();
+        ValueCmd valueCmd = new ValueCmd();
+        ValueGetRequest valueGetRequest = new ValueGetRequest();
+        valueGetRequest.setDeviceSgtin(deviceSgtin);
+        valueCmd.setValueGet(valueGetRequest);
+        cmd.setValueCmd(valueCmd);
+        return LsBL.createCmd(cmd, "SERVICE.VALUESERVICE", "token");
+    }
+
+    @Test
+    public void encodeMatchesMarshalledRequest() {
+        Lsbl request = createValueGet(TestHelper.randomSgtin());
+        RequestTemplate template = RequestTemplate.of(request);
+        assertEquals("SERVICE.VALUESERVICE", template.getTarget());
+
+        byte[] body = template.encode("PARTNER.CLIENT.TEST.1", 4711, "user-token");
+
+        request.getAdr().setSrc("PARTNER.CLIENT.TEST.1");
+        request.getAdr().setSeq(4711);
+        Hdr hdr = new Hdr();
+        hdr.setToken("user-token");
+        request.setHdr(hdr);
+        assertEquals(LsBL.write(request), new String(body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void templateDoesNotModifyRequest() {
+        Lsbl request = createValueGet(TestHelper.randomSgtin());
+        request.getAdr().setSeq(42);
+        String written = LsBL.write(request);
+        RequestTemplate.of(request);
+        assertEquals(written, LsBL.write(request));
+    }
+
+    @Test
+    public void encodeEscapesValues() throws Exception {
+        String deviceSgtin = TestHelper.randomSgtin();
+        RequestTemplate template = RequestTemplate.of(createValueGet(deviceSgtin));
+
+        Lsbl decoded = LsblCodec.decode(template.encode("PARTNER.CLIENT.TEST.2", Long.MAX_VALUE, "a<b&c"));
+        assertEquals("PARTNER.CLIENT.TEST.2", decoded.getAdr().getSrc());
+        assertEquals(Long.MAX_VALUE, decoded.getAdr().getSeq());
+        assertEquals("a<b&c", decoded.getHdr().getToken());
+        assertEquals(deviceSgtin, decoded.getCmd().getValueCmd().getValueGet().getDeviceSgtin());
+    }
+
+}
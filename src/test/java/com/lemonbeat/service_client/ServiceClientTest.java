@@ -4,16 +4,26 @@ import com.lemonbeat.lsbl.LsBL;
 import com.lemonbeat.lsbl.lsbl.Lsbl;
 import com.lemonbeat.lsbl.lsbl_topo_service.GwListGetRequest;
 import com.lemonbeat.lsbl.lsbl_topo_service.TopoCmd;
+import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import org.junit.After;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -65,6 +75,13 @@ public class ServiceClientTest {
         assert metricsCollector.connectionCount == 1;
     }
 
+    @Test
+    public void constructorWithAmqpMetricsCollector() {
+        AmqpMetricsCollector metricsCollector = new AmqpMetricsCollector();
+        serviceClient = new ServiceClient("settings.properties", metricsCollector);
+        assertEquals(1, metricsCollector.snapshot().getConnections());
+    }
+
     @Test
     public void subscribeShouldReceiveEvents() throws Exception {
         CompletableFuture<Lsbl> event = new CompletableFuture<>();
@@ -100,6 +117,117 @@ public class ServiceClientTest {
         assert LsBL.write(lsbl).equals(LsBL.write(expectedEvent));
     }
 
+    @Test
+    public void subscribeWithOptions() throws Exception {
+        String testEventName = "EVENT.APP.SERVICE.EVENT_NAME_" + TestHelper.randomUuid().toUpperCase();
+        serviceClient = new ServiceClient("settings.properties");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch received = new CountDownLatch(20);
+
+        SubscriptionOptions options = new SubscriptionOptions()
+                .setPrefetchCount(10)
+                .setConsumerCount(2)
+                .setExecutor(executor);
+        Subscription subscription = serviceClient.subscribe(testEventName, lsbl -> received.countDown(), options);
+        assertEquals(2, subscription.getConsumerTags().size());
+
+        for(int i = 0; i < 20; i++){
+            TestHelper.publishTestEvent(serviceClient, testEventName);
+        }
+
+        assertTrue(received.await(30, TimeUnit.SECONDS));
+        subscription.cancel();
+        executor.shutdown();
+    }
+
+    @Test
+    public void failedSubscribeClosesItsChannels() throws Exception {
+        Connection connection = new InMemoryBroker().newConnection();
+        List<Channel> channels = new CopyOnWriteArrayList<>();
+        AtomicInteger consumes = new AtomicInteger();
+        // The second consumer channel fails to consume
+        Connection failingConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[]{Connection.class}, (proxy, method, args) -> {
+            Object result = invoke(connection, method, args);
+            if(!"createChannel".equals(method.getName())) {
+                return result;
+            }
+            Channel channel = (Channel) result;
+            channels.add(channel);
+            return Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class[]{Channel.class}, (channelProxy, channelMethod, channelArgs) -> {
+                if("basicConsume".equals(channelMethod.getName()) && consumes.incrementAndGet() == 2) {
+                    throw new IOException("Consume failed");
+                }
+                return invoke(channel, channelMethod, channelArgs);
+            });
+        });
+        serviceClient = new ServiceClient(failingConnection);
+        channels.clear();
+
+        SubscriptionOptions options = new SubscriptionOptions()
+                .setConsumerCount(3)
+                .setLaneCount(2);
+        assertNull(serviceClient.subscribe("EVENT.APP.SERVICE.FAILING", lsbl -> {}, options));
+        assertEquals(2, channels.size());
+        for(Channel channel : channels) {
+            assertFalse(channel.isOpen());
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test
+    public void subscribeWithBatchedAcks() throws Exception {
+        String testEventName = "EVENT.APP.SERVICE.EVENT_NAME_" + TestHelper.randomUuid().toUpperCase();
+        serviceClient = new ServiceClient("settings.properties");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch received = new CountDownLatch(55);
+
+        SubscriptionOptions options = new SubscriptionOptions()
+                .setPrefetchCount(50)
+                .setAckBatchSize(10)
+                .setAckBatchTimeoutMs(50)
+                .setExecutor(executor);
+        Subscription subscription = serviceClient.subscribe(testEventName, lsbl -> received.countDown(), options);
+
+        // 55 events exceed the prefetch count, the last ones are only delivered after earlier batches were acknowledged
+        for(int i = 0; i < 55; i++){
+            TestHelper.publishTestEvent(serviceClient, testEventName);
+        }
+
+        assertTrue(received.await(30, TimeUnit.SECONDS));
+        subscription.cancel();
+        executor.shutdown();
+    }
+
+    @Test
+    public void subscribeValueReports() throws Exception {
+        serviceClient = new ServiceClient("settings.properties");
+        String deviceSgtin = TestHelper.randomSgtin();
+        CompletableFuture<DeviceValueReport> received = new CompletableFuture<>();
+
+        Subscription subscription = serviceClient.subscribeValueReports(valueReport -> {
+            if(valueReport != null && deviceSgtin.equals(valueReport.getDeviceSgtin())){
+                received.complete(valueReport);
+            }
+        });
+
+        Lsbl event = TestHelper.createValueReportedEvent(deviceSgtin, TestHelper.randomSgtin(), TestHelper.createValueReport());
+        Channel channel = serviceClient.getConnection().createChannel();
+        channel.basicPublish("EVENT.APP", "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED", null, LsBL.write(event).getBytes("UTF-8"));
+
+        DeviceValueReport valueReport = received.get(30, TimeUnit.SECONDS);
+        assertEquals(1, valueReport.getValues().size());
+        assertEquals(55.0, valueReport.getValues().get(0).getNumber(), 0.0);
+        subscription.cancel();
+        channel.close();
+    }
+
     @Test
     public void call() throws Exception {
         CompletableFuture<Lsbl> response = new CompletableFuture<>();
@@ -139,6 +267,121 @@ public class ServiceClientTest {
         assert LsBL.isAck(lsblResponse);
     }
 
+    @Test
+    public void callAsync() throws Exception {
+        serviceClient = new ServiceClient("settings.properties");
+
+        Lsbl request = LsBL.create(null, "SERVICE.TOPOSERVICE", 0);
+        Lsbl.Cmd cmd = new Lsbl.Cmd();
+        TopoCmd topoCmd = new TopoCmd();
+        GwListGetRequest gwListGetRequest = new GwListGetRequest();
+        topoCmd.setGwListGet(gwListGetRequest);
+        cmd.setTopoCmd(topoCmd);
+        request.setCmd(cmd);
+
+        TestHelper.mockServiceResponseAck(serviceClient, "SERVICE.TOPOSERVICE");
+        Lsbl lsblResponse = serviceClient.callAsync(request).get(30, TimeUnit.SECONDS);
+        assert LsBL.isAck(lsblResponse);
+        assertFalse(ServiceClient.isTimeout(lsblResponse));
+    }
+
+    @Test
+    public void callAsyncWithTimeout() throws Exception {
+        serviceClient = new ServiceClient("settings.properties");
+
+        Lsbl request = LsBL.create(null, "SERVICE.NOT_EXISTING_" + TestHelper.randomUuid().toUpperCase(), 0);
+        Lsbl.Cmd cmd = new Lsbl.Cmd();
+        TopoCmd topoCmd = new TopoCmd();
+        topoCmd.setGwListGet(new GwListGetRequest());
+        cmd.setTopoCmd(topoCmd);
+        request.setCmd(cmd);
+
+        Lsbl lsblResponse = serviceClient.callAsync(request, 500, TimeUnit.MILLISECONDS).get(30, TimeUnit.SECONDS);
+        assert LsBL.isNack(lsblResponse);
+        assertTrue(ServiceClient.isTimeout(lsblResponse));
+    }
+
+    @Test
+    public void blockedTimeoutCallbackDoesNotDelayOtherTimeouts() throws Exception {
+        serviceClient = new ServiceClient(new InMemoryBroker().newConnection());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            serviceClient.callAsync(notExistingTargetRequest(), 100, TimeUnit.MILLISECONDS).thenAccept(response -> {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+            Lsbl lsblResponse = serviceClient.callAsync(notExistingTargetRequest(), 100, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+            assertTrue(ServiceClient.isTimeout(lsblResponse));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static Lsbl notExistingTargetRequest() {
+        Lsbl request = LsBL.create(null, "SERVICE.NOT_EXISTING_" + TestHelper.randomUuid().toUpperCase(), 0);
+        Lsbl.Cmd cmd = new Lsbl.Cmd();
+        TopoCmd topoCmd = new TopoCmd();
+        topoCmd.setGwListGet(new GwListGetRequest());
+        cmd.setTopoCmd(topoCmd);
+        request.setCmd(cmd);
+        return request;
+    }
+
+    @Test
+    public void callWithSharedReplyQueue() throws Exception {
+        serviceClient = new ServiceClient("settings.properties");
+        serviceClient.setSharedReplyQueue(true);
+        assert serviceClient.isSharedReplyQueue();
+
+        TestHelper.mockServiceResponseAck(serviceClient, "SERVICE.TOPOSERVICE");
+
+        List<CompletableFuture<Lsbl>> responses = new ArrayList<>();
+        for(int i = 0; i < 10; i++){
+            Lsbl request = LsBL.create(null, "SERVICE.TOPOSERVICE", 0);
+            Lsbl.Cmd cmd = new Lsbl.Cmd();
+            TopoCmd topoCmd = new TopoCmd();
+            topoCmd.setGwListGet(new GwListGetRequest());
+            cmd.setTopoCmd(topoCmd);
+            request.setCmd(cmd);
+
+            CompletableFuture<Lsbl> response = new CompletableFuture<>();
+            serviceClient.call(request, response::complete);
+            responses.add(response);
+        }
+
+        for(CompletableFuture<Lsbl> response : responses){
+            assert LsBL.isAck(response.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void callsShouldReuseChannelsFromThePool() throws Exception {
+        serviceClient = new ServiceClient("settings.properties");
+        TestHelper.mockServiceResponseAck(serviceClient, "SERVICE.TOPOSERVICE");
+
+        for(int i = 0; i < 20; i++){
+            Lsbl request = LsBL.create(null, "SERVICE.TOPOSERVICE", 0);
+            Lsbl.Cmd cmd = new Lsbl.Cmd();
+            TopoCmd topoCmd = new TopoCmd();
+            topoCmd.setGwListGet(new GwListGetRequest());
+            cmd.setTopoCmd(topoCmd);
+            request.setCmd(cmd);
+            assert LsBL.isAck(serviceClient.callAwait(request));
+        }
+
+        ChannelPool channelPool = serviceClient.getChannelPool();
+        assertEquals(20, channelPool.getBorrowCount());
+        assertTrue(channelPool.getCreatedCount() <= channelPool.getSize());
+        assertEquals(0, channelPool.getBorrowedCount());
+    }
+
     @Test
     public void tokenGetterAndSetter() {
         serviceClient = new ServiceClient("settings.properties");
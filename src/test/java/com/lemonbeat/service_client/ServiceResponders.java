@@ -0,0 +1,190 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsbl.lsbl.MessageType;
+import com.lemonbeat.lsbl.lsbl_common.CommonResponse;
+import com.lemonbeat.lsbl.lsbl_common_base_types.AckResponse;
+import com.lemonbeat.lsbl.lsbl_topo_service.GwListGetResponse;
+import com.lemonbeat.lsbl.lsbl_topo_service.TopoCmd;
+import com.lemonbeat.lsbl.lsbl_topo_service.TopoResponse;
+import com.lemonbeat.lsbl.lsbl_user_service.UserCmd;
+import com.lemonbeat.lsbl.lsbl_user_service.UserLoginResponse;
+import com.lemonbeat.lsbl.lsbl_user_service.UserResponse;
+import com.lemonbeat.lsbl.lsbl_user_service.UserTokenRefreshResponse;
+import com.lemonbeat.lsbl.lsbl_value_service.ValueCmd;
+import com.lemonbeat.lsbl.lsbl_value_service.ValueGetRequest;
+import com.lemonbeat.lsbl.lsbl_value_service.ValueGetResponse;
+import com.lemonbeat.lsbl.lsbl_value_service.ValueResponse;
+import com.rabbitmq.client.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Simulated backend services for the InMemoryBroker.
+ * Consumes the requests of the user, value, topo and metadata service from the DMZ exchange
+ * and publishes a plausible response to the PARTNER exchange, like the mocks of the TestHelper do for single calls.
+ */
+public class ServiceResponders {
+
+    public static final String[] SERVICE_QUEUES = {
+            "SERVICE.USERSERVICE", "SERVICE.VALUESERVICE", "SERVICE.TOPOSERVICE", "SERVICE.METADATASERVICE"
+    };
+
+    private final Connection connection;
+    private final Map<String, Function<Lsbl, Lsbl>> responders = new ConcurrentHashMap<>();
+    private final LongAdder requestCount = new LongAdder();
+    private Channel channel;
+
+    /**
+     * @param connection Connection to the broker the services should answer on
+     */
+    public ServiceResponders(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Replaces the default responses of a service, e.g. to answer with a Nack.
+     * The sequence number and addresses of the response are set from the request,
+     * a responder that returns null leaves the request unanswered, e.g. to let the call time out.
+     * @param serviceQueue Service queue, e.g. SERVICE.VALUESERVICE
+     * @param responder Function that creates the response for a request
+     * @return This instance
+     */
+    public ServiceResponders respond(String serviceQueue, Function<Lsbl, Lsbl> responder) {
+        responders.put(serviceQueue, responder);
+        return this;
+    }
+
+    /**
+     * Starts consuming the service queues.
+     * @return This instance
+     * @throws IOException if the queues could not be declared
+     */
+    public ServiceResponders start() throws IOException {
+        channel = connection.createChannel();
+        for(String serviceQueue : SERVICE_QUEUES) {
+            String queueName = "MOCK." + serviceQueue;
+            channel.queueDeclare(queueName, false, true, true, null);
+            channel.queueBind(queueName, "DMZ", serviceQueue);
+            channel.basicConsume(queueName, true, new DefaultConsumer(channel) {
+                @Override
+                public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+                    requestCount.increment();
+                    try {
+                        Lsbl request = LsblCodec.decode(body);
+                        Lsbl response = responders.getOrDefault(serviceQueue, ServiceResponders::defaultResponse).apply(request);
+                        if(response == null) {
+                            return;
+                        }
+                        response.getAdr().setSeq(request.getAdr().getSeq());
+                        response.getAdr().setSrc(request.getAdr().getTarget());
+                        response.getAdr().setTarget(request.getAdr().getSrc());
+                        getChannel().basicPublish("PARTNER", request.getAdr().getSrc(), null, LsblCodec.encode(response));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        return this;
+    }
+
+    /**
+     * Stops consuming, the service queues are deleted with the channel.
+     */
+    public void close() {
+        try {
+            if(channel != null && channel.isOpen()) {
+                channel.close();
+            }
+        } catch (IOException | TimeoutException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the number of requests the services received.
+     * @return Number of requests
+     */
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    /**
+     * Answers login and token refresh with a token, value_get with a value report, gw_list_get and gw_device_list_get
+     * with a small list and every other request with an Ack.
+     * @param request Received request
+     * @return Response without addresses
+     */
+    static Lsbl defaultResponse(Lsbl request) {
+        Lsbl.Cmd cmd = request.getCmd();
+        if(cmd != null && cmd.getUserCmd() != null) {
+            UserCmd userCmd = cmd.getUserCmd();
+            if(userCmd.getUserLogin() != null) {
+                UserLoginResponse userLogin = new UserLoginResponse();
+                userLogin.setToken(TestHelper.randomUuid());
+                userLogin.setExpires(System.currentTimeMillis() / 1000 + 3600);
+                UserResponse userResponse = new UserResponse();
+                userResponse.setUserLogin(userLogin);
+                return response(r -> r.setUserResponse(userResponse));
+            }
+            if(userCmd.getUserTokenRefresh() != null) {
+                UserTokenRefreshResponse userTokenRefresh = new UserTokenRefreshResponse();
+                userTokenRefresh.setToken(TestHelper.randomUuid());
+                userTokenRefresh.setExpires(System.currentTimeMillis() / 1000 + 3600);
+                UserResponse userResponse = new UserResponse();
+                userResponse.setUserTokenRefresh(userTokenRefresh);
+                return response(r -> r.setUserResponse(userResponse));
+            }
+        }
+        if(cmd != null && cmd.getValueCmd() != null && cmd.getValueCmd().getValueGet() != null) {
+            ValueCmd valueCmd = cmd.getValueCmd();
+            ValueGetRequest valueGetRequest = valueCmd.getValueGet();
+            ValueGetResponse valueGet = new ValueGetResponse();
+            valueGet.setDeviceSgtin(valueGetRequest.getDeviceSgtin() != null ? valueGetRequest.getDeviceSgtin() : TestHelper.randomSgtin());
+            valueGet.setGwSgtin(valueGetRequest.getGwSgtin());
+            valueGet.setLsdl(TestHelper.createValueReport());
+            ValueResponse valueResponse = new ValueResponse();
+            valueResponse.setValueGet(valueGet);
+            return response(r -> r.setValueResponse(valueResponse));
+        }
+        if(cmd != null && cmd.getTopoCmd() != null) {
+            TopoCmd topoCmd = cmd.getTopoCmd();
+            if(topoCmd.getGwListGet() != null) {
+                GwListGetResponse gwListGet = new GwListGetResponse();
+                for(int i = 0; i < 3; i++) {
+                    gwListGet.getGw().add(TestHelper.randomSgtin());
+                }
+                gwListGet.setCount(3);
+                TopoResponse topoResponse = new TopoResponse();
+                topoResponse.setGwListGet(gwListGet);
+                return response(r -> r.setTopoResponse(topoResponse));
+            }
+            if(topoCmd.getGwDeviceListGet() != null) {
+                return TestHelper.createDeviceListResponse(3);
+            }
+        }
+        Lsbl ack = LsBL.create(null, null, 0, MessageType.LSBL_APP_ACK);
+        Lsbl.Response response = new Lsbl.Response();
+        CommonResponse commonResponse = new CommonResponse();
+        commonResponse.setAck(new AckResponse());
+        response.setCommonResponse(commonResponse);
+        ack.setResponse(response);
+        return ack;
+    }
+
+    private static Lsbl response(java.util.function.Consumer<Lsbl.Response> content) {
+        Lsbl lsbl = LsBL.create(null, null, 0, MessageType.LSBL_RESPONSE);
+        Lsbl.Response response = new Lsbl.Response();
+        content.accept(response);
+        lsbl.setResponse(response);
+        return lsbl;
+    }
+
+}
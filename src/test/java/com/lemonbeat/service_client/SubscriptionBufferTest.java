@@ -0,0 +1,124 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.rabbitmq.client.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs subscriptions with a bounded buffer against the InMemoryBroker.
+ */
+public class SubscriptionBufferTest {
+
+    private static final String VALUE_REPORTED = "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED";
+
+    InMemoryBroker broker;
+    ServiceClient serviceClient;
+    ExecutorService executor;
+    RecordingClientMetrics metrics = new RecordingClientMetrics();
+
+    @Before
+    public void setup() {
+        broker = new InMemoryBroker();
+        serviceClient = new ServiceClient(broker.newConnection());
+        serviceClient.setMetrics(metrics);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        executor.shutdownNow();
+        serviceClient.getConnection().close();
+    }
+
+    private void publishValueReports(int count) throws IOException {
+        Lsbl event = TestHelper.createValueReportedEvent(TestHelper.randomSgtin(), TestHelper.randomSgtin(), TestHelper.createValueReport());
+        byte[] body = LsblCodec.encode(event);
+        Channel channel = broker.newConnection().createChannel();
+        for(int i = 0; i < count; i++) {
+            channel.basicPublish("EVENT.APP", VALUE_REPORTED, null, body);
+        }
+    }
+
+    @Test
+    public void pausesWhenTheBufferIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger processed = new AtomicInteger();
+        SubscriptionOptions options = new SubscriptionOptions()
+                .setPrefetchCount(20)
+                .setExecutor(executor)
+                .setBuffer(10, 2);
+        Subscription subscription = serviceClient.subscribeValueReports(valueReport -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.incrementAndGet();
+        }, options);
+
+        publishValueReports(200);
+        TestHelper.await(subscription::isPaused);
+        Thread.sleep(100);
+
+        // The deliveries sent before the pause are buffered, the rest stays in the queue
+        assertTrue(subscription.getBufferDepth() <= 30);
+        Channel channel = broker.newConnection().createChannel();
+        assertTrue(channel.messageCount(subscription.getQueueName()) >= 170);
+
+        release.countDown();
+        TestHelper.await(() -> processed.get() == 200);
+        TestHelper.await(() -> subscription.getBufferDepth() == 0);
+
+        assertFalse(subscription.isPaused());
+        assertTrue(subscription.getPauseCount() >= 1);
+        RecordingClientMetrics.EventStats stats = metrics.getEventStats(VALUE_REPORTED);
+        assertTrue(stats.getMaxBufferDepth() >= 10);
+        assertTrue(stats.getMaxBufferDepth() <= 30);
+        assertEquals(subscription.getPauseCount(), stats.getPauseCount());
+        assertEquals(subscription.getPauseCount(), stats.getPauseTime().getCount());
+        subscription.cancel();
+    }
+
+    @Test
+    public void staysActiveBelowTheHighWatermark() throws Exception {
+        AtomicInteger processed = new AtomicInteger();
+        SubscriptionOptions options = new SubscriptionOptions()
+                .setPrefetchCount(5)
+                .setExecutor(executor)
+                .setBuffer(10, 2);
+        Subscription subscription = serviceClient.subscribeValueReports(valueReport -> processed.incrementAndGet(), options);
+
+        publishValueReports(100);
+        TestHelper.await(() -> processed.get() == 100);
+
+        assertEquals(0, subscription.getPauseCount());
+        assertEquals(0, subscription.getPausedTimeMs());
+        subscription.cancel();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBufferOnDurableSubscription() {
+        SubscriptionOptions options = new SubscriptionOptions()
+                .setDurable(true)
+                .setExecutor(executor)
+                .setBuffer(10, 2);
+        serviceClient.subscribeValueReports(valueReport -> {}, options);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lowWatermarkBelowHighWatermark() {
+        new SubscriptionOptions().setBuffer(10, 10);
+    }
+
+}
@@ -9,6 +9,11 @@ import com.lemonbeat.lsbl.lsbl_common_base_types.NackResponse;
 import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataAddedEvent;
 import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataAttribute;
 import com.lemonbeat.lsbl.lsbl_metadata_service.MetadataEvent;
+import com.lemonbeat.lsbl.lsbl_topo_service.DeviceList;
+import com.lemonbeat.lsbl.lsbl_topo_service.GwDeviceListGetResponse;
+import com.lemonbeat.lsbl.lsbl_topo_service.TopoResponse;
+import com.lemonbeat.lsbl.lsbl_value_service.DeviceValueReported;
+import com.lemonbeat.lsbl.lsbl_value_service.ValueEvent;
 import com.rabbitmq.client.*;
 
 import java.io.IOException;
@@ -18,12 +23,29 @@ import java.util.Calendar;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertTrue;
 
 /**
  * Various methods to generate test data for unit tests.
  */
 public class TestHelper {
 
+    /**
+     * Waits up to 10 seconds until the condition is met, e.g. until the events of a subscription were received.
+     * @param condition Condition that is polled every 10 ms
+     * @throws AssertionError if the condition is not met in time
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
     /**
      * Returns a random string with hex characters with the given length.
      * @param length Length of the string
@@ -87,11 +109,11 @@ public class TestHelper {
     }
 
     /**
-     * Publishes a test event with the given name.
-     * @param serviceClient ServiceClient instance with the current connection
-     * @return Lsbl event that was published
+     * Creates a metadata added test event with the given name.
+     * @param eventName Name of the event
+     * @return Lsbl event
      */
-    public static Lsbl publishTestEvent(ServiceClient serviceClient, String eventName) throws Exception {
+    public static Lsbl createTestEvent(String eventName) {
         Lsbl lsbl = LsBL.create("SERVICE.TEST", eventName, 42, MessageType.LSBL_EVENT);
         Lsbl.Event event = new Lsbl.Event();
         MetadataEvent metadataEvent = new MetadataEvent();
@@ -101,12 +123,67 @@ public class TestHelper {
         metadataEvent.setMetadataAdded(metadataAddedEvent);
         event.setMetadataEvent(metadataEvent);
         lsbl.setEvent(event);
+        return lsbl;
+    }
+
+    /**
+     * Creates a gw_device_list_get response with the given number of included devices.
+     * @param devices Number of devices, each with a device description report
+     * @return Lsbl response
+     */
+    public static Lsbl createDeviceListResponse(int devices) {
+        DeviceList included = new DeviceList();
+        for(int i = 0; i < devices; i++){
+            included.getLsdl().add(createDeviceDescriptionReport());
+        }
+        GwDeviceListGetResponse gwDeviceListGetResponse = new GwDeviceListGetResponse();
+        gwDeviceListGetResponse.setDeviceList(included);
+        gwDeviceListGetResponse.setUnincludedDeviceList(new DeviceList());
+        TopoResponse topoResponse = new TopoResponse();
+        topoResponse.setGwDeviceListGet(gwDeviceListGetResponse);
+        Lsbl lsbl = LsBL.create(null, null, 42, MessageType.LSBL_RESPONSE);
+        Lsbl.Response response = new Lsbl.Response();
+        response.setTopoResponse(topoResponse);
+        lsbl.setResponse(response);
+        return lsbl;
+    }
+
+    /**
+     * Publishes a test event with the given name.
+     * @param serviceClient ServiceClient instance with the current connection
+     * @return Lsbl event that was published
+     */
+    public static Lsbl publishTestEvent(ServiceClient serviceClient, String eventName) throws Exception {
+        Lsbl lsbl = createTestEvent(eventName);
 
         Channel channel = serviceClient.getConnection().createChannel();
         channel.basicPublish("EVENT.APP", eventName, null, LsBL.write(lsbl).getBytes("UTF-8"));
         return lsbl;
     }
 
+    /**
+     * Creates a EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED event.
+     * @param deviceSgtin SGTIN of the device
+     * @param gwSgtin SGTIN of the gateway
+     * @param lsdl LsDL value report XML
+     * @return Lsbl event
+     */
+    public static Lsbl createValueReportedEvent(String deviceSgtin, String gwSgtin, String lsdl) {
+        Lsbl lsbl = LsBL.create("SERVICE.VALUESERVICE", "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED", 42, MessageType.LSBL_EVENT);
+        Lsbl.Event event = new Lsbl.Event();
+        event.setName("DEVICE_VALUE_REPORTED");
+        event.setTime(BigInteger.valueOf(1700000000L));
+        ValueEvent valueEvent = new ValueEvent();
+        DeviceValueReported deviceValueReported = new DeviceValueReported();
+        deviceValueReported.setDeviceSgtin(deviceSgtin);
+        deviceValueReported.setGwSgtin(gwSgtin);
+        deviceValueReported.setLsdl(lsdl);
+        valueEvent.setDeviceValueReported(deviceValueReported);
+        event.setValueEvent(valueEvent);
+        lsbl.setEvent(event);
+        return lsbl;
+    }
+
     /**
      * Mocks a service ACK response.
      * Returns the received command for further assertions.
@@ -254,6 +331,19 @@ public class TestHelper {
         "</network>";
     }
 
+    /**
+     * Returns a LsDL value report with the given number of number values.
+     * @param values Number of value_report entries
+     * @return LsDL Value Report XML
+     */
+    public static String createValueReport(int values) {
+        StringBuilder lsdl = new StringBuilder("<network xmlns=\"urn:valuexsd\" version=\"1\">\n<device version=\"1\">\n");
+        for(int i = 1; i <= values; i++) {
+            lsdl.append("<value_report value_id=\"").append(i).append("\" timestamp=\"1700000000\" number=\"").append(i * 1.5).append("\"/>\n");
+        }
+        return lsdl.append("</device>\n</network>").toString();
+    }
+
     public static String createValueReport() {
         return "<network xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns=\"urn:valuexsd\" version=\"1\" xsi:noNamespaceSchemaLocation=\"../../xsd/value.xsd\">\n" +
                     "<device version=\"1\">\n" +
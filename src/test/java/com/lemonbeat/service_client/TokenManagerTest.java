@@ -0,0 +1,161 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the TokenManager against the InMemoryBroker and the simulated user service.
+ */
+public class TokenManagerTest {
+
+    InMemoryBroker broker;
+    ServiceResponders services;
+    ServiceClient serviceClient;
+    UserServiceClient userServiceClient;
+    TokenManager tokenManager;
+
+    @Before
+    public void setup() throws IOException {
+        broker = new InMemoryBroker();
+        services = new ServiceResponders(broker.newConnection()).start();
+        serviceClient = new ServiceClient(broker.newConnection());
+        userServiceClient = new UserServiceClient(serviceClient);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if(tokenManager != null) {
+            tokenManager.stop();
+        }
+        services.close();
+        serviceClient.getConnection().close();
+    }
+
+    private static long nowSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private void awaitToken(String oldToken) throws InterruptedException {
+        TestHelper.await(() -> serviceClient.getToken() != null && !serviceClient.getToken().equals(oldToken));
+    }
+
+    @Test
+    public void startLogsIn() throws Exception {
+        tokenManager = userServiceClient.startTokenRefresh("user", "password", 60);
+        awaitToken(null);
+
+        assertNotNull(serviceClient.getToken());
+        assertTrue(serviceClient.getTokenExpires() > nowSeconds());
+        assertEquals(1, tokenManager.getLoginCount());
+        assertSame(tokenManager, serviceClient.getTokenManager());
+    }
+
+    @Test
+    public void refreshesAheadOfTheExpiry() throws Exception {
+        serviceClient.setToken("token", nowSeconds() + 62);
+        tokenManager = userServiceClient.startTokenRefresh("user", "password", 60);
+        awaitToken("token");
+
+        assertNotEquals("token", serviceClient.getToken());
+        assertEquals(1, tokenManager.getRefreshCount());
+        assertEquals(0, tokenManager.getLoginCount());
+    }
+
+    @Test
+    public void shortLivedTokenIsNotRefreshedInALoop() throws Exception {
+        // The simulated user service issues tokens that expire after an hour
+        tokenManager = userServiceClient.startTokenRefresh("user", "password", 7200);
+        awaitToken(null);
+        Thread.sleep(500);
+
+        assertEquals(1, tokenManager.getLoginCount());
+        assertEquals(0, tokenManager.getRefreshCount());
+    }
+
+    @Test
+    public void concurrentRefreshesShareOneRequest() throws Exception {
+        AtomicInteger refreshRequests = new AtomicInteger();
+        services.respond("SERVICE.USERSERVICE", request -> {
+            refreshRequests.incrementAndGet();
+            return ServiceResponders.defaultResponse(request);
+        });
+        serviceClient.setToken("token", nowSeconds() + 3600);
+        tokenManager = userServiceClient.startTokenRefresh("user", "password", 60);
+
+        List<CompletableFuture<String>> refreshes = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            refreshes.add(tokenManager.refresh());
+        }
+        for(CompletableFuture<String> refresh : refreshes) {
+            assertEquals(serviceClient.getToken(), refresh.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, refreshRequests.get());
+    }
+
+    @Test
+    public void failedRefreshLogsIn() throws Exception {
+        services.respond("SERVICE.USERSERVICE", request -> request.getCmd().getUserCmd().getUserTokenRefresh() != null
+                ? TestHelper.createNack("Invalid token")
+                : ServiceResponders.defaultResponse(request));
+        serviceClient.setToken("token", nowSeconds() + 3600);
+        tokenManager = userServiceClient.startTokenRefresh("user", "password", 60);
+
+        String token = tokenManager.refresh().get(10, TimeUnit.SECONDS);
+        assertNotEquals("token", token);
+        assertEquals(0, tokenManager.getRefreshCount());
+        assertEquals(1, tokenManager.getLoginCount());
+    }
+
+    @Test
+    public void callsWaitForTheNewToken() throws Exception {
+        List<String> sentTokens = new CopyOnWriteArrayList<>();
+        services.respond("SERVICE.VALUESERVICE", request -> {
+            sentTokens.add(request.getHdr().getToken());
+            return ServiceResponders.defaultResponse(request);
+        });
+        serviceClient.setToken("token", nowSeconds() + 3600);
+        tokenManager = userServiceClient.startTokenRefresh("user", "password", 60);
+        serviceClient.setToken("expired", nowSeconds() - 10);
+
+        Lsbl response = new ValueServiceClient(serviceClient).getValuesBySgtinAwait(TestHelper.randomSgtin());
+
+        assertTrue(LsBL.isResponse(response));
+        assertEquals(1, sentTokens.size());
+        assertNotEquals("expired", sentTokens.get(0));
+        assertEquals(serviceClient.getToken(), sentTokens.get(0));
+        assertEquals(1, tokenManager.getLoginCount());
+    }
+
+    @Test
+    public void callsFailIfNoTokenCanBeAcquired() throws Exception {
+        AtomicInteger valueRequests = new AtomicInteger();
+        services.respond("SERVICE.USERSERVICE", request -> TestHelper.createNack("Invalid credentials"));
+        services.respond("SERVICE.VALUESERVICE", request -> {
+            valueRequests.incrementAndGet();
+            return ServiceResponders.defaultResponse(request);
+        });
+        serviceClient.setToken("expired", nowSeconds() - 10);
+        tokenManager = userServiceClient.startTokenRefresh("user", "wrong", 60);
+
+        Lsbl response = new ValueServiceClient(serviceClient).getValuesBySgtinAwait(TestHelper.randomSgtin());
+
+        assertTrue(LsBL.isNack(response));
+        assertEquals("token_expired", response.getResponse().getCommonResponse().getNack().getErrorCode());
+        assertEquals(0, valueRequests.get());
+        assertTrue(tokenManager.getFailureCount() > 0);
+    }
+
+}
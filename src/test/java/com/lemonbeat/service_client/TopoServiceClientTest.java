@@ -73,6 +73,20 @@ public class TopoServiceClientTest {
         assert response.getResponse().getTopoResponse().getGwListGet().getGw().size() == 5;
     }
 
+    @Test
+    public void getGatewayListAsync() throws Exception {
+        Lsbl serviceResponse = createGatewayListResponse(5);
+        CompletableFuture<Lsbl> mock = TestHelper.mockServiceResponse(serviceClient, "SERVICE.TOPOSERVICE", serviceResponse);
+
+        Lsbl response = topoServiceClient.getGatewayListAsync().get();
+
+        Lsbl sent = mock.get();
+        assert sent.getCmd().getTopoCmd().getGwListGet() != null;
+
+        assert LsBL.isResponse(response);
+        assert response.getResponse().getTopoResponse().getGwListGet().getGw().size() == 5;
+    }
+
     @Test
     public void getDeviceList() throws Exception {
         String gatewaySgtin = TestHelper.randomSgtin();
@@ -116,6 +116,23 @@ public class UserServiceClientTest {
         assertEquals(expectedExpires, serviceClient.getTokenExpires());
     }
 
+    @Test
+    public void loginAsyncWithValidCredentials() throws Exception {
+        String username = serviceClient.getSettings().getProperty("BACKEND_USERNAME");
+        String password = serviceClient.getSettings().getProperty("BACKEND_PASSWORD");
+
+        Lsbl loginResponse = createLoginResponse("SOMEJWTTOKEN");
+        CompletableFuture<Lsbl> mock = TestHelper.mockServiceResponse(serviceClient, "SERVICE.USERSERVICE", loginResponse);
+        Lsbl response = userServiceClient.loginAsync(username, password).get();
+
+        Lsbl sent = mock.get();
+        assert sent.getCmd().getUserCmd().getUserLogin().getUsername().equals(username);
+
+        assert LsBL.isResponse(response);
+        String expectedToken = response.getResponse().getUserResponse().getUserLogin().getToken();
+        assertEquals(expectedToken, serviceClient.getToken());
+    }
+
     @Test
     public void loginAwaitWithoutParameters() throws Exception {
         Lsbl loginResponse = createLoginResponse("SOMEJWTTOKEN");
@@ -0,0 +1,73 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.LsBL;
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.lemonbeat.lsdl.LsDL;
+import com.lemonbeat.lsdl.value.ValueReportType;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ValueReportDecoderTest {
+
+    @Test
+    public void decode() throws Exception {
+        String deviceSgtin = TestHelper.randomSgtin();
+        String gwSgtin = TestHelper.randomSgtin();
+        String lsdl = "<network xmlns=\"urn:valuexsd\" version=\"1\">\n<device version=\"1\">\n" +
+                "<value_report value_id=\"1\" timestamp=\"1700000001\" number=\"55.5\"/>\n" +
+                "<value_report value_id=\"2\" timestamp=\"1700000002\" string=\"on &amp; off\"/>\n" +
+                "<value_report value_id=\"3\" hexBinary=\"00FF1a\"/>\n" +
+                "</device>\n</network>";
+        Lsbl event = TestHelper.createValueReportedEvent(deviceSgtin, gwSgtin, lsdl);
+        byte[] body = ("\uFEFF" + LsBL.write(event)).getBytes(StandardCharsets.UTF_8);
+
+        DeviceValueReport valueReport = ValueReportDecoder.decode(body);
+        assertEquals(deviceSgtin, valueReport.getDeviceSgtin());
+        assertEquals(gwSgtin, valueReport.getGwSgtin());
+        assertEquals(1700000000L, valueReport.getTime());
+
+        List<DeviceValueReport.Value> values = valueReport.getValues();
+        assertEquals(3, values.size());
+        assertEquals(1, values.get(0).getValueId());
+        assertEquals(1700000001L, values.get(0).getTimestamp());
+        assertEquals(55.5, values.get(0).getNumber(), 0.0);
+        assertNull(values.get(0).getString());
+        assertEquals("on & off", values.get(1).getString());
+        assertNull(values.get(1).getNumber());
+        assertEquals(0, values.get(2).getTimestamp());
+        assertArrayEquals(new byte[]{0x00, (byte) 0xFF, 0x1A}, values.get(2).getHexBinary());
+    }
+
+    @Test
+    public void decodeMatchesJaxb() throws Exception {
+        Lsbl event = TestHelper.createValueReportedEvent(TestHelper.randomSgtin(), TestHelper.randomSgtin(), TestHelper.createValueReport(10));
+        byte[] body = LsBL.write(event).getBytes(StandardCharsets.UTF_8);
+
+        DeviceValueReport valueReport = ValueReportDecoder.decode(body);
+        List<ValueReportType> expected = LsDL.parseValueReport(event.getEvent().getValueEvent().getDeviceValueReported().getLsdl());
+        assertEquals(expected.size(), valueReport.getValues().size());
+        for(int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getValueId().longValue(), valueReport.getValues().get(i).getValueId());
+            assertEquals(expected.get(i).getTimestamp().longValue(), valueReport.getValues().get(i).getTimestamp());
+            assertEquals(expected.get(i).getNumber(), valueReport.getValues().get(i).getNumber());
+        }
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void decodeInvalidNumber() throws Exception {
+        ValueReportDecoder.decodeValues("<network xmlns=\"urn:valuexsd\" version=\"1\"><device version=\"1\">" +
+                "<value_report value_id=\"1\" number=\"12,5\"/></device></network>");
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void decodeOtherEvent() throws Exception {
+        byte[] body = LsBL.write(LsBL.create("SERVICE.TEST", "EVENT.APP.SERVICE.TEST", 42)).getBytes(StandardCharsets.UTF_8);
+        ValueReportDecoder.decode(body);
+    }
+
+}
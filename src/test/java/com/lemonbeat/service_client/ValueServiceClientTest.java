@@ -75,6 +75,41 @@ public class ValueServiceClientTest {
         assert LsBL.isResponse(response);
     }
 
+    @Test
+    public void getValuesBySgtinAsync() throws Exception {
+        String deviceSgtin = TestHelper.randomSgtin();
+
+        Lsbl serviceResponse = createValueGetResponse(deviceSgtin);
+        CompletableFuture<Lsbl> mock = TestHelper.mockServiceResponse(serviceClient, "SERVICE.VALUESERVICE", serviceResponse);
+
+        Lsbl response = valueServiceClient.getValuesBySgtinAsync(deviceSgtin).get();
+
+        Lsbl sent = mock.get();
+        assert sent.getCmd().getValueCmd().getValueGet().getDeviceSgtin().equals(deviceSgtin);
+
+        assert LsBL.isResponse(response);
+    }
+
+    @Test
+    public void getValuesBySgtinTemplate() throws Exception {
+        String deviceSgtin = TestHelper.randomSgtin();
+        serviceClient.setToken("template-token");
+        RequestTemplate template = valueServiceClient.getValuesBySgtinTemplate(deviceSgtin);
+
+        for(int i = 0; i < 2; i++){
+            Lsbl serviceResponse = createValueGetResponse(deviceSgtin);
+            CompletableFuture<Lsbl> mock = TestHelper.mockServiceResponse(serviceClient, "SERVICE.VALUESERVICE", serviceResponse);
+
+            Lsbl response = serviceClient.callAsync(template).get();
+
+            Lsbl sent = mock.get();
+            assert sent.getCmd().getValueCmd().getValueGet().getDeviceSgtin().equals(deviceSgtin);
+            assertEquals("template-token", sent.getHdr().getToken());
+
+            assert LsBL.isResponse(response);
+        }
+    }
+
     @Test
     public void getValuesByUuid() throws Exception {
         String deviceUuid = TestHelper.randomUuid();
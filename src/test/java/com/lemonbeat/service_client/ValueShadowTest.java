@@ -0,0 +1,168 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.rabbitmq.client.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the ValueShadow against the InMemoryBroker and the simulated value service.
+ */
+public class ValueShadowTest {
+
+    InMemoryBroker broker;
+    ServiceResponders services;
+    ServiceClient serviceClient;
+    ValueShadow shadow;
+    AtomicInteger valueRequests = new AtomicInteger();
+
+    @Before
+    public void setup() throws IOException {
+        broker = new InMemoryBroker();
+        services = new ServiceResponders(broker.newConnection()).start();
+        services.respond("SERVICE.VALUESERVICE", request -> {
+            valueRequests.incrementAndGet();
+            return ServiceResponders.defaultResponse(request);
+        });
+        serviceClient = new ServiceClient(broker.newConnection());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if(shadow != null) {
+            shadow.close();
+        }
+        services.close();
+        serviceClient.getConnection().close();
+    }
+
+    private void publishValueReport(String deviceSgtin, int values) throws IOException {
+        Lsbl event = TestHelper.createValueReportedEvent(deviceSgtin, TestHelper.randomSgtin(), TestHelper.createValueReport(values));
+        Channel channel = broker.newConnection().createChannel();
+        channel.basicPublish("EVENT.APP", "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED", null, LsblCodec.encode(event));
+    }
+
+    private void awaitReports(long count) throws InterruptedException {
+        TestHelper.await(() -> shadow.getReportCount() >= count);
+        assertEquals(count, shadow.getReportCount());
+    }
+
+    private static DeviceValueReport report(String deviceSgtin, DeviceValueReport.Value... values) {
+        return new DeviceValueReport(deviceSgtin, null, 0, Arrays.asList(values));
+    }
+
+    @Test
+    public void answersReportedValuesLocally() throws Exception {
+        shadow = new ValueShadow(serviceClient, 1, TimeUnit.HOURS).start();
+        String sgtin = TestHelper.randomSgtin();
+
+        publishValueReport(sgtin, 3);
+        awaitReports(1);
+
+        assertEquals(3, shadow.getValues(sgtin).size());
+        assertEquals(3.0, shadow.getValue(sgtin, 2).getNumber(), 0.0);
+        assertEquals(4.5, shadow.getValueAsync(sgtin, 3).get(10, TimeUnit.SECONDS).getNumber(), 0.0);
+        assertNull(shadow.getValue(sgtin, 4));
+        assertEquals(0, valueRequests.get());
+        assertEquals(3, shadow.getHitCount());
+    }
+
+    @Test
+    public void fetchesUnknownDevicesOnce() throws Exception {
+        shadow = new ValueShadow(serviceClient, 1, TimeUnit.HOURS);
+        String sgtin = TestHelper.randomSgtin();
+
+        CompletableFuture<DeviceValueReport.Value> first = shadow.getValueAsync(sgtin, 1);
+        CompletableFuture<List<DeviceValueReport.Value>> second = shadow.getValuesAsync(sgtin);
+
+        assertEquals(55.0, first.get(10, TimeUnit.SECONDS).getNumber(), 0.0);
+        assertEquals(1, second.get(10, TimeUnit.SECONDS).size());
+        assertEquals(55.0, shadow.getValue(sgtin, 1).getNumber(), 0.0);
+        assertEquals(1, valueRequests.get());
+        assertEquals(1, shadow.getMissCount());
+        assertEquals(1, shadow.getDeviceCount());
+    }
+
+    @Test
+    public void fetchesStaleValuesAgain() throws Exception {
+        shadow = new ValueShadow(serviceClient, 50, TimeUnit.MILLISECONDS);
+        String sgtin = TestHelper.randomSgtin();
+        shadow.update(report(sgtin, new DeviceValueReport.Value(1, 0, 42.0, null, null)));
+        assertEquals(42.0, shadow.getValueAsync(sgtin, 1).get(10, TimeUnit.SECONDS).getNumber(), 0.0);
+
+        Thread.sleep(100);
+
+        assertNull(shadow.getValue(sgtin, 1));
+        assertEquals(55.0, shadow.getValueAsync(sgtin, 1).get(10, TimeUnit.SECONDS).getNumber(), 0.0);
+        assertEquals(1, valueRequests.get());
+        assertEquals(2, shadow.getStaleCount());
+    }
+
+    @Test
+    public void keepsTheNewerValue() {
+        shadow = new ValueShadow(serviceClient, 1, TimeUnit.HOURS);
+        String sgtin = TestHelper.randomSgtin();
+
+        shadow.update(report(sgtin,
+                new DeviceValueReport.Value(1, 200, 1.0, null, null),
+                new DeviceValueReport.Value(2, 200, null, "on", null)));
+        shadow.update(report(sgtin,
+                new DeviceValueReport.Value(1, 100, 2.0, null, null),
+                new DeviceValueReport.Value(2, 300, null, null, new byte[] { 0x0A }),
+                new DeviceValueReport.Value(3, 0, 3.0, null, null)));
+
+        assertEquals(1.0, shadow.getValue(sgtin, 1).getNumber(), 0.0);
+        assertNull(shadow.getValue(sgtin, 2).getString());
+        assertArrayEquals(new byte[] { 0x0A }, shadow.getValue(sgtin, 2).getHexBinary());
+        assertEquals(300, shadow.getValue(sgtin, 2).getTimestamp());
+        assertEquals(3.0, shadow.getValue(sgtin, 3).getNumber(), 0.0);
+        assertEquals(3, shadow.getValues(sgtin).size());
+    }
+
+    @Test
+    public void valueReportedTwiceInOneReport() {
+        shadow = new ValueShadow(serviceClient, 1, TimeUnit.HOURS);
+        String sgtin = TestHelper.randomSgtin();
+
+        shadow.update(report(sgtin,
+                new DeviceValueReport.Value(1, 100, 1.0, null, null),
+                new DeviceValueReport.Value(1, 200, 2.0, null, null),
+                new DeviceValueReport.Value(2, 100, 3.0, null, null)));
+        assertEquals(2, shadow.getValues(sgtin).size());
+        assertEquals(2.0, shadow.getValue(sgtin, 1).getNumber(), 0.0);
+
+        shadow.update(report(sgtin,
+                new DeviceValueReport.Value(3, 300, 4.0, null, null),
+                new DeviceValueReport.Value(3, 300, 5.0, null, null)));
+        List<DeviceValueReport.Value> values = shadow.getValues(sgtin);
+        assertEquals(3, values.size());
+        assertEquals(5.0, shadow.getValue(sgtin, 3).getNumber(), 0.0);
+    }
+
+    @Test
+    public void nacksCompleteExceptionally() throws Exception {
+        services.respond("SERVICE.VALUESERVICE", request -> TestHelper.createNack("Device unknown"));
+        shadow = new ValueShadow(serviceClient, 1, TimeUnit.HOURS);
+        String sgtin = TestHelper.randomSgtin();
+
+        try {
+            shadow.getValuesAsync(sgtin).join();
+            fail("The Nack should complete the future exceptionally");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause().getMessage().contains("Device unknown"));
+        }
+        assertEquals(0, shadow.getDeviceCount());
+    }
+
+}
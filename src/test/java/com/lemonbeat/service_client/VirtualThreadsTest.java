@@ -0,0 +1,88 @@
+package com.lemonbeat.service_client;
+
+import com.lemonbeat.lsbl.lsbl.Lsbl;
+import com.rabbitmq.client.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the callbacks on virtual threads against the InMemoryBroker, the tests are skipped before Java 21.
+ */
+public class VirtualThreadsTest {
+
+    InMemoryBroker broker;
+    ServiceResponders services;
+    ServiceClient serviceClient;
+
+    @Before
+    public void setup() throws IOException {
+        broker = new InMemoryBroker();
+        services = new ServiceResponders(broker.newConnection()).start();
+        serviceClient = new ServiceClient(broker.newConnection());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        services.close();
+        serviceClient.getConnection().close();
+    }
+
+    @Test
+    public void detectsTheRuntime() {
+        assertEquals(Runtime.version().feature() >= 21, VirtualThreads.isSupported());
+        assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void failsBeforeJava21() {
+        assumeFalse(VirtualThreads.isSupported());
+        serviceClient.setVirtualThreads(true);
+    }
+
+    @Test
+    public void runsEventCallbacksOnVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        serviceClient.setVirtualThreads(true);
+        String deviceSgtin = TestHelper.randomSgtin();
+        CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+
+        Subscription subscription = serviceClient.subscribeValueReports(valueReport -> {
+            if(valueReport != null && deviceSgtin.equals(valueReport.getDeviceSgtin())) {
+                virtual.complete(VirtualThreads.isVirtual(Thread.currentThread()));
+            }
+        });
+        Lsbl event = TestHelper.createValueReportedEvent(deviceSgtin, TestHelper.randomSgtin(), TestHelper.createValueReport());
+        Channel channel = broker.newConnection().createChannel();
+        channel.basicPublish("EVENT.APP", "EVENT.APP.VALUESERVICE.DEVICE_VALUE_REPORTED", null, LsblCodec.encode(event));
+
+        assertTrue(virtual.get(10, TimeUnit.SECONDS));
+        subscription.cancel();
+    }
+
+    @Test
+    public void callbacksMayBlockOnCalls() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        serviceClient.setVirtualThreads(true);
+        serviceClient.setSharedReplyQueue(true);
+        TopoServiceClient topoServiceClient = new TopoServiceClient(serviceClient);
+        CompletableFuture<Lsbl> deviceList = new CompletableFuture<>();
+
+        // The nested blocking call would wait forever on the consumer thread of the shared reply queue
+        topoServiceClient.getGatewayList(gatewayList -> deviceList.complete(
+                topoServiceClient.getDeviceListAwait(gatewayList.getResponse().getTopoResponse().getGwListGet().getGw().get(0))));
+
+        Lsbl response = deviceList.get(10, TimeUnit.SECONDS);
+        assertFalse(ServiceClient.isTimeout(response));
+        assertNotNull(response.getResponse().getTopoResponse().getGwDeviceListGet());
+    }
+
+}